@@ -0,0 +1,103 @@
+/*
+ * Copyright 2012-2022 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.elasticsearch.configsync.service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.codec.binary.Base64;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.util.PageCacheRecycler;
+import org.elasticsearch.core.IOUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks decoding and writing a config file in a sync cycle. streamingDecodeAndWrite is the one used in
+ * ConfigSyncService#updateConfigFile.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(value = 1, jvmArgsAppend = { "-Xms4g", "-Xmx4g" })
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class ConfigFileWriteBenchmark {
+
+    @Param({ "1024", "65536", "1048576", "16777216", "104857600", "524288000" })
+    public int fileSize;
+
+    private Map<String, Object> source;
+
+    private Path tempDir;
+
+    private Path filePath;
+
+    private final PageCacheRecycler recycler = new PageCacheRecycler(Settings.EMPTY);
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        final byte[] content = new byte[fileSize];
+        new Random(fileSize).nextBytes(content);
+        source = new HashMap<>();
+        source.put(ConfigSyncService.PATH, "dir/test.txt");
+        source.put(ConfigSyncService.TIMESTAMP, "2024-01-01T00:00:00.000Z");
+        source.put(ConfigSyncService.CONTENT, Base64.encodeBase64String(content));
+        tempDir = Files.createTempDirectory("configsync-bench");
+        filePath = tempDir.resolve("test.txt");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        IOUtils.rm(tempDir);
+    }
+
+    @Benchmark
+    public byte[] decode() {
+        return ConfigSyncService.getContent(source);
+    }
+
+    @Benchmark
+    public long decodeAndWrite() throws IOException {
+        final byte[] content = ConfigSyncService.getContent(source);
+        Files.write(filePath, content);
+        return content.length;
+    }
+
+    @Benchmark
+    public long streamingDecodeAndWrite() throws IOException {
+        try (OutputStream out = Files.newOutputStream(filePath)) {
+            return ConfigSyncService.decodeTo((String) source.get(ConfigSyncService.CONTENT), out, recycler, new long[1]);
+        }
+    }
+}
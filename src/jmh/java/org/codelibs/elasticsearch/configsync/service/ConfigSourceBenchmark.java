@@ -0,0 +1,123 @@
+/*
+ * Copyright 2012-2022 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.elasticsearch.configsync.service;
+
+import java.io.IOException;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.codec.binary.Base64;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.xcontent.XContentBuilder;
+import org.elasticsearch.xcontent.XContentFactory;
+import org.elasticsearch.xcontent.XContentType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks per-document work of a scroll page in ConfigFileWriter#onResponse: parsing the source,
+ * the timestamp and the document id. Each invocation processes one batch of documents.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class ConfigSourceBenchmark {
+
+    @Param({ "1", "100", "1000", "10000" })
+    public int batchSize;
+
+    @Param({ "1024" })
+    public int fileSize;
+
+    private final List<BytesReference> sources = new ArrayList<>();
+
+    private final List<String> paths = new ArrayList<>();
+
+    private final List<String> timestamps = new ArrayList<>();
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        final Random random = new Random(batchSize);
+        for (int i = 0; i < batchSize; i++) {
+            final byte[] content = new byte[fileSize];
+            random.nextBytes(content);
+            final String path = "dir" + (i % 100) + "/file" + i + ".txt";
+            final String timestamp = "2024-01-01T00:00:" + String.format("%02d", i % 60) + ".000Z";
+            try (XContentBuilder builder = XContentFactory.jsonBuilder()) {
+                builder.startObject();
+                builder.field(ConfigSyncService.PATH, path);
+                builder.field(ConfigSyncService.CONTENT, Base64.encodeBase64String(content));
+                builder.field(ConfigSyncService.TIMESTAMP, timestamp);
+                builder.endObject();
+                sources.add(BytesReference.bytes(builder));
+            }
+            paths.add(path);
+            timestamps.add(timestamp);
+        }
+    }
+
+    @Benchmark
+    public void parseSource(final Blackhole blackhole) {
+        for (final BytesReference source : sources) {
+            blackhole.consume(XContentHelper.convertToMap(source, false, XContentType.JSON).v2());
+        }
+    }
+
+    @Benchmark
+    public void getTimestamp(final Blackhole blackhole) throws ParseException {
+        for (final String timestamp : timestamps) {
+            blackhole.consume(ConfigSyncService.getTimestamp(timestamp));
+        }
+    }
+
+    @Benchmark
+    public void getId(final Blackhole blackhole) {
+        for (final String path : paths) {
+            blackhole.consume(ConfigSyncService.getId(path));
+        }
+    }
+
+    @Benchmark
+    public void processBatch(final Blackhole blackhole) throws ParseException {
+        for (final BytesReference bytes : sources) {
+            final Map<String, Object> source = XContentHelper.convertToMap(bytes, false, XContentType.JSON).v2();
+            final Date timestamp = ConfigSyncService.getTimestamp(source.get(ConfigSyncService.TIMESTAMP));
+            blackhole.consume(timestamp);
+            blackhole.consume(ConfigSyncService.getId((String) source.get(ConfigSyncService.PATH)));
+            blackhole.consume(ConfigSyncService.getContent(source));
+        }
+    }
+}
@@ -22,15 +22,38 @@ import java.util.List;
 import java.util.function.Predicate;
 import java.util.function.Supplier;
 
+import org.codelibs.elasticsearch.configsync.action.ConfigFileFlushAction;
+import org.codelibs.elasticsearch.configsync.action.ConfigResetSyncAction;
+import org.codelibs.elasticsearch.configsync.action.ConfigSyncTask;
+import org.codelibs.elasticsearch.configsync.action.FileChunkAction;
 import org.codelibs.elasticsearch.configsync.action.FileFlushAction;
 import org.codelibs.elasticsearch.configsync.action.ResetSyncAction;
+import org.codelibs.elasticsearch.configsync.action.StatsAction;
+import org.codelibs.elasticsearch.configsync.action.StatusAction;
+import org.codelibs.elasticsearch.configsync.action.TransportConfigFileFlushAction;
+import org.codelibs.elasticsearch.configsync.action.TransportConfigResetSyncAction;
+import org.codelibs.elasticsearch.configsync.action.TransportFileChunkAction;
 import org.codelibs.elasticsearch.configsync.action.TransportFileFlushAction;
 import org.codelibs.elasticsearch.configsync.action.TransportResetSyncAction;
+import org.codelibs.elasticsearch.configsync.action.TransportStatsAction;
+import org.codelibs.elasticsearch.configsync.action.TransportStatusAction;
+import org.codelibs.elasticsearch.configsync.action.TransportVerifyAction;
+import org.codelibs.elasticsearch.configsync.action.VerifyAction;
+import org.codelibs.elasticsearch.configsync.rest.RestConfigSyncCopyAction;
 import org.codelibs.elasticsearch.configsync.rest.RestConfigSyncFileAction;
 import org.codelibs.elasticsearch.configsync.rest.RestConfigSyncFlushAction;
+import org.codelibs.elasticsearch.configsync.rest.RestConfigSyncReleaseAction;
 import org.codelibs.elasticsearch.configsync.rest.RestConfigSyncResetAction;
+import org.codelibs.elasticsearch.configsync.rest.RestConfigSyncRollbackAction;
+import org.codelibs.elasticsearch.configsync.rest.RestConfigSyncStatsAction;
+import org.codelibs.elasticsearch.configsync.rest.RestConfigSyncStatusAction;
+import org.codelibs.elasticsearch.configsync.rest.RestConfigSyncVerifyAction;
 import org.codelibs.elasticsearch.configsync.rest.RestConfigSyncWaitAction;
+import org.codelibs.elasticsearch.configsync.service.ConfigPathFilter;
+import org.codelibs.elasticsearch.configsync.service.ConfigSyncHealthIndicatorService;
 import org.codelibs.elasticsearch.configsync.service.ConfigSyncService;
+import org.codelibs.elasticsearch.configsync.service.ConfigSyncSlowLog;
+import org.codelibs.elasticsearch.configsync.service.ConfigSyncThrottle;
 import org.elasticsearch.action.ActionRequest;
 import org.elasticsearch.action.ActionResponse;
 import org.elasticsearch.cluster.metadata.IndexNameExpressionResolver;
@@ -42,20 +65,36 @@ import org.elasticsearch.common.settings.Setting;
 import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.common.settings.SettingsFilter;
 import org.elasticsearch.features.NodeFeature;
+import org.elasticsearch.health.HealthIndicatorService;
 import org.elasticsearch.plugins.ActionPlugin;
+import org.elasticsearch.plugins.HealthPlugin;
 import org.elasticsearch.plugins.Plugin;
 import org.elasticsearch.rest.RestController;
 import org.elasticsearch.rest.RestHandler;
+import org.elasticsearch.tasks.Task;
 
-public class ConfigSyncPlugin extends Plugin implements ActionPlugin {
+public class ConfigSyncPlugin extends Plugin implements ActionPlugin, HealthPlugin {
 
     ConfigSyncService service;
 
+    ConfigSyncHealthIndicatorService healthIndicatorService;
+
     @Override
     public List<ActionHandler<? extends ActionRequest, ? extends ActionResponse>> getActions() {
         return Arrays.asList(//
+                new ActionHandler<>(ConfigFileFlushAction.INSTANCE, TransportConfigFileFlushAction.class), //
+                new ActionHandler<>(ConfigResetSyncAction.INSTANCE, TransportConfigResetSyncAction.class), //
                 new ActionHandler<>(FileFlushAction.INSTANCE, TransportFileFlushAction.class), //
-                new ActionHandler<>(ResetSyncAction.INSTANCE, TransportResetSyncAction.class));
+                new ActionHandler<>(ResetSyncAction.INSTANCE, TransportResetSyncAction.class), //
+                new ActionHandler<>(VerifyAction.INSTANCE, TransportVerifyAction.class), //
+                new ActionHandler<>(FileChunkAction.INSTANCE, TransportFileChunkAction.class), //
+                new ActionHandler<>(StatsAction.INSTANCE, TransportStatsAction.class), //
+                new ActionHandler<>(StatusAction.INSTANCE, TransportStatusAction.class));
+    }
+
+    @Override
+    public List<NamedWriteableRegistry.Entry> getNamedWriteables() {
+        return Arrays.asList(new NamedWriteableRegistry.Entry(Task.Status.class, ConfigSyncTask.Status.NAME, ConfigSyncTask.Status::new));
     }
 
     @Override
@@ -67,17 +106,32 @@ public class ConfigSyncPlugin extends Plugin implements ActionPlugin {
                 new RestConfigSyncFileAction(settings, restController, service), //
                 new RestConfigSyncResetAction(settings, restController, service), //
                 new RestConfigSyncFlushAction(settings, restController, service), //
-                new RestConfigSyncWaitAction(settings, restController, service));
+                new RestConfigSyncWaitAction(settings, restController, service), //
+                new RestConfigSyncVerifyAction(settings, restController, service), //
+                new RestConfigSyncRollbackAction(settings, restController, service), //
+                new RestConfigSyncReleaseAction(settings, restController, service), //
+                new RestConfigSyncCopyAction(settings, restController, service), //
+                new RestConfigSyncStatsAction(settings, restController, service), //
+                new RestConfigSyncStatusAction(settings, restController, service));
     }
 
     @Override
     public Collection<?> createComponents(final PluginServices services) {
         final Collection<Object> components = new ArrayList<>();
-        service = new ConfigSyncService(services.client(), services.clusterService(), services.environment(), services.threadPool());
+        service = new ConfigSyncService(services.client(), services.clusterService(), services.environment(), services.threadPool(),
+                services.telemetryProvider().getTracer());
         components.add(service);
+        healthIndicatorService = new ConfigSyncHealthIndicatorService(service, services.clusterService(), services.threadPool(),
+                services.environment().settings());
+        components.add(healthIndicatorService);
         return components;
     }
 
+    @Override
+    public Collection<HealthIndicatorService> getHealthIndicatorServices() {
+        return Arrays.asList(healthIndicatorService);
+    }
+
     @Override
     public List<Setting<?>> getSettings() {
         return Arrays.asList(//
@@ -85,10 +139,32 @@ public class ConfigSyncPlugin extends Plugin implements ActionPlugin {
                 ConfigSyncService.XPACK_SECURITY_USER_SETTING, //
                 ConfigSyncService.XPACK_SECURITY_PASSWORD_SETTING, //
                 ConfigSyncService.CONFIG_PATH_SETTING, //
+                ConfigSyncService.TRASH_PATH_SETTING, //
+                ConfigSyncService.TOMBSTONE_RETENTION_SETTING, //
+                ConfigSyncService.HISTORY_SIZE_SETTING, //
                 ConfigSyncService.SCROLL_TIME_SETTING, //
                 ConfigSyncService.SCROLL_SIZE_SETTING, //
                 ConfigSyncService.FLUSH_INTERVAL_SETTING, //
-                ConfigSyncService.FILE_UPDATER_ENABLED_SETTING//
+                ConfigSyncService.FILE_UPDATER_ENABLED_SETTING, //
+                ConfigSyncService.CONTENT_CACHE_SIZE_SETTING, //
+                ConfigSyncService.RELOAD_ANALYZERS_SETTING, //
+                ConfigSyncService.BLOCK_TRANSFER_THRESHOLD_SETTING, //
+                ConfigSyncService.PEER_TRANSFER_MAX_CONCURRENT_CHUNKS_SETTING, //
+                ConfigSyncThrottle.MAX_BYTES_PER_SEC_SETTING, //
+                ConfigPathFilter.NODES_SETTING, //
+                ConfigPathFilter.INCLUDE_SETTING, //
+                ConfigPathFilter.EXCLUDE_SETTING, //
+                ConfigPathFilter.SPARSE_ENABLED_SETTING, //
+                ConfigSyncSlowLog.CYCLE_WARN_SETTING, //
+                ConfigSyncSlowLog.CYCLE_INFO_SETTING, //
+                ConfigSyncSlowLog.WRITE_WARN_SETTING, //
+                ConfigSyncSlowLog.WRITE_INFO_SETTING, //
+                ConfigSyncSlowLog.SIZE_WARN_SETTING, //
+                ConfigSyncSlowLog.SIZE_INFO_SETTING, //
+                ConfigSyncHealthIndicatorService.LAG_YELLOW_SETTING, //
+                ConfigSyncHealthIndicatorService.LAG_RED_SETTING, //
+                ConfigSyncHealthIndicatorService.FAILURES_YELLOW_SETTING, //
+                ConfigSyncHealthIndicatorService.FAILURES_RED_SETTING//
         );
     }
 
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2012-2022 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.elasticsearch.configsync.action;
+
+import java.io.IOException;
+import java.util.Map;
+
+import org.elasticsearch.action.ActionRequest;
+import org.elasticsearch.action.ActionRequestValidationException;
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.tasks.Task;
+import org.elasticsearch.tasks.TaskId;
+
+public class ConfigResetSyncRequest extends ActionRequest {
+
+    private final boolean shouldStoreResult;
+
+    private final String[] nodeIds;
+
+    public ConfigResetSyncRequest(final boolean shouldStoreResult) {
+        this(shouldStoreResult, Strings.EMPTY_ARRAY);
+    }
+
+    public ConfigResetSyncRequest(final boolean shouldStoreResult, final String[] nodeIds) {
+        this.shouldStoreResult = shouldStoreResult;
+        this.nodeIds = nodeIds;
+    }
+
+    ConfigResetSyncRequest(final StreamInput in) throws IOException {
+        super(in);
+        shouldStoreResult = in.readBoolean();
+        nodeIds = in.readStringArray();
+    }
+
+    @Override
+    public void writeTo(final StreamOutput out) throws IOException {
+        super.writeTo(out);
+        out.writeBoolean(shouldStoreResult);
+        out.writeStringArray(nodeIds);
+    }
+
+    public String[] getNodeIds() {
+        return nodeIds;
+    }
+
+    @Override
+    public ActionRequestValidationException validate() {
+        return null;
+    }
+
+    @Override
+    public boolean getShouldStoreResult() {
+        return shouldStoreResult;
+    }
+
+    @Override
+    public Task createTask(final long id, final String type, final String action, final TaskId parentTaskId,
+            final Map<String, String> headers) {
+        return new ConfigSyncTask(id, type, action, getDescription(), parentTaskId, headers);
+    }
+
+    @Override
+    public String getDescription() {
+        return "configsync reset";
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2012-2022 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.elasticsearch.configsync.action;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.tasks.CancellableTask;
+import org.elasticsearch.tasks.Task;
+import org.elasticsearch.tasks.TaskId;
+import org.elasticsearch.xcontent.ToXContent;
+import org.elasticsearch.xcontent.XContentBuilder;
+
+/**
+ * Cancellable task of flush and reset. A parent task on the coordinating node counts completed nodes,
+ * and a child task on each node counts processed files and written bytes.
+ */
+public class ConfigSyncTask extends CancellableTask {
+
+    private final AtomicInteger totalNodes = new AtomicInteger();
+
+    private final AtomicInteger completedNodes = new AtomicInteger();
+
+    private final LongAdder processedFiles = new LongAdder();
+
+    private final LongAdder writtenBytes = new LongAdder();
+
+    public ConfigSyncTask(final long id, final String type, final String action, final String description, final TaskId parentTaskId,
+            final Map<String, String> headers) {
+        super(id, type, action, description, parentTaskId, headers);
+    }
+
+    public void setTotalNodes(final int numOfNodes) {
+        totalNodes.set(numOfNodes);
+    }
+
+    public void onNodeCompleted() {
+        completedNodes.incrementAndGet();
+    }
+
+    public void onFileProcessed(final long bytes) {
+        processedFiles.increment();
+        writtenBytes.add(bytes);
+    }
+
+    @Override
+    public Status getStatus() {
+        return new Status(totalNodes.get(), completedNodes.get(), processedFiles.sum(), writtenBytes.sum());
+    }
+
+    public static class Status implements Task.Status {
+
+        public static final String NAME = "configsync_sync";
+
+        private final int totalNodes;
+
+        private final int completedNodes;
+
+        private final long processedFiles;
+
+        private final long writtenBytes;
+
+        public Status(final int totalNodes, final int completedNodes, final long processedFiles, final long writtenBytes) {
+            this.totalNodes = totalNodes;
+            this.completedNodes = completedNodes;
+            this.processedFiles = processedFiles;
+            this.writtenBytes = writtenBytes;
+        }
+
+        public Status(final StreamInput in) throws IOException {
+            totalNodes = in.readVInt();
+            completedNodes = in.readVInt();
+            processedFiles = in.readVLong();
+            writtenBytes = in.readVLong();
+        }
+
+        @Override
+        public void writeTo(final StreamOutput out) throws IOException {
+            out.writeVInt(totalNodes);
+            out.writeVInt(completedNodes);
+            out.writeVLong(processedFiles);
+            out.writeVLong(writtenBytes);
+        }
+
+        @Override
+        public String getWriteableName() {
+            return NAME;
+        }
+
+        @Override
+        public XContentBuilder toXContent(final XContentBuilder builder, final ToXContent.Params params) throws IOException {
+            builder.startObject();
+            builder.field("total_nodes", totalNodes);
+            builder.field("completed_nodes", completedNodes);
+            builder.field("processed_files", processedFiles);
+            builder.field("written_bytes", writtenBytes);
+            return builder.endObject();
+        }
+
+        @Override
+        public String toString() {
+            return Strings.toString(this);
+        }
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2012-2022 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.elasticsearch.configsync.action;
+
+import static org.elasticsearch.action.ValidateActions.addValidationError;
+
+import java.io.IOException;
+
+import org.codelibs.elasticsearch.configsync.service.ContentBlocks;
+import org.elasticsearch.action.ActionRequest;
+import org.elasticsearch.action.ActionRequestValidationException;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+
+public class FileChunkRequest extends ActionRequest {
+
+    private final String path;
+
+    private final String hash;
+
+    private final long offset;
+
+    private final int length;
+
+    public FileChunkRequest(final String path, final String hash, final long offset, final int length) {
+        this.path = path;
+        this.hash = hash;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    FileChunkRequest(final StreamInput in) throws IOException {
+        super(in);
+        path = in.readString();
+        hash = in.readString();
+        offset = in.readVLong();
+        length = in.readVInt();
+    }
+
+    @Override
+    public void writeTo(final StreamOutput out) throws IOException {
+        super.writeTo(out);
+        out.writeString(path);
+        out.writeString(hash);
+        out.writeVLong(offset);
+        out.writeVInt(length);
+    }
+
+    @Override
+    public ActionRequestValidationException validate() {
+        ActionRequestValidationException validationException = null;
+        // a chunk is a block, and its buffer is allocated by the length
+        if (length < 0 || length > ContentBlocks.MAX_BLOCK_SIZE) {
+            validationException = addValidationError("length must be between 0 and " + ContentBlocks.MAX_BLOCK_SIZE, validationException);
+        }
+        if (offset < 0) {
+            validationException = addValidationError("offset must not be negative", validationException);
+        }
+        return validationException;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public String getHash() {
+        return hash;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public int getLength() {
+        return length;
+    }
+}
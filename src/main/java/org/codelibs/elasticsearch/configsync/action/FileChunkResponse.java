@@ -0,0 +1,53 @@
+/*
+ * Copyright 2012-2022 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.elasticsearch.configsync.action;
+
+import java.io.IOException;
+
+import org.elasticsearch.action.ActionResponse;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+
+/**
+ * A chunk of a file on a peer. The content is null if the peer does not have the file with the requested hash,
+ * or it is too busy to serve the chunk.
+ */
+public class FileChunkResponse extends ActionResponse {
+
+    private final byte[] content;
+
+    FileChunkResponse(final StreamInput in) throws IOException {
+        content = in.readBoolean() ? BytesReference.toBytes(in.readBytesReference()) : null;
+    }
+
+    FileChunkResponse(final byte[] content) {
+        this.content = content;
+    }
+
+    @Override
+    public void writeTo(final StreamOutput out) throws IOException {
+        out.writeBoolean(content != null);
+        if (content != null) {
+            out.writeBytesReference(new BytesArray(content));
+        }
+    }
+
+    public byte[] getContent() {
+        return content;
+    }
+}
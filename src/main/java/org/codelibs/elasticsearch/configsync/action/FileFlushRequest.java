@@ -16,10 +16,13 @@
 package org.codelibs.elasticsearch.configsync.action;
 
 import java.io.IOException;
+import java.util.Map;
 
 import org.elasticsearch.action.ActionRequest;
 import org.elasticsearch.action.ActionRequestValidationException;
 import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.tasks.Task;
+import org.elasticsearch.tasks.TaskId;
 
 public class FileFlushRequest extends ActionRequest {
     FileFlushRequest() {
@@ -34,4 +37,15 @@ public class FileFlushRequest extends ActionRequest {
         // TODO Auto-generated method stub
         return null;
     }
+
+    @Override
+    public Task createTask(final long id, final String type, final String action, final TaskId parentTaskId,
+            final Map<String, String> headers) {
+        return new ConfigSyncTask(id, type, action, getDescription(), parentTaskId, headers);
+    }
+
+    @Override
+    public String getDescription() {
+        return "configsync flush";
+    }
 }
\ No newline at end of file
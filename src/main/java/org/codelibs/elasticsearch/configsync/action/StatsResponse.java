@@ -0,0 +1,45 @@
+/*
+ * Copyright 2012-2022 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.elasticsearch.configsync.action;
+
+import java.io.IOException;
+
+import org.codelibs.elasticsearch.configsync.service.ConfigSyncStats;
+import org.elasticsearch.action.ActionResponse;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+
+public class StatsResponse extends ActionResponse {
+
+    private final ConfigSyncStats.Snapshot stats;
+
+    StatsResponse(final StreamInput in) throws IOException {
+        stats = new ConfigSyncStats.Snapshot(in);
+    }
+
+    StatsResponse(final ConfigSyncStats.Snapshot stats) {
+        this.stats = stats;
+    }
+
+    @Override
+    public void writeTo(final StreamOutput out) throws IOException {
+        stats.writeTo(out);
+    }
+
+    public ConfigSyncStats.Snapshot getStats() {
+        return stats;
+    }
+}
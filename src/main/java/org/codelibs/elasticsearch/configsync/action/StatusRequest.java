@@ -0,0 +1,62 @@
+/*
+ * Copyright 2012-2022 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.elasticsearch.configsync.action;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import org.elasticsearch.action.ActionRequest;
+import org.elasticsearch.action.ActionRequestValidationException;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+
+public class StatusRequest extends ActionRequest {
+
+    private final List<String> paths;
+
+    public StatusRequest() {
+        this(Collections.emptyList());
+    }
+
+    /**
+     * Creates a request which also asks applied revisions of the paths.
+     */
+    public StatusRequest(final Collection<String> paths) {
+        this.paths = List.copyOf(paths);
+    }
+
+    StatusRequest(final StreamInput in) throws IOException {
+        super(in);
+        paths = in.readStringCollectionAsList();
+    }
+
+    @Override
+    public void writeTo(final StreamOutput out) throws IOException {
+        super.writeTo(out);
+        out.writeStringCollection(paths);
+    }
+
+    public List<String> getPaths() {
+        return paths;
+    }
+
+    @Override
+    public ActionRequestValidationException validate() {
+        return null;
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2012-2022 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.elasticsearch.configsync.action;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.elasticsearch.action.ActionResponse;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.core.Tuple;
+
+public class StatusResponse extends ActionResponse {
+
+    private final long watermark;
+
+    private final long lastCycleEndTime;
+
+    private final long lastCycleTookInMillis;
+
+    private final List<String> pendingPaths;
+
+    private final long numOfPending;
+
+    private final Tuple<Long, String> lastError;
+
+    private final String updaterState;
+
+    private final int consecutiveFailures;
+
+    private final Map<String, Long> appliedRevisions;
+
+    StatusResponse(final StreamInput in) throws IOException {
+        watermark = in.readLong();
+        lastCycleEndTime = in.readLong();
+        lastCycleTookInMillis = in.readLong();
+        pendingPaths = in.readStringCollectionAsList();
+        numOfPending = in.readVLong();
+        if (in.readBoolean()) {
+            lastError = new Tuple<>(in.readLong(), in.readString());
+        } else {
+            lastError = null;
+        }
+        updaterState = in.readString();
+        consecutiveFailures = in.readVInt();
+        appliedRevisions = in.readMap(StreamInput::readString, StreamInput::readLong);
+    }
+
+    public StatusResponse(final long watermark, final long lastCycleEndTime, final long lastCycleTookInMillis,
+            final List<String> pendingPaths, final long numOfPending, final Tuple<Long, String> lastError, final String updaterState,
+            final int consecutiveFailures, final Map<String, Long> appliedRevisions) {
+        this.watermark = watermark;
+        this.lastCycleEndTime = lastCycleEndTime;
+        this.lastCycleTookInMillis = lastCycleTookInMillis;
+        this.pendingPaths = pendingPaths;
+        this.numOfPending = numOfPending;
+        this.lastError = lastError;
+        this.updaterState = updaterState;
+        this.consecutiveFailures = consecutiveFailures;
+        this.appliedRevisions = appliedRevisions;
+    }
+
+    @Override
+    public void writeTo(final StreamOutput out) throws IOException {
+        out.writeLong(watermark);
+        out.writeLong(lastCycleEndTime);
+        out.writeLong(lastCycleTookInMillis);
+        out.writeStringCollection(pendingPaths);
+        out.writeVLong(numOfPending);
+        if (lastError != null) {
+            out.writeBoolean(true);
+            out.writeLong(lastError.v1());
+            out.writeString(lastError.v2());
+        } else {
+            out.writeBoolean(false);
+        }
+        out.writeString(updaterState);
+        out.writeVInt(consecutiveFailures);
+        out.writeMap(appliedRevisions, StreamOutput::writeString, StreamOutput::writeLong);
+    }
+
+    /**
+     * Returns the start time of the last completed sync cycle. Files updated before it are applied on the node.
+     */
+    public long getWatermark() {
+        return watermark;
+    }
+
+    public List<String> getPendingPaths() {
+        return pendingPaths;
+    }
+
+    public Tuple<Long, String> getLastError() {
+        return lastError;
+    }
+
+    public String getUpdaterState() {
+        return updaterState;
+    }
+
+    public int getConsecutiveFailures() {
+        return consecutiveFailures;
+    }
+
+    /**
+     * Returns revisions applied on the node for requested paths which the node syncs. A path not applied yet has -1,
+     * and a path which the node does not sync is not contained.
+     */
+    public Map<String, Long> getAppliedRevisions() {
+        return appliedRevisions;
+    }
+
+    public Map<String, Object> toMap() {
+        final Map<String, Object> map = new HashMap<>();
+        map.put("watermark", watermark);
+        map.put("last_cycle_end_time", lastCycleEndTime);
+        map.put("last_cycle_took_in_millis", lastCycleTookInMillis);
+        map.put("pending_paths", pendingPaths);
+        map.put("num_of_pending", numOfPending);
+        map.put("updater_state", updaterState);
+        map.put("consecutive_failures", consecutiveFailures);
+        if (lastError != null) {
+            final Map<String, Object> error = new HashMap<>();
+            error.put("timestamp", lastError.v1());
+            error.put("reason", lastError.v2());
+            map.put("last_error", error);
+        }
+        if (!appliedRevisions.isEmpty()) {
+            map.put("applied_revisions", appliedRevisions);
+        }
+        return map;
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2012-2022 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.elasticsearch.configsync.action;
+
+import java.io.IOException;
+import java.util.concurrent.Executor;
+
+import org.codelibs.elasticsearch.configsync.service.ConfigSyncService;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.support.ActionFilters;
+import org.elasticsearch.action.support.HandledTransportAction;
+import org.elasticsearch.cluster.node.DiscoveryNode;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.tasks.Task;
+import org.elasticsearch.threadpool.ThreadPool.Names;
+import org.elasticsearch.transport.TransportException;
+import org.elasticsearch.transport.TransportResponseHandler;
+import org.elasticsearch.transport.TransportService;
+
+public class TransportFileChunkAction extends HandledTransportAction<FileChunkRequest, FileChunkResponse> {
+
+    private final TransportService transportService;
+
+    private final ConfigSyncService configSyncService;
+
+    @Inject
+    public TransportFileChunkAction(final TransportService transportService, final ActionFilters actionFilters,
+            final ConfigSyncService configSyncService) {
+        super(FileChunkAction.NAME, transportService, actionFilters, FileChunkRequest::new,
+                transportService.getThreadPool().executor(Names.GENERIC));
+        this.transportService = transportService;
+        this.configSyncService = configSyncService;
+        configSyncService.setFileChunkAction(this);
+    }
+
+    @Override
+    protected void doExecute(final Task task, final FileChunkRequest request, final ActionListener<FileChunkResponse> listener) {
+        try {
+            listener.onResponse(new FileChunkResponse(
+                    configSyncService.readFileChunk(request.getPath(), request.getHash(), request.getOffset(), request.getLength())));
+        } catch (final Exception e) {
+            listener.onFailure(e);
+        }
+    }
+
+    public void sendRequest(final DiscoveryNode node, final FileChunkRequest request, final ActionListener<FileChunkResponse> listener) {
+        transportService.sendRequest(node, FileChunkAction.NAME, request, new TransportResponseHandler<FileChunkResponse>() {
+
+            @Override
+            public FileChunkResponse read(final StreamInput in) throws IOException {
+                return new FileChunkResponse(in);
+            }
+
+            @Override
+            public void handleResponse(final FileChunkResponse response) {
+                listener.onResponse(response);
+            }
+
+            @Override
+            public void handleException(final TransportException exp) {
+                listener.onFailure(exp);
+            }
+
+            @Override
+            public Executor executor() {
+                // a block is verified by its hash, and the next step of the sync continues on the thread
+                return transportService.getThreadPool().executor(Names.GENERIC);
+            }
+        });
+    }
+}
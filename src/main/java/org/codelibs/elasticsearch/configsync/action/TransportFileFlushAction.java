@@ -28,9 +28,14 @@ import org.elasticsearch.action.support.HandledTransportAction;
 import org.elasticsearch.cluster.node.DiscoveryNode;
 import org.elasticsearch.common.inject.Inject;
 import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.util.BigArrays;
+import org.elasticsearch.common.util.PageCacheRecycler;
 import org.elasticsearch.common.util.concurrent.EsExecutors;
+import org.elasticsearch.indices.IndicesService;
+import org.elasticsearch.indices.breaker.CircuitBreakerService;
 import org.elasticsearch.tasks.Task;
 import org.elasticsearch.transport.TransportException;
+import org.elasticsearch.transport.TransportRequestOptions;
 import org.elasticsearch.transport.TransportResponseHandler;
 import org.elasticsearch.transport.TransportService;
 
@@ -42,25 +47,35 @@ public class TransportFileFlushAction extends HandledTransportAction<FileFlushRe
 
     @Inject
     public TransportFileFlushAction(final TransportService transportService, final ActionFilters actionFilters,
-            final ConfigSyncService configSyncService) {
+            final ConfigSyncService configSyncService, final BigArrays bigArrays, final PageCacheRecycler pageCacheRecycler,
+            final CircuitBreakerService circuitBreakerService, final IndicesService indicesService) {
         super(FileFlushAction.NAME, transportService, actionFilters, FileFlushRequest::new, EsExecutors.DIRECT_EXECUTOR_SERVICE);
         this.transportService = transportService;
         this.configSyncService = configSyncService;
         configSyncService.setFileFlushAction(this);
+        // they are not given to plugin components, so they are injected here
+        configSyncService.setBigArrays(bigArrays);
+        configSyncService.setPageCacheRecycler(pageCacheRecycler);
+        configSyncService.setCircuitBreakerService(circuitBreakerService);
+        configSyncService.setIndicesService(indicesService);
     }
 
     @Override
     protected void doExecute(final Task task, final FileFlushRequest request, final ActionListener<FileFlushResponse> listener) {
-        configSyncService.newConfigFileWriter().execute(wrap(response -> {
+        configSyncService.newConfigFileWriter((ConfigSyncTask) task).execute(wrap(response -> {
             listener.onResponse(new FileFlushResponse(true));
         }, e -> {
             listener.onFailure(e);
         }));
     }
 
-    public void sendRequest(final Iterator<DiscoveryNode> nodesIt, final ActionListener<ConfigFileFlushResponse> listener) {
+    /**
+     * Sends a request to the next node. If the parent task is given, the request is sent as its child task.
+     */
+    public void sendRequest(final ConfigSyncTask parentTask, final Iterator<DiscoveryNode> nodesIt,
+            final ActionListener<ConfigFileFlushResponse> listener) {
         final DiscoveryNode node = nodesIt.next();
-        transportService.sendRequest(node, FileFlushAction.NAME, new FileFlushRequest(), new TransportResponseHandler<FileFlushResponse>() {
+        final TransportResponseHandler<FileFlushResponse> handler = new TransportResponseHandler<FileFlushResponse>() {
 
             @Override
             public FileFlushResponse read(final StreamInput in) throws IOException {
@@ -69,7 +84,10 @@ public class TransportFileFlushAction extends HandledTransportAction<FileFlushRe
 
             @Override
             public void handleResponse(final FileFlushResponse response) {
-                configSyncService.flushOnNode(nodesIt, listener);
+                if (parentTask != null) {
+                    parentTask.onNodeCompleted();
+                }
+                configSyncService.flushOnNode(parentTask, nodesIt, listener);
             }
 
             @Override
@@ -81,6 +99,12 @@ public class TransportFileFlushAction extends HandledTransportAction<FileFlushRe
             public Executor executor() {
                 return TRANSPORT_WORKER;
             }
-        });
+        };
+        if (parentTask != null) {
+            transportService.sendChildRequest(node, FileFlushAction.NAME, new FileFlushRequest(), parentTask, TransportRequestOptions.EMPTY,
+                    handler);
+        } else {
+            transportService.sendRequest(node, FileFlushAction.NAME, new FileFlushRequest(), handler);
+        }
     }
 }
\ No newline at end of file
@@ -31,6 +31,7 @@ import org.elasticsearch.common.io.stream.StreamInput;
 import org.elasticsearch.common.util.concurrent.EsExecutors;
 import org.elasticsearch.tasks.Task;
 import org.elasticsearch.transport.TransportException;
+import org.elasticsearch.transport.TransportRequestOptions;
 import org.elasticsearch.transport.TransportResponseHandler;
 import org.elasticsearch.transport.TransportService;
 
@@ -58,9 +59,13 @@ public class TransportResetSyncAction extends HandledTransportAction<ResetSyncRe
         }));
     }
 
-    public void sendRequest(final Iterator<DiscoveryNode> nodesIt, final ActionListener<ConfigResetSyncResponse> listener) {
+    /**
+     * Sends a request to the next node. If the parent task is given, the request is sent as its child task.
+     */
+    public void sendRequest(final ConfigSyncTask parentTask, final Iterator<DiscoveryNode> nodesIt,
+            final ActionListener<ConfigResetSyncResponse> listener) {
         final DiscoveryNode node = nodesIt.next();
-        transportService.sendRequest(node, ResetSyncAction.NAME, new ResetSyncRequest(), new TransportResponseHandler<ResetSyncResponse>() {
+        final TransportResponseHandler<ResetSyncResponse> handler = new TransportResponseHandler<ResetSyncResponse>() {
 
             @Override
             public ResetSyncResponse read(final StreamInput in) throws IOException {
@@ -69,7 +74,10 @@ public class TransportResetSyncAction extends HandledTransportAction<ResetSyncRe
 
             @Override
             public void handleResponse(final ResetSyncResponse response) {
-                configSyncService.resetSync(nodesIt, listener);
+                if (parentTask != null) {
+                    parentTask.onNodeCompleted();
+                }
+                configSyncService.resetSync(parentTask, nodesIt, listener);
             }
 
             @Override
@@ -81,7 +89,13 @@ public class TransportResetSyncAction extends HandledTransportAction<ResetSyncRe
             public Executor executor() {
                 return TRANSPORT_WORKER;
             }
-        });
+        };
+        if (parentTask != null) {
+            transportService.sendChildRequest(node, ResetSyncAction.NAME, new ResetSyncRequest(), parentTask, TransportRequestOptions.EMPTY,
+                    handler);
+        } else {
+            transportService.sendRequest(node, ResetSyncAction.NAME, new ResetSyncRequest(), handler);
+        }
     }
 
 }
\ No newline at end of file
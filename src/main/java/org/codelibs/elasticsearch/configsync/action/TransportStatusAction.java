@@ -0,0 +1,84 @@
+/*
+ * Copyright 2012-2022 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.elasticsearch.configsync.action;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.Executor;
+
+import org.codelibs.elasticsearch.configsync.service.ConfigSyncService;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.support.ActionFilters;
+import org.elasticsearch.action.support.HandledTransportAction;
+import org.elasticsearch.cluster.node.DiscoveryNode;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.util.concurrent.EsExecutors;
+import org.elasticsearch.tasks.Task;
+import org.elasticsearch.transport.TransportException;
+import org.elasticsearch.transport.TransportResponseHandler;
+import org.elasticsearch.transport.TransportService;
+
+public class TransportStatusAction extends HandledTransportAction<StatusRequest, StatusResponse> {
+
+    private final TransportService transportService;
+
+    private final ConfigSyncService configSyncService;
+
+    @Inject
+    public TransportStatusAction(final TransportService transportService, final ActionFilters actionFilters,
+            final ConfigSyncService configSyncService) {
+        super(StatusAction.NAME, transportService, actionFilters, StatusRequest::new, EsExecutors.DIRECT_EXECUTOR_SERVICE);
+        this.transportService = transportService;
+        this.configSyncService = configSyncService;
+        configSyncService.setStatusAction(this);
+    }
+
+    @Override
+    protected void doExecute(final Task task, final StatusRequest request, final ActionListener<StatusResponse> listener) {
+        configSyncService.getLocalStatus(request.getPaths(), listener);
+    }
+
+    public void sendRequest(final DiscoveryNode node, final ActionListener<StatusResponse> listener) {
+        sendRequest(node, Collections.emptyList(), listener);
+    }
+
+    public void sendRequest(final DiscoveryNode node, final Collection<String> paths, final ActionListener<StatusResponse> listener) {
+        transportService.sendRequest(node, StatusAction.NAME, new StatusRequest(paths), new TransportResponseHandler<StatusResponse>() {
+
+            @Override
+            public StatusResponse read(final StreamInput in) throws IOException {
+                return new StatusResponse(in);
+            }
+
+            @Override
+            public void handleResponse(final StatusResponse response) {
+                listener.onResponse(response);
+            }
+
+            @Override
+            public void handleException(final TransportException exp) {
+                listener.onFailure(exp);
+            }
+
+            @Override
+            public Executor executor() {
+                return TRANSPORT_WORKER;
+            }
+        });
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2012-2022 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.elasticsearch.configsync.action;
+
+import static org.elasticsearch.action.ActionListener.wrap;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+import org.codelibs.elasticsearch.configsync.service.ConfigSyncService;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.support.ActionFilters;
+import org.elasticsearch.action.support.HandledTransportAction;
+import org.elasticsearch.cluster.node.DiscoveryNode;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.tasks.Task;
+import org.elasticsearch.threadpool.ThreadPool.Names;
+import org.elasticsearch.transport.TransportException;
+import org.elasticsearch.transport.TransportResponseHandler;
+import org.elasticsearch.transport.TransportService;
+
+public class TransportVerifyAction extends HandledTransportAction<VerifyRequest, VerifyResponse> {
+
+    private final TransportService transportService;
+
+    private final ConfigSyncService configSyncService;
+
+    @Inject
+    public TransportVerifyAction(final TransportService transportService, final ActionFilters actionFilters,
+            final ConfigSyncService configSyncService) {
+        super(VerifyAction.NAME, transportService, actionFilters, VerifyRequest::new,
+                transportService.getThreadPool().executor(Names.MANAGEMENT));
+        this.transportService = transportService;
+        this.configSyncService = configSyncService;
+        configSyncService.setVerifyAction(this);
+    }
+
+    @Override
+    protected void doExecute(final Task task, final VerifyRequest request, final ActionListener<VerifyResponse> listener) {
+        configSyncService.getLocalHashTree(request.isRefresh(), wrap(tree -> {
+            final Map<String, Map<String, String>> children = new HashMap<>();
+            for (final String dir : request.getDirs()) {
+                children.put(dir, tree.getChildren(dir));
+            }
+            listener.onResponse(new VerifyResponse(tree.getRootHash(), children));
+        }, listener::onFailure));
+    }
+
+    public void sendRequest(final DiscoveryNode node, final VerifyRequest request, final ActionListener<VerifyResponse> listener) {
+        transportService.sendRequest(node, VerifyAction.NAME, request, new TransportResponseHandler<VerifyResponse>() {
+
+            @Override
+            public VerifyResponse read(final StreamInput in) throws IOException {
+                return new VerifyResponse(in);
+            }
+
+            @Override
+            public void handleResponse(final VerifyResponse response) {
+                listener.onResponse(response);
+            }
+
+            @Override
+            public void handleException(final TransportException exp) {
+                listener.onFailure(exp);
+            }
+
+            @Override
+            public Executor executor() {
+                return TRANSPORT_WORKER;
+            }
+        });
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2012-2022 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.elasticsearch.configsync.action;
+
+import java.io.IOException;
+
+import org.elasticsearch.action.ActionRequest;
+import org.elasticsearch.action.ActionRequestValidationException;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+
+public class VerifyRequest extends ActionRequest {
+
+    private final String[] dirs;
+
+    private final boolean refresh;
+
+    public VerifyRequest(final String[] dirs, final boolean refresh) {
+        this.dirs = dirs;
+        this.refresh = refresh;
+    }
+
+    VerifyRequest(final StreamInput in) throws IOException {
+        super(in);
+        dirs = in.readStringArray();
+        refresh = in.readBoolean();
+    }
+
+    @Override
+    public void writeTo(final StreamOutput out) throws IOException {
+        super.writeTo(out);
+        out.writeStringArray(dirs);
+        out.writeBoolean(refresh);
+    }
+
+    @Override
+    public ActionRequestValidationException validate() {
+        return null;
+    }
+
+    public String[] getDirs() {
+        return dirs;
+    }
+
+    public boolean isRefresh() {
+        return refresh;
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2012-2022 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.elasticsearch.configsync.action;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.elasticsearch.action.ActionResponse;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+
+public class VerifyResponse extends ActionResponse {
+
+    private final String rootHash;
+
+    private final Map<String, Map<String, String>> children;
+
+    VerifyResponse(final StreamInput in) throws IOException {
+        rootHash = in.readString();
+        final int size = in.readVInt();
+        children = new HashMap<>(size);
+        for (int i = 0; i < size; i++) {
+            final String dir = in.readString();
+            final int numOfChildren = in.readVInt();
+            final Map<String, String> hashes = new HashMap<>(numOfChildren);
+            for (int j = 0; j < numOfChildren; j++) {
+                hashes.put(in.readString(), in.readString());
+            }
+            children.put(dir, hashes);
+        }
+    }
+
+    VerifyResponse(final String rootHash, final Map<String, Map<String, String>> children) {
+        this.rootHash = rootHash;
+        this.children = children;
+    }
+
+    @Override
+    public void writeTo(final StreamOutput out) throws IOException {
+        out.writeString(rootHash);
+        out.writeVInt(children.size());
+        for (final Map.Entry<String, Map<String, String>> entry : children.entrySet()) {
+            out.writeString(entry.getKey());
+            out.writeVInt(entry.getValue().size());
+            for (final Map.Entry<String, String> hash : entry.getValue().entrySet()) {
+                out.writeString(hash.getKey());
+                out.writeString(hash.getValue());
+            }
+        }
+    }
+
+    public String getRootHash() {
+        return rootHash;
+    }
+
+    public Map<String, String> getChildren(final String dir) {
+        final Map<String, String> hashes = children.get(dir);
+        return hashes != null ? hashes : Collections.emptyMap();
+    }
+}
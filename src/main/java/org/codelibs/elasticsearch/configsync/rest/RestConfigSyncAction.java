@@ -15,14 +15,18 @@
  */
 package org.codelibs.elasticsearch.configsync.rest;
 
+import static org.elasticsearch.action.ActionListener.wrap;
 import static org.elasticsearch.rest.RestStatus.OK;
 
 import java.io.IOException;
+import java.util.Collection;
 import java.util.Map;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.codelibs.elasticsearch.configsync.service.ConfigSyncService;
 import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.core.TimeValue;
 import org.elasticsearch.rest.BaseRestHandler;
 import org.elasticsearch.rest.RestChannel;
 import org.elasticsearch.rest.RestResponse;
@@ -31,6 +35,8 @@ import org.elasticsearch.xcontent.json.JsonXContent;
 
 public abstract class RestConfigSyncAction extends BaseRestHandler {
 
+    protected static final String WAIT_FOR_PROPAGATION = "wait_for_propagation";
+
     protected Logger logger = LogManager.getLogger(getClass());
 
     protected void sendResponse(final RestChannel channel, final Map<String, Object> params) {
@@ -50,6 +56,21 @@ public abstract class RestConfigSyncAction extends BaseRestHandler {
         }
     }
 
+    /**
+     * Sends the response after the paths are applied on all data nodes if waitForPropagation is given.
+     */
+    protected void sendResponse(final RestChannel channel, final Map<String, Object> params, final ConfigSyncService configSyncService,
+            final TimeValue waitForPropagation, final Collection<String> paths) {
+        if (waitForPropagation == null) {
+            sendResponse(channel, params);
+            return;
+        }
+        configSyncService.waitForPropagation(waitForPropagation, paths, wrap(response -> {
+            params.put("propagation", response);
+            sendResponse(channel, params);
+        }, e -> sendErrorResponse(channel, e)));
+    }
+
     protected void sendErrorResponse(final RestChannel channel, final Exception e) {
         try {
             channel.sendResponse(new RestResponse(channel, e));
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2012-2022 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.elasticsearch.configsync.rest;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.unmodifiableList;
+import static org.elasticsearch.action.ActionListener.wrap;
+import static org.elasticsearch.rest.RestRequest.Method.POST;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.codelibs.elasticsearch.configsync.service.ConfigSyncService;
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.client.internal.node.NodeClient;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.core.TimeValue;
+import org.elasticsearch.rest.RestController;
+import org.elasticsearch.rest.RestRequest;
+
+public class RestConfigSyncCopyAction extends RestConfigSyncAction {
+
+    private static final String DEST = "dest";
+
+    private final ConfigSyncService configSyncService;
+
+    @Inject
+    public RestConfigSyncCopyAction(final Settings settings, final RestController controller, final ConfigSyncService configSyncService) {
+        this.configSyncService = configSyncService;
+    }
+
+    @Override
+    public List<Route> routes() {
+        return unmodifiableList(asList(new Route(POST, "/_configsync/_copy"), new Route(POST, "/_configsync/_move")));
+    }
+
+    @Override
+    protected RestChannelConsumer prepareRequest(final RestRequest request, final NodeClient client) throws IOException {
+        try {
+            switch (request.method()) {
+            case POST:
+                final String path = request.param(ConfigSyncService.PATH);
+                final String dest = request.param(DEST);
+                if (path == null || dest == null) {
+                    return channel -> sendErrorResponse(channel, new ElasticsearchException("path or dest is empty."));
+                }
+                final boolean move = request.path().endsWith("/_move");
+                final TimeValue waitForPropagation = request.paramAsTime(WAIT_FOR_PROPAGATION, null);
+                return channel -> configSyncService.copy(path, dest, move, wrap(res -> {
+                    final Map<String, Object> params = new HashMap<>();
+                    params.put("result", res.getResult().toString().toLowerCase());
+                    sendResponse(channel, params, configSyncService, waitForPropagation, move ? List.of(path, dest) : List.of(dest));
+                }, e -> sendErrorResponse(channel, e)));
+            default:
+                return channel -> sendErrorResponse(channel, new ElasticsearchException("Unknown request type."));
+            }
+        } catch (final Exception e) {
+            return channel -> sendErrorResponse(channel, e);
+        }
+    }
+
+    @Override
+    public String getName() {
+        return "configsync_copy_action";
+    }
+}
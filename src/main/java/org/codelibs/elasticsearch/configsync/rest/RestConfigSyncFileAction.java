@@ -22,22 +22,25 @@ import static org.elasticsearch.rest.RestRequest.Method.DELETE;
 import static org.elasticsearch.rest.RestRequest.Method.GET;
 import static org.elasticsearch.rest.RestRequest.Method.POST;
 import static org.elasticsearch.rest.RestStatus.NOT_FOUND;
+import static org.elasticsearch.rest.RestStatus.NOT_MODIFIED;
 import static org.elasticsearch.rest.RestStatus.OK;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.util.Base64;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import org.codelibs.elasticsearch.configsync.service.ConfigContent;
 import org.codelibs.elasticsearch.configsync.service.ConfigSyncService;
 import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.action.ActionListener;
 import org.elasticsearch.client.internal.node.NodeClient;
 import org.elasticsearch.common.bytes.BytesArray;
 import org.elasticsearch.common.bytes.BytesReference;
 import org.elasticsearch.common.inject.Inject;
 import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.core.TimeValue;
 import org.elasticsearch.rest.RestController;
 import org.elasticsearch.rest.RestRequest;
 import org.elasticsearch.rest.RestResponse;
@@ -46,6 +49,10 @@ import org.elasticsearch.search.sort.SortOrder;
 
 public class RestConfigSyncFileAction extends RestConfigSyncAction {
 
+    private static final String SOURCE_INDEX = "index";
+
+    private static final String SOURCE_LOCAL = "local";
+
     private final ConfigSyncService configSyncService;
 
     @Inject
@@ -95,13 +102,38 @@ public class RestConfigSyncFileAction extends RestConfigSyncAction {
                         sendResponse(channel, params);
                     }, e -> sendErrorResponse(channel, e)));
                 }
-                return channel -> configSyncService.getContent(path, wrap(configContent -> {
-                    if (configContent != null) {
-                        channel.sendResponse(new RestResponse(OK, "application/octet-stream", new BytesArray(configContent)));
+                final String ifNoneMatch = request.header("If-None-Match");
+                final String source = request.param("source", SOURCE_INDEX);
+                if (!SOURCE_INDEX.equals(source) && !SOURCE_LOCAL.equals(source)) {
+                    throw new IllegalArgumentException("source must be " + SOURCE_INDEX + " or " + SOURCE_LOCAL + ": " + source);
+                }
+                return channel -> {
+                    final ActionListener<ConfigContent> listener = wrap(configContent -> {
+                        if (configContent != null) {
+                            final RestResponse response;
+                            if (configContent.isNotModified()) {
+                                response = new RestResponse(NOT_MODIFIED, RestResponse.TEXT_CONTENT_TYPE, BytesArray.EMPTY);
+                            } else {
+                                response = new RestResponse(OK, "application/octet-stream", configContent.getContent());
+                            }
+                            response.addHeader("ETag", configContent.getETag());
+                            channel.sendResponse(response);
+                        } else {
+                            channel.sendResponse(new RestResponse(NOT_FOUND, path + " is not found."));
+                        }
+                    }, e -> sendErrorResponse(channel, e));
+                    if (SOURCE_LOCAL.equals(source)) {
+                        configSyncService.getLocalContent(path, ifNoneMatch, wrap(configContent -> {
+                            if (configContent != null) {
+                                listener.onResponse(configContent);
+                            } else {
+                                configSyncService.getContent(path, ifNoneMatch, listener);
+                            }
+                        }, listener::onFailure));
                     } else {
-                        channel.sendResponse(new RestResponse(NOT_FOUND, path + " is not found."));
+                        configSyncService.getContent(path, ifNoneMatch, listener);
                     }
-                }, e -> sendErrorResponse(channel, e)));
+                };
             }
             case POST: {
                 if (content == null) {
@@ -111,18 +143,20 @@ public class RestConfigSyncFileAction extends RestConfigSyncAction {
                 byte[] contentArray;
                 if (request.param(ConfigSyncService.PATH) != null) {
                     path = request.param(ConfigSyncService.PATH);
-                    try (ByteArrayOutputStream out = new ByteArrayOutputStream()) {
-                        content.writeTo(out);
-                        contentArray = out.toByteArray();
-                    }
+                    contentArray = BytesReference.toBytes(content);
                 } else {
                     final Map<String, Object> sourceAsMap = Source.fromBytes(content).source();
                     path = (String) sourceAsMap.get(ConfigSyncService.PATH);
                     final String fileContent = (String) sourceAsMap.get(ConfigSyncService.CONTENT);
                     contentArray = Base64.getDecoder().decode(fileContent);
                 }
-                return channel -> configSyncService.store(path, contentArray,
-                        wrap(res -> sendResponse(channel, null), e -> sendErrorResponse(channel, e)));
+                final boolean bundle = request.paramAsBoolean(ConfigSyncService.BUNDLE, false);
+                final TimeValue waitForPropagation = request.paramAsTime(WAIT_FOR_PROPAGATION, null);
+                return channel -> configSyncService.store(path, contentArray, bundle, wrap(res -> {
+                    final Map<String, Object> params = new HashMap<>();
+                    params.put("result", res.getResult().toString().toLowerCase());
+                    sendResponse(channel, params, configSyncService, waitForPropagation, List.of(path));
+                }, e -> sendErrorResponse(channel, e)));
             }
             case DELETE: {
                 final String path;
@@ -137,10 +171,11 @@ public class RestConfigSyncFileAction extends RestConfigSyncAction {
                 if (path == null) {
                     return channel -> sendErrorResponse(channel, new ElasticsearchException(ConfigSyncService.PATH + " is empty."));
                 }
+                final TimeValue waitForPropagation = request.paramAsTime(WAIT_FOR_PROPAGATION, null);
                 return channel -> configSyncService.delete(path, wrap(response -> {
                     final Map<String, Object> params = new HashMap<>();
                     params.put("result", response.getResult().toString().toLowerCase());
-                    sendResponse(channel, params);
+                    sendResponse(channel, params, configSyncService, waitForPropagation, List.of(path));
                 }, e -> sendErrorResponse(channel, e)));
             }
             default:
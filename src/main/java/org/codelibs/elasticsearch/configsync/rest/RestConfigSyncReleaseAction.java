@@ -0,0 +1,104 @@
+/*
+ * Copyright 2012-2022 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.elasticsearch.configsync.rest;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.unmodifiableList;
+import static org.elasticsearch.action.ActionListener.wrap;
+import static org.elasticsearch.rest.RestRequest.Method.POST;
+
+import java.io.IOException;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.codelibs.elasticsearch.configsync.service.ConfigSyncService;
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.client.internal.node.NodeClient;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.core.TimeValue;
+import org.elasticsearch.rest.RestController;
+import org.elasticsearch.rest.RestRequest;
+import org.elasticsearch.search.lookup.Source;
+
+public class RestConfigSyncReleaseAction extends RestConfigSyncAction {
+
+    private static final String DIR = "dir";
+
+    private static final String FILES = "files";
+
+    private final ConfigSyncService configSyncService;
+
+    @Inject
+    public RestConfigSyncReleaseAction(final Settings settings, final RestController controller,
+            final ConfigSyncService configSyncService) {
+        this.configSyncService = configSyncService;
+    }
+
+    @Override
+    public List<Route> routes() {
+        return unmodifiableList(asList(new Route(POST, "/_configsync/release")));
+    }
+
+    @Override
+    protected RestChannelConsumer prepareRequest(final RestRequest request, final NodeClient client) throws IOException {
+        try {
+            switch (request.method()) {
+            case POST:
+                final BytesReference content = request.content();
+                if (content == null || content.length() == 0) {
+                    throw new ElasticsearchException("content is empty.");
+                }
+                final Map<String, Object> sourceAsMap = Source.fromBytes(content).source();
+                final String dir = request.param(DIR, (String) sourceAsMap.get(DIR));
+                if (!(sourceAsMap.get(FILES) instanceof List)) {
+                    throw new ElasticsearchException(FILES + " is empty.");
+                }
+                final Map<String, byte[]> files = new LinkedHashMap<>();
+                for (final Object value : (List<?>) sourceAsMap.get(FILES)) {
+                    if (!(value instanceof Map)) {
+                        throw new ElasticsearchException("Invalid file: " + value);
+                    }
+                    final Map<?, ?> file = (Map<?, ?>) value;
+                    final Object path = file.get(ConfigSyncService.PATH);
+                    final Object fileContent = file.get(ConfigSyncService.CONTENT);
+                    if (!(path instanceof String) || !(fileContent instanceof String)) {
+                        throw new ElasticsearchException("path or content is empty: " + value);
+                    }
+                    files.put((String) path, Base64.getDecoder().decode((String) fileContent));
+                }
+                final TimeValue waitForPropagation = request.paramAsTime(WAIT_FOR_PROPAGATION, null);
+                return channel -> configSyncService.storeRelease(dir, files, wrap(response -> {
+                    final Map<String, Object> params = new HashMap<>(response);
+                    sendResponse(channel, params, configSyncService, waitForPropagation, files.keySet());
+                }, e -> sendErrorResponse(channel, e)));
+            default:
+                return channel -> sendErrorResponse(channel, new ElasticsearchException("Unknown request type."));
+            }
+        } catch (final Exception e) {
+            return channel -> sendErrorResponse(channel, e);
+        }
+    }
+
+    @Override
+    public String getName() {
+        return "configsync_release_action";
+    }
+}
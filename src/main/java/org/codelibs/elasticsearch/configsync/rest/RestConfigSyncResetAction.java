@@ -21,15 +21,23 @@ import static org.elasticsearch.action.ActionListener.wrap;
 import static org.elasticsearch.rest.RestRequest.Method.POST;
 
 import java.io.IOException;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
+import org.codelibs.elasticsearch.configsync.action.ConfigResetSyncAction;
+import org.codelibs.elasticsearch.configsync.action.ConfigResetSyncRequest;
 import org.codelibs.elasticsearch.configsync.service.ConfigSyncService;
 import org.elasticsearch.ElasticsearchException;
 import org.elasticsearch.client.internal.node.NodeClient;
+import org.elasticsearch.common.Strings;
 import org.elasticsearch.common.inject.Inject;
 import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.rest.RestController;
 import org.elasticsearch.rest.RestRequest;
+import org.elasticsearch.rest.action.RestCancellableNodeClient;
+import org.elasticsearch.tasks.Task;
+import org.elasticsearch.tasks.TaskId;
 
 public class RestConfigSyncResetAction extends RestConfigSyncAction {
 
@@ -50,8 +58,23 @@ public class RestConfigSyncResetAction extends RestConfigSyncAction {
         try {
             switch (request.method()) {
             case POST:
-                return channel -> configSyncService
-                        .resetSync(wrap(response -> sendResponse(channel, null), e -> sendErrorResponse(channel, e)));
+                final boolean waitForCompletion = request.paramAsBoolean("wait_for_completion", true);
+                final String[] nodeIds = Strings.splitStringByCommaToArray(request.param("nodes"));
+                final ConfigResetSyncRequest resetRequest = new ConfigResetSyncRequest(!waitForCompletion, nodeIds);
+                if (!waitForCompletion) {
+                    return channel -> {
+                        final Task task = client.executeLocally(ConfigResetSyncAction.INSTANCE, resetRequest, wrap(response -> {
+                            if (logger.isDebugEnabled()) {
+                                logger.debug("Completed {} task.", ConfigResetSyncAction.NAME);
+                            }
+                        }, e -> logger.warn("Failed to complete " + ConfigResetSyncAction.NAME + " task.", e)));
+                        final Map<String, Object> params = new HashMap<>();
+                        params.put("task", new TaskId(client.getLocalNodeId(), task.getId()).toString());
+                        sendResponse(channel, params);
+                    };
+                }
+                return channel -> new RestCancellableNodeClient(client, request.getHttpChannel()).execute(ConfigResetSyncAction.INSTANCE,
+                        resetRequest, wrap(response -> sendResponse(channel, null), e -> sendErrorResponse(channel, e)));
             default:
                 return channel -> sendErrorResponse(channel, new ElasticsearchException("Unknown request type."));
             }
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2012-2022 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.elasticsearch.configsync.rest;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.unmodifiableList;
+import static org.elasticsearch.action.ActionListener.wrap;
+import static org.elasticsearch.rest.RestRequest.Method.POST;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.codelibs.elasticsearch.configsync.service.ConfigSyncService;
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.client.internal.node.NodeClient;
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.core.TimeValue;
+import org.elasticsearch.rest.RestController;
+import org.elasticsearch.rest.RestRequest;
+
+public class RestConfigSyncRollbackAction extends RestConfigSyncAction {
+
+    private final ConfigSyncService configSyncService;
+
+    @Inject
+    public RestConfigSyncRollbackAction(final Settings settings, final RestController controller,
+            final ConfigSyncService configSyncService) {
+        this.configSyncService = configSyncService;
+    }
+
+    @Override
+    public List<Route> routes() {
+        return unmodifiableList(asList(new Route(POST, "/_configsync/_rollback")));
+    }
+
+    @Override
+    protected RestChannelConsumer prepareRequest(final RestRequest request, final NodeClient client) throws IOException {
+        try {
+            switch (request.method()) {
+            case POST:
+                final String to = request.param("to");
+                if (to == null) {
+                    return channel -> sendErrorResponse(channel, new ElasticsearchException("to is empty."));
+                }
+                final String[] paths = request.paramAsStringArray(ConfigSyncService.PATH, Strings.EMPTY_ARRAY);
+                final TimeValue waitForPropagation = request.paramAsTime(WAIT_FOR_PROPAGATION, null);
+                return channel -> configSyncService.rollback(to, paths, wrap(response -> {
+                    final Map<String, Object> params = new HashMap<>();
+                    params.put("paths", response);
+                    final List<String> rolledBackPaths = new ArrayList<>();
+                    for (final Map<String, Object> result : response) {
+                        if ("rolled_back".equals(result.get("result"))) {
+                            rolledBackPaths.add((String) result.get(ConfigSyncService.PATH));
+                        }
+                    }
+                    sendResponse(channel, params, configSyncService, waitForPropagation, rolledBackPaths);
+                }, e -> sendErrorResponse(channel, e)));
+            default:
+                return channel -> sendErrorResponse(channel, new ElasticsearchException("Unknown request type."));
+            }
+        } catch (final Exception e) {
+            return channel -> sendErrorResponse(channel, e);
+        }
+    }
+
+    @Override
+    public String getName() {
+        return "configsync_rollback_action";
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2012-2022 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.elasticsearch.configsync.service;
+
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.bytes.ReleasableBytesReference;
+import org.elasticsearch.core.Releasable;
+
+/**
+ * Decoded content of a config file with its ETag. The content is null if it matches If-None-Match.
+ */
+public class ConfigContent {
+
+    private final String indexUUID;
+
+    private final long seqNo;
+
+    private final long primaryTerm;
+
+    private final String hash;
+
+    private final BytesReference content;
+
+    ConfigContent(final String indexUUID, final long seqNo, final long primaryTerm, final String hash, final BytesReference content) {
+        this.indexUUID = indexUUID;
+        this.seqNo = seqNo;
+        this.primaryTerm = primaryTerm;
+        this.hash = hash;
+        this.content = content;
+    }
+
+    /**
+     * Creates a content read from a synced file on this node.
+     */
+    ConfigContent(final String hash, final BytesReference content) {
+        this(null, -1, -1, hash, content);
+    }
+
+    boolean isSameRevision(final String indexUUID, final long seqNo, final long primaryTerm) {
+        return indexUUID.equals(this.indexUUID) && this.seqNo == seqNo && this.primaryTerm == primaryTerm;
+    }
+
+    ConfigContent notModified() {
+        return new ConfigContent(indexUUID, seqNo, primaryTerm, hash, null);
+    }
+
+    /**
+     * Returns a content which releases the releasable when the content is released, for example after a REST response
+     * containing it is sent.
+     */
+    ConfigContent releaseAfterSent(final Releasable releasable) {
+        return new ConfigContent(indexUUID, seqNo, primaryTerm, hash, new ReleasableBytesReference(content, releasable));
+    }
+
+    public String getETag() {
+        return "\"" + hash + "\"";
+    }
+
+    public BytesReference getContent() {
+        return content;
+    }
+
+    public boolean isNotModified() {
+        return content == null;
+    }
+
+    int getWeight() {
+        return content.length() + hash.length() + 64;
+    }
+
+    /**
+     * Checks if the value of If-None-Match header contains this ETag.
+     */
+    public boolean matches(final String ifNoneMatch) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        final String etag = getETag();
+        for (final String value : ifNoneMatch.split(",")) {
+            final String tag = value.trim();
+            if ("*".equals(tag) || etag.equals(tag.startsWith("W/") ? tag.substring(2) : tag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2012-2022 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.elasticsearch.configsync.service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.elasticsearch.common.hash.MessageDigests;
+
+/**
+ * Hash tree of config files. Each directory has a hash computed from names and hashes of its children,
+ * so two trees can be compared by descending into directories whose hashes differ.
+ */
+public class ConfigHashTree {
+
+    public static final String ROOT = "";
+
+    private static final String SEPARATOR = "/";
+
+    private final Map<String, Map<String, String>> children = new HashMap<>();
+
+    private final Map<String, String> hashes = new HashMap<>();
+
+    private ConfigHashTree() {
+        children.put(ROOT, new TreeMap<>());
+    }
+
+    public static ConfigHashTree build(final Map<String, String> fileHashes) {
+        final ConfigHashTree tree = new ConfigHashTree();
+        for (final Map.Entry<String, String> entry : fileHashes.entrySet()) {
+            final String[] names = split(entry.getKey());
+            if (names.length == 0) {
+                continue;
+            }
+            String dir = ROOT;
+            for (int i = 0; i < names.length - 1; i++) {
+                tree.children.computeIfAbsent(dir, k -> new TreeMap<>()).putIfAbsent(names[i] + SEPARATOR, null);
+                dir = getChildPath(dir, names[i]);
+            }
+            tree.children.computeIfAbsent(dir, k -> new TreeMap<>()).put(names[names.length - 1], entry.getValue());
+        }
+        tree.computeHash(ROOT);
+        return tree;
+    }
+
+    private String computeHash(final String dir) {
+        final MessageDigest digest = MessageDigests.sha256();
+        for (final Map.Entry<String, String> entry : children.get(dir).entrySet()) {
+            final String name = entry.getKey();
+            if (isDirectory(name)) {
+                entry.setValue(computeHash(getChildPath(dir, name)));
+            }
+            digest.update((name + "\t" + entry.getValue() + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+        final String hash = MessageDigests.toHexString(digest.digest());
+        hashes.put(dir, hash);
+        return hash;
+    }
+
+    private static String[] split(final String path) {
+        final List<String> names = new ArrayList<>();
+        for (final String name : path.split(SEPARATOR)) {
+            if (name.length() > 0 && !".".equals(name)) {
+                names.add(name);
+            }
+        }
+        return names.toArray(new String[names.size()]);
+    }
+
+    public static boolean isDirectory(final String name) {
+        return name.endsWith(SEPARATOR);
+    }
+
+    public static String getChildPath(final String dir, final String name) {
+        final String childName = isDirectory(name) ? name.substring(0, name.length() - 1) : name;
+        return ROOT.equals(dir) ? childName : dir + SEPARATOR + childName;
+    }
+
+    public String getRootHash() {
+        return hashes.get(ROOT);
+    }
+
+    public String getHash(final String dir) {
+        return hashes.get(dir);
+    }
+
+    /**
+     * Returns hashes of children in the directory. A name of a sub directory ends with "/".
+     */
+    public Map<String, String> getChildren(final String dir) {
+        final Map<String, String> map = children.get(dir);
+        if (map == null) {
+            return Collections.emptyMap();
+        }
+        return Collections.unmodifiableMap(map);
+    }
+
+    public List<String> getFiles(final String dir) {
+        final List<String> files = new ArrayList<>();
+        for (final String name : getChildren(dir).keySet()) {
+            if (isDirectory(name)) {
+                files.addAll(getFiles(getChildPath(dir, name)));
+            } else {
+                files.add(getChildPath(dir, name));
+            }
+        }
+        return files;
+    }
+}
@@ -0,0 +1,268 @@
+/*
+ * Copyright 2012-2022 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.elasticsearch.configsync.service;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Function;
+
+import org.elasticsearch.cluster.ClusterState;
+import org.elasticsearch.cluster.metadata.IndexMetadata;
+import org.elasticsearch.cluster.node.DiscoveryNode;
+import org.elasticsearch.cluster.routing.RoutingNode;
+import org.elasticsearch.cluster.routing.ShardRouting;
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.regex.Regex;
+import org.elasticsearch.common.settings.Setting;
+import org.elasticsearch.common.settings.Setting.AffixSetting;
+import org.elasticsearch.common.settings.Setting.Property;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.index.Index;
+import org.elasticsearch.index.query.BoolQueryBuilder;
+import org.elasticsearch.index.query.QueryBuilders;
+
+/**
+ * Paths of config files which are synced to a node. Filters are defined in cluster settings as
+ * configsync.filter.[name].{nodes,include,exclude}, and a filter applies to nodes resolved by its node selector,
+ * such as node names, "ml:true" or "rack:r1". In sparse mode, files referenced by analysis settings of indices
+ * whose shards are allocated to the node are synced in addition to included files.
+ * Since the filter of any node is computed from the cluster state, the master and verify requests know
+ * which files each node should have.
+ */
+public class ConfigPathFilter {
+
+    private static final String PREFIX = "configsync.filter.";
+
+    public static final AffixSetting<String> NODES_SETTING =
+            Setting.affixKeySetting(PREFIX, "nodes", key -> Setting.simpleString(key, Property.NodeScope, Property.Dynamic));
+
+    public static final AffixSetting<List<String>> INCLUDE_SETTING = Setting.affixKeySetting(PREFIX, "include",
+            key -> Setting.listSetting(key, Collections.emptyList(), Function.identity(), Property.NodeScope, Property.Dynamic));
+
+    public static final AffixSetting<List<String>> EXCLUDE_SETTING = Setting.affixKeySetting(PREFIX, "exclude",
+            key -> Setting.listSetting(key, Collections.emptyList(), Function.identity(), Property.NodeScope, Property.Dynamic));
+
+    public static final Setting<Boolean> SPARSE_ENABLED_SETTING =
+            Setting.boolSetting("configsync.sparse.enabled", false, Property.NodeScope, Property.Dynamic);
+
+    private static final String ANALYSIS_PREFIX = "index.analysis.";
+
+    public static final ConfigPathFilter ALL = new ConfigPathFilter(Collections.emptySet(), Collections.emptySet(), null);
+
+    private final Set<String> includes;
+
+    private final Set<String> excludes;
+
+    private final Set<String> paths;
+
+    private ConfigPathFilter(final Set<String> includes, final Set<String> excludes, final Set<String> paths) {
+        this.includes = includes;
+        this.excludes = excludes;
+        this.paths = paths;
+    }
+
+    /**
+     * Merges all filters which apply to the node. A path is synced if it matches one of include patterns,
+     * or there are no include patterns, and it does not match any exclude pattern.
+     * In sparse mode, a path is included only if it matches one of include patterns or is referenced by local indices.
+     */
+    public static ConfigPathFilter of(final ClusterState state, final DiscoveryNode node, final String configPath) {
+        final Settings settings = state.getMetadata().settings();
+        final Set<String> includes = new TreeSet<>();
+        final Set<String> excludes = new TreeSet<>();
+        for (final String name : NODES_SETTING.getNamespaces(settings)) {
+            final String nodes = NODES_SETTING.getConcreteSettingForNamespace(name).get(settings);
+            if (nodes.length() > 0) {
+                final String[] nodeIds = state.nodes().resolveNodes(Strings.splitStringByCommaToArray(nodes));
+                if (!Set.of(nodeIds).contains(node.getId())) {
+                    continue;
+                }
+            }
+            includes.addAll(INCLUDE_SETTING.getConcreteSettingForNamespace(name).get(settings));
+            excludes.addAll(EXCLUDE_SETTING.getConcreteSettingForNamespace(name).get(settings));
+        }
+        final Set<String> paths = SPARSE_ENABLED_SETTING.get(settings) ? getReferencedPaths(state, node, configPath) : null;
+        if (includes.isEmpty() && excludes.isEmpty() && paths == null) {
+            return ALL;
+        }
+        return new ConfigPathFilter(includes, excludes, paths);
+    }
+
+    /**
+     * Collects paths of files in analysis settings, such as synonyms_path or user_dictionary, of indices
+     * which have shards on the node. Initializing shards are included, so files are synced while they are recovered.
+     * Absolute paths out of the config directory are not synced.
+     */
+    static Set<String> getReferencedPaths(final ClusterState state, final DiscoveryNode node, final String configPath) {
+        final Set<String> paths = new TreeSet<>();
+        for (final Set<String> indexPaths : getReferencedPathsByIndex(state, node, configPath).values()) {
+            paths.addAll(indexPaths);
+        }
+        return paths;
+    }
+
+    /**
+     * Returns paths of files referenced by each index which has shards on the node.
+     */
+    static Map<String, Set<String>> getReferencedPathsByIndex(final ClusterState state, final DiscoveryNode node,
+            final String configPath) {
+        final Map<String, Set<String>> pathsByIndex = new HashMap<>();
+        final RoutingNode routingNode = state.getRoutingNodes().node(node.getId());
+        if (routingNode == null) {
+            return pathsByIndex;
+        }
+        final Path configDir = Paths.get(configPath).toAbsolutePath().normalize();
+        for (final ShardRouting shard : routingNode) {
+            final Index index = shard.index();
+            if (pathsByIndex.containsKey(index.getName())) {
+                continue;
+            }
+            final IndexMetadata indexMetadata = state.getMetadata().index(index);
+            if (indexMetadata == null) {
+                continue;
+            }
+            final Set<String> paths = new TreeSet<>();
+            final Settings analysisSettings = indexMetadata.getSettings().getByPrefix(ANALYSIS_PREFIX);
+            for (final String key : analysisSettings.keySet()) {
+                if (!key.endsWith("_path") && !key.endsWith("user_dictionary")) {
+                    continue;
+                }
+                final String value = analysisSettings.get(key);
+                if (value == null || value.length() == 0) {
+                    continue;
+                }
+                final Path path = configDir.resolve(value).normalize();
+                if (path.startsWith(configDir)) {
+                    paths.add(configDir.relativize(path).toString().replace('\\', '/'));
+                }
+            }
+            pathsByIndex.put(index.getName(), paths);
+        }
+        return pathsByIndex;
+    }
+
+    public boolean isEmpty() {
+        return includes.isEmpty() && excludes.isEmpty() && paths == null;
+    }
+
+    public boolean isSparse() {
+        return paths != null;
+    }
+
+    /**
+     * Returns paths referenced by local indices in sparse mode, or null.
+     */
+    public Set<String> getPaths() {
+        return paths;
+    }
+
+    public boolean matches(final String path) {
+        if (paths != null) {
+            if (!paths.contains(path) && !Regex.simpleMatch(includes.toArray(new String[includes.size()]), path)) {
+                return false;
+            }
+        } else if (!includes.isEmpty() && !Regex.simpleMatch(includes.toArray(new String[includes.size()]), path)) {
+            return false;
+        }
+        return !Regex.simpleMatch(excludes.toArray(new String[excludes.size()]), path);
+    }
+
+    /**
+     * Checks if include and exclude patterns and the mode are same. Paths referenced in sparse mode may differ.
+     */
+    public boolean hasSameRules(final ConfigPathFilter other) {
+        return includes.equals(other.includes) && excludes.equals(other.excludes) && isSparse() == other.isSparse();
+    }
+
+    public Map<String, String> filter(final Map<String, String> hashes) {
+        if (isEmpty()) {
+            return hashes;
+        }
+        final Map<String, String> filtered = new HashMap<>();
+        for (final Map.Entry<String, String> entry : hashes.entrySet()) {
+            if (matches(entry.getKey())) {
+                filtered.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return filtered;
+    }
+
+    /**
+     * Adds the filter to the query, so excluded files are not fetched from the index.
+     * Patterns are matched in the same way as {@link #matches(String)}.
+     */
+    public BoolQueryBuilder apply(final BoolQueryBuilder queryBuilder, final String field) {
+        if (!includes.isEmpty() || paths != null) {
+            final BoolQueryBuilder includeQuery = QueryBuilders.boolQuery().minimumShouldMatch(1);
+            for (final String pattern : includes) {
+                includeQuery.should(QueryBuilders.wildcardQuery(field, toWildcard(pattern)));
+            }
+            if (paths != null) {
+                includeQuery.should(QueryBuilders.termsQuery(field, paths));
+            }
+            queryBuilder.filter(includeQuery);
+        }
+        for (final String pattern : excludes) {
+            queryBuilder.mustNot(QueryBuilders.wildcardQuery(field, toWildcard(pattern)));
+        }
+        return queryBuilder;
+    }
+
+    /**
+     * Converts a pattern of {@link Regex#simpleMatch(String, String)} to a pattern of a wildcard query.
+     * Only "*" is a wildcard in the former, so "?" and "\" are escaped.
+     */
+    static String toWildcard(final String pattern) {
+        final StringBuilder buf = new StringBuilder(pattern.length() + 4);
+        for (int i = 0; i < pattern.length(); i++) {
+            final char c = pattern.charAt(i);
+            if (c == '?' || c == '\\') {
+                buf.append('\\');
+            }
+            buf.append(c);
+        }
+        return buf.toString();
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof ConfigPathFilter)) {
+            return false;
+        }
+        final ConfigPathFilter other = (ConfigPathFilter) obj;
+        return hasSameRules(other) && Objects.equals(paths, other.paths);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(includes, excludes, paths);
+    }
+
+    @Override
+    public String toString() {
+        return "include=" + includes + ", exclude=" + excludes + (paths != null ? ", sparse=" + paths : "");
+    }
+}
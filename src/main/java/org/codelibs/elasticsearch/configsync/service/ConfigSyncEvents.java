@@ -0,0 +1,101 @@
+/*
+ * Copyright 2012-2022 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.elasticsearch.configsync.service;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * JFR events of the sync pipeline. Fields are set only if an event is enabled in a recording.
+ */
+public final class ConfigSyncEvents {
+
+    private static final String CATEGORY = "ConfigSync";
+
+    private ConfigSyncEvents() {
+    }
+
+    @Name("org.codelibs.elasticsearch.configsync.Store")
+    @Label("Config File Store")
+    @Description("Stores a config file to the index")
+    @Category({ "Elasticsearch", CATEGORY })
+    @StackTrace(false)
+    public static class StoreEvent extends jdk.jfr.Event {
+
+        @Label("Path")
+        public String path;
+
+        @Label("Size")
+        @DataAmount
+        public long bytes;
+
+        @Label("Result")
+        public String result;
+    }
+
+    @Name("org.codelibs.elasticsearch.configsync.FileUpdate")
+    @Label("Config File Update")
+    @Description("Writes a config file from the index to the local file system")
+    @Category({ "Elasticsearch", CATEGORY })
+    @StackTrace(false)
+    public static class FileUpdateEvent extends jdk.jfr.Event {
+
+        @Label("Path")
+        public String path;
+
+        @Label("Size")
+        @DataAmount
+        public long bytes;
+
+        @Label("Decode Time")
+        @Timespan(Timespan.NANOSECONDS)
+        public long decodeTime;
+
+        @Label("Write Time")
+        @Timespan(Timespan.NANOSECONDS)
+        public long writeTime;
+
+        @Label("Skipped")
+        public boolean skipped;
+    }
+
+    @Name("org.codelibs.elasticsearch.configsync.SyncCycle")
+    @Label("Config Sync Cycle")
+    @Description("Applies updated config files on a node")
+    @Category({ "Elasticsearch", CATEGORY })
+    @StackTrace(false)
+    public static class SyncCycleEvent extends jdk.jfr.Event {
+
+        @Label("Scanned Documents")
+        public long docsScanned;
+
+        @Label("Written Size")
+        @DataAmount
+        public long bytesWritten;
+
+        @Label("Search Time")
+        @Timespan(Timespan.NANOSECONDS)
+        public long searchTime;
+
+        @Label("Succeeded")
+        public boolean succeeded;
+    }
+}
@@ -0,0 +1,284 @@
+/*
+ * Copyright 2012-2022 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.elasticsearch.configsync.service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.codelibs.elasticsearch.configsync.action.StatusResponse;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.cluster.node.DiscoveryNode;
+import org.elasticsearch.cluster.service.ClusterService;
+import org.elasticsearch.common.component.AbstractLifecycleComponent;
+import org.elasticsearch.common.settings.Setting;
+import org.elasticsearch.common.settings.Setting.Property;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.util.concurrent.CountDown;
+import org.elasticsearch.core.TimeValue;
+import org.elasticsearch.health.Diagnosis;
+import org.elasticsearch.health.HealthIndicatorDetails;
+import org.elasticsearch.health.HealthIndicatorImpact;
+import org.elasticsearch.health.HealthIndicatorResult;
+import org.elasticsearch.health.HealthIndicatorService;
+import org.elasticsearch.health.HealthStatus;
+import org.elasticsearch.health.ImpactArea;
+import org.elasticsearch.health.SimpleHealthIndicatorDetails;
+import org.elasticsearch.health.node.HealthInfo;
+import org.elasticsearch.threadpool.Scheduler;
+import org.elasticsearch.threadpool.ThreadPool;
+
+/**
+ * Health indicator of config sync. Statuses of nodes are collected in background at fixed intervals,
+ * and the last collected ones are used to calculate the health.
+ */
+public class ConfigSyncHealthIndicatorService extends AbstractLifecycleComponent implements HealthIndicatorService {
+
+    private static final Logger logger = LogManager.getLogger(ConfigSyncHealthIndicatorService.class);
+
+    public static final String NAME = "config_sync";
+
+    private static final String HELP_URL = "https://github.com/codelibs/elasticsearch-configsync";
+
+    public static final Setting<TimeValue> LAG_YELLOW_SETTING =
+            Setting.timeSetting("configsync.health.lag.yellow", TimeValue.timeValueMinutes(10), Property.NodeScope, Property.Dynamic);
+
+    public static final Setting<TimeValue> LAG_RED_SETTING =
+            Setting.timeSetting("configsync.health.lag.red", TimeValue.timeValueHours(1), Property.NodeScope, Property.Dynamic);
+
+    public static final Setting<Integer> FAILURES_YELLOW_SETTING =
+            Setting.intSetting("configsync.health.failures.yellow", 3, 1, Property.NodeScope, Property.Dynamic);
+
+    public static final Setting<Integer> FAILURES_RED_SETTING =
+            Setting.intSetting("configsync.health.failures.red", 10, 1, Property.NodeScope, Property.Dynamic);
+
+    private static final TimeValue REFRESH_INTERVAL = TimeValue.timeValueSeconds(10);
+
+    static final Diagnosis.Definition LAGGING = new Diagnosis.Definition(NAME, "lagging",
+            "Config files on some nodes have not been synced for a long time or have never been synced.",
+            "Check if the nodes can access .configsync index, and run POST /_configsync/flush.", HELP_URL);
+
+    static final Diagnosis.Definition FAILING = new Diagnosis.Definition(NAME, "failing",
+            "Sync cycles on some nodes failed consecutively.",
+            "Check last_error in GET /_configsync/_status and logs of the nodes, and fix file system or index problems.", HELP_URL);
+
+    static final Diagnosis.Definition NOT_RUNNING = new Diagnosis.Definition(NAME, "not_running",
+            "The file updater is not running on some nodes.",
+            "Check logs of the nodes for the reason, and run POST /_configsync/reset after fixing it.", HELP_URL);
+
+    static final Diagnosis.Definition UNAVAILABLE = new Diagnosis.Definition(NAME, "unavailable",
+            "Sync status could not be collected from some nodes.", "Check if the plugin is installed on all nodes.", HELP_URL);
+
+    private final ConfigSyncService configSyncService;
+
+    private final ClusterService clusterService;
+
+    private final ThreadPool threadPool;
+
+    private final Settings settings;
+
+    private final AtomicBoolean refreshing = new AtomicBoolean(false);
+
+    private volatile NodeStatuses nodeStatuses;
+
+    private Scheduler.Cancellable refreshTask;
+
+    public ConfigSyncHealthIndicatorService(final ConfigSyncService configSyncService, final ClusterService clusterService,
+            final ThreadPool threadPool, final Settings settings) {
+        this.configSyncService = configSyncService;
+        this.clusterService = clusterService;
+        this.threadPool = threadPool;
+        this.settings = settings;
+    }
+
+    @Override
+    protected void doStart() {
+        refreshTask = threadPool.scheduleWithFixedDelay(this::refresh, REFRESH_INTERVAL, threadPool.generic());
+    }
+
+    @Override
+    protected void doStop() {
+        if (refreshTask != null) {
+            refreshTask.cancel();
+        }
+    }
+
+    @Override
+    protected void doClose() {
+    }
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public HealthIndicatorResult calculate(final boolean verbose, final int maxAffectedResourcesCount, final HealthInfo healthInfo) {
+        final NodeStatuses current = nodeStatuses;
+        if (current == null) {
+            return createIndicator(HealthStatus.UNKNOWN, "Sync status of nodes is being collected.", HealthIndicatorDetails.EMPTY,
+                    Collections.emptyList(), Collections.emptyList());
+        }
+
+        final Settings clusterSettings = clusterService.state().getMetadata().settings();
+        final long lagYellow = clusterSettings.getAsTime(LAG_YELLOW_SETTING.getKey(), LAG_YELLOW_SETTING.get(settings)).millis();
+        final long lagRed = clusterSettings.getAsTime(LAG_RED_SETTING.getKey(), LAG_RED_SETTING.get(settings)).millis();
+        final int failuresYellow = clusterSettings.getAsInt(FAILURES_YELLOW_SETTING.getKey(), FAILURES_YELLOW_SETTING.get(settings));
+        final int failuresRed = clusterSettings.getAsInt(FAILURES_RED_SETTING.getKey(), FAILURES_RED_SETTING.get(settings));
+
+        HealthStatus status = HealthStatus.GREEN;
+        final List<DiscoveryNode> laggingNodes = new ArrayList<>();
+        final List<DiscoveryNode> failingNodes = new ArrayList<>();
+        final List<DiscoveryNode> stoppedNodes = new ArrayList<>();
+        final List<DiscoveryNode> unavailableNodes = new ArrayList<>();
+        final Map<String, Object> details = new HashMap<>();
+        for (final Map.Entry<DiscoveryNode, Object> entry : current.statuses.entrySet()) {
+            final DiscoveryNode node = entry.getKey();
+            if (!(entry.getValue() instanceof StatusResponse)) {
+                unavailableNodes.add(node);
+                status = worse(status, HealthStatus.YELLOW);
+                continue;
+            }
+            final StatusResponse response = (StatusResponse) entry.getValue();
+            final Map<String, Object> nodeDetails = new HashMap<>();
+            nodeDetails.put("updater_state", response.getUpdaterState());
+            nodeDetails.put("consecutive_failures", response.getConsecutiveFailures());
+            if (ConfigSyncService.UPDATER_DISABLED.equals(response.getUpdaterState())) {
+                details.put(node.getName(), nodeDetails);
+                continue;
+            }
+            if (!ConfigSyncService.UPDATER_RUNNING.equals(response.getUpdaterState())) {
+                stoppedNodes.add(node);
+                status = worse(status, HealthStatus.YELLOW);
+            }
+            if (response.getWatermark() >= 0) {
+                final long lag = current.timestamp - response.getWatermark();
+                nodeDetails.put("lag_in_millis", lag);
+                if (lag >= lagYellow) {
+                    laggingNodes.add(node);
+                    status = worse(status, lag >= lagRed ? HealthStatus.RED : HealthStatus.YELLOW);
+                }
+            } else {
+                // no sync cycle has been completed on the node
+                nodeDetails.put("lag_in_millis", -1);
+                laggingNodes.add(node);
+                status = worse(status, HealthStatus.YELLOW);
+            }
+            if (response.getConsecutiveFailures() >= failuresYellow) {
+                failingNodes.add(node);
+                status = worse(status, response.getConsecutiveFailures() >= failuresRed ? HealthStatus.RED : HealthStatus.YELLOW);
+            }
+            if (response.getLastError() != null) {
+                nodeDetails.put("last_error", response.getLastError().v2());
+            }
+            details.put(node.getName(), nodeDetails);
+        }
+
+        if (status == HealthStatus.GREEN) {
+            return createIndicator(status, "Config files are synced on all nodes.",
+                    verbose ? new SimpleHealthIndicatorDetails(details) : HealthIndicatorDetails.EMPTY, Collections.emptyList(),
+                    Collections.emptyList());
+        }
+
+        final List<Diagnosis> diagnoses = new ArrayList<>();
+        if (verbose) {
+            addDiagnosis(diagnoses, LAGGING, laggingNodes, maxAffectedResourcesCount);
+            addDiagnosis(diagnoses, FAILING, failingNodes, maxAffectedResourcesCount);
+            addDiagnosis(diagnoses, NOT_RUNNING, stoppedNodes, maxAffectedResourcesCount);
+            addDiagnosis(diagnoses, UNAVAILABLE, unavailableNodes, maxAffectedResourcesCount);
+        }
+        final int numOfAffected = laggingNodes.size() + failingNodes.size() + stoppedNodes.size() + unavailableNodes.size();
+        final List<HealthIndicatorImpact> impacts = List.of(new HealthIndicatorImpact(NAME, "stale_config_files",
+                status == HealthStatus.RED ? 1 : 2, "Analyzers on affected nodes may use stale dictionaries or other config files.",
+                List.of(ImpactArea.SEARCH)));
+        return createIndicator(status, "Config sync has problems on " + numOfAffected + " node(s).",
+                verbose ? new SimpleHealthIndicatorDetails(details) : HealthIndicatorDetails.EMPTY, impacts, diagnoses);
+    }
+
+    private static HealthStatus worse(final HealthStatus status1, final HealthStatus status2) {
+        return status1.value() >= status2.value() ? status1 : status2;
+    }
+
+    private static void addDiagnosis(final List<Diagnosis> diagnoses, final Diagnosis.Definition definition,
+            final List<DiscoveryNode> nodes, final int maxAffectedResourcesCount) {
+        if (!nodes.isEmpty()) {
+            final List<DiscoveryNode> affectedNodes = nodes.subList(0, Math.min(nodes.size(), maxAffectedResourcesCount));
+            diagnoses.add(new Diagnosis(definition, List.of(new Diagnosis.Resource(affectedNodes))));
+        }
+    }
+
+    /**
+     * Collects statuses of all nodes in background.
+     */
+    void refresh() {
+        if (!refreshing.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            final Collection<DiscoveryNode> nodes = clusterService.state().nodes().getAllNodes();
+            final Map<DiscoveryNode, Object> statuses = new ConcurrentHashMap<>();
+            final long timestamp = System.currentTimeMillis();
+            final CountDown countDown = new CountDown(nodes.size());
+            for (final DiscoveryNode node : nodes) {
+                configSyncService.getStatus(node, new ActionListener<StatusResponse>() {
+                    @Override
+                    public void onResponse(final StatusResponse response) {
+                        statuses.put(node, response);
+                        onNodeCompleted();
+                    }
+
+                    @Override
+                    public void onFailure(final Exception e) {
+                        if (logger.isDebugEnabled()) {
+                            logger.debug("Failed to get a sync status of " + node, e);
+                        }
+                        statuses.put(node, e);
+                        onNodeCompleted();
+                    }
+
+                    private void onNodeCompleted() {
+                        if (countDown.countDown()) {
+                            nodeStatuses = new NodeStatuses(timestamp, statuses);
+                            refreshing.set(false);
+                        }
+                    }
+                });
+            }
+        } catch (final Exception e) {
+            logger.warn("Failed to collect sync statuses.", e);
+            refreshing.set(false);
+        }
+    }
+
+    private static class NodeStatuses {
+
+        private final long timestamp;
+
+        private final Map<DiscoveryNode, Object> statuses;
+
+        NodeStatuses(final long timestamp, final Map<DiscoveryNode, Object> statuses) {
+            this.timestamp = timestamp;
+            this.statuses = statuses;
+        }
+    }
+}
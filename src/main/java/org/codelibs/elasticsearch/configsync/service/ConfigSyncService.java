@@ -18,73 +18,169 @@ package org.codelibs.elasticsearch.configsync.service;
 import static org.elasticsearch.action.ActionListener.wrap;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
+import java.nio.file.LinkOption;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.security.AccessController;
+import java.security.MessageDigest;
 import java.security.PrivilegedAction;
+import java.security.PrivilegedActionException;
+import java.security.PrivilegedExceptionAction;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
 import java.util.TimeZone;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
 
 import org.apache.commons.codec.binary.Base64;
-import org.apache.commons.codec.binary.Base64OutputStream;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.codelibs.elasticsearch.configsync.action.ConfigFileFlushResponse;
 import org.codelibs.elasticsearch.configsync.action.ConfigResetSyncResponse;
+import org.codelibs.elasticsearch.configsync.action.ConfigSyncTask;
+import org.codelibs.elasticsearch.configsync.action.FileChunkRequest;
+import org.codelibs.elasticsearch.configsync.action.StatusResponse;
+import org.codelibs.elasticsearch.configsync.action.TransportFileChunkAction;
 import org.codelibs.elasticsearch.configsync.action.TransportFileFlushAction;
 import org.codelibs.elasticsearch.configsync.action.TransportResetSyncAction;
+import org.codelibs.elasticsearch.configsync.action.TransportStatsAction;
+import org.codelibs.elasticsearch.configsync.action.TransportStatusAction;
+import org.codelibs.elasticsearch.configsync.action.TransportVerifyAction;
+import org.codelibs.elasticsearch.configsync.action.VerifyRequest;
+import org.codelibs.elasticsearch.configsync.service.ConfigSyncEvents.FileUpdateEvent;
+import org.codelibs.elasticsearch.configsync.service.ConfigSyncEvents.StoreEvent;
+import org.codelibs.elasticsearch.configsync.service.ConfigSyncEvents.SyncCycleEvent;
 import org.elasticsearch.ElasticsearchException;
 import org.elasticsearch.ElasticsearchSecurityException;
+import org.elasticsearch.ElasticsearchStatusException;
+import org.elasticsearch.ExceptionsHelper;
+import org.elasticsearch.ResourceNotFoundException;
 import org.elasticsearch.action.ActionListener;
 import org.elasticsearch.action.ActionResponse;
+import org.elasticsearch.action.ActionRunnable;
 import org.elasticsearch.action.DocWriteResponse;
 import org.elasticsearch.action.admin.cluster.health.ClusterHealthResponse;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequestBuilder;
+import org.elasticsearch.action.delete.DeleteRequest;
 import org.elasticsearch.action.delete.DeleteResponse;
+import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.action.get.MultiGetItemResponse;
+import org.elasticsearch.action.get.MultiGetRequestBuilder;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.index.IndexRequestBuilder;
+import org.elasticsearch.action.search.SearchRequestBuilder;
 import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.support.SubscribableListener;
 import org.elasticsearch.action.support.WriteRequest.RefreshPolicy;
+import org.elasticsearch.action.update.UpdateRequest;
+import org.elasticsearch.action.update.UpdateResponse;
 import org.elasticsearch.client.internal.Client;
 import org.elasticsearch.cluster.ClusterState;
 import org.elasticsearch.cluster.health.ClusterHealthStatus;
+import org.elasticsearch.cluster.metadata.IndexMetadata;
 import org.elasticsearch.cluster.node.DiscoveryNode;
 import org.elasticsearch.cluster.node.DiscoveryNodes;
 import org.elasticsearch.cluster.service.ClusterService;
+import org.elasticsearch.common.Randomness;
+import org.elasticsearch.common.breaker.CircuitBreaker;
+import org.elasticsearch.common.breaker.CircuitBreakingException;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.cache.Cache;
+import org.elasticsearch.common.cache.CacheBuilder;
 import org.elasticsearch.common.component.AbstractLifecycleComponent;
 import org.elasticsearch.common.component.LifecycleListener;
+import org.elasticsearch.common.hash.MessageDigests;
 import org.elasticsearch.common.io.Streams;
+import org.elasticsearch.common.io.stream.ReleasableBytesStreamOutput;
+import org.elasticsearch.common.recycler.Recycler;
 import org.elasticsearch.common.settings.SecureSetting;
 import org.elasticsearch.common.settings.SecureString;
 import org.elasticsearch.common.settings.Setting;
 import org.elasticsearch.common.settings.Setting.Property;
 import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.time.DateFormatter;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.util.BigArrays;
+import org.elasticsearch.common.util.PageCacheRecycler;
+import org.elasticsearch.common.util.concurrent.CountDown;
+import org.elasticsearch.common.util.concurrent.EsExecutors;
+import org.elasticsearch.common.util.concurrent.EsRejectedExecutionException;
+import org.elasticsearch.common.util.concurrent.ThreadContext;
+import org.elasticsearch.core.CheckedConsumer;
+import org.elasticsearch.core.IOUtils;
+import org.elasticsearch.core.Releasable;
+import org.elasticsearch.core.Releasables;
 import org.elasticsearch.core.TimeValue;
+import org.elasticsearch.core.Tuple;
 import org.elasticsearch.env.Environment;
 import org.elasticsearch.index.IndexNotFoundException;
+import org.elasticsearch.index.IndexService;
+import org.elasticsearch.index.engine.VersionConflictEngineException;
+import org.elasticsearch.index.query.BoolQueryBuilder;
 import org.elasticsearch.index.query.QueryBuilder;
 import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.index.shard.ShardId;
+import org.elasticsearch.indices.IndicesService;
+import org.elasticsearch.indices.breaker.CircuitBreakerService;
+import org.elasticsearch.indices.breaker.NoneCircuitBreakerService;
+import org.elasticsearch.node.Node;
+import org.elasticsearch.rest.RestStatus;
 import org.elasticsearch.search.SearchHit;
 import org.elasticsearch.search.SearchHits;
+import org.elasticsearch.search.aggregations.AggregationBuilders;
+import org.elasticsearch.search.aggregations.bucket.terms.Terms;
 import org.elasticsearch.search.sort.SortOrder;
+import org.elasticsearch.tasks.TaskCancelledException;
+import org.elasticsearch.telemetry.tracing.Tracer;
 import org.elasticsearch.threadpool.Scheduler.ScheduledCancellable;
 import org.elasticsearch.threadpool.ThreadPool;
 import org.elasticsearch.threadpool.ThreadPool.Names;
 import org.elasticsearch.xcontent.XContentBuilder;
 import org.elasticsearch.xcontent.XContentFactory;
+import org.elasticsearch.xcontent.XContentType;
 import org.elasticsearch.xcontent.json.JsonXContent;
 
 public class ConfigSyncService extends AbstractLifecycleComponent {
@@ -103,6 +199,26 @@ public class ConfigSyncService extends AbstractLifecycleComponent {
 
     public static final Setting<String> CONFIG_PATH_SETTING = Setting.simpleString("configsync.config_path", Property.NodeScope);
 
+    public static final Setting<String> TRASH_PATH_SETTING = Setting.simpleString("configsync.trash_path", Property.NodeScope);
+
+    public static final Setting<Integer> HISTORY_SIZE_SETTING =
+            Setting.intSetting("configsync.history.size", 10, 0, Property.NodeScope, Property.Dynamic);
+
+    public static final Setting<TimeValue> TOMBSTONE_RETENTION_SETTING =
+            Setting.timeSetting("configsync.tombstone.retention", TimeValue.timeValueDays(7), Property.NodeScope, Property.Dynamic);
+
+    public static final Setting<Boolean> RELOAD_ANALYZERS_SETTING =
+            Setting.boolSetting("configsync.reload_analyzers.enabled", false, Property.NodeScope, Property.Dynamic);
+
+    public static final Setting<ByteSizeValue> CONTENT_CACHE_SIZE_SETTING =
+            Setting.byteSizeSetting("configsync.content_cache.size", ByteSizeValue.ofMb(16), Property.NodeScope);
+
+    public static final Setting<ByteSizeValue> BLOCK_TRANSFER_THRESHOLD_SETTING = Setting.byteSizeSetting(
+            "configsync.block_transfer.threshold", ByteSizeValue.ofMb(1), Property.NodeScope, Property.Dynamic);
+
+    public static final Setting<Integer> PEER_TRANSFER_MAX_CONCURRENT_CHUNKS_SETTING =
+            Setting.intSetting("configsync.peer_transfer.max_concurrent_chunks", 2, 0, Property.NodeScope, Property.Dynamic);
+
     public static final Setting<String> INDEX_SETTING =
             new Setting<>("configsync.index", s -> "configsync", Function.identity(), Property.NodeScope);
 
@@ -114,18 +230,106 @@ public class ConfigSyncService extends AbstractLifecycleComponent {
 
     private static final String FILE_MAPPING_JSON = "configsync/file_mapping.json";
 
+    private static final String HISTORY_MAPPING_JSON = "configsync/history_mapping.json";
+
+    private static final String BLOB_MAPPING_JSON = "configsync/blob_mapping.json";
+
     public static final String TIMESTAMP = "@timestamp";
 
     public static final String CONTENT = "content";
 
     public static final String PATH = "path";
 
+    public static final String HASH = "hash";
+
+    public static final String REVISION = "revision";
+
+    public static final String DELETED = "deleted";
+
+    public static final String ACKED_NODES = "acked_nodes";
+
+    public static final String DELTA = "delta";
+
+    public static final String BUNDLE = "bundle";
+
+    public static final String SIZE = "size";
+
+    public static final String BLOCK_SIZE = "block_size";
+
+    public static final String BLOCKS = "blocks";
+
+    public static final String BLOB = "blob";
+
+    public static final String RELEASE = "release";
+
+    public static final String RELEASE_DIR = "release_dir";
+
+    public static final String RELEASE_FILES = "release_files";
+
+    private static final String RELEASES_PATH = ".configsync/releases";
+
+    private static final String BUNDLE_MANIFEST = ".configsync.bundle";
+
+    private static final String MANAGED_PATHS_FILE = ".configsync/managed_paths";
+
+    private static final TimeValue RELEASE_WAIT = TimeValue.timeValueMinutes(1);
+
+    private static final int MAX_ACK_RETRIES = 3;
+
+    private static final int MAX_STORE_RETRIES = 3;
+
+    private static final int TOMBSTONE_PURGE_SIZE = 1000;
+
+    private static final int VERIFY_SCROLL_SIZE = 1000;
+
+    private static final int ROLLBACK_PATH_BATCH_SIZE = 1000;
+
+    private static final TimeValue PROPAGATION_RETRY_INTERVAL = TimeValue.timeValueSeconds(1);
+
+    private static final int MAX_PENDING_PATHS = 100;
+
+    private static final String TEMP_FILE_SUFFIX = ".configsync.tmp";
+
+    private static final long STORE_MEMORY_FACTOR = 4;
+
+    private static final int MAX_THROTTLED_REQUESTS = 100;
+
+    public static final String UPDATER_DISABLED = "disabled";
+
+    public static final String UPDATER_STARTING = "starting";
+
+    public static final String UPDATER_WAITING = "waiting";
+
+    public static final String UPDATER_RUNNING = "running";
+
+    public static final String UPDATER_STOPPED = "stopped";
+
+    private static final String SPAN_PATH = "configsync.path";
+
+    private static final String SPAN_BYTES = "configsync.bytes";
+
+    private static final String HISTORY_INDEX_SUFFIX = "_history";
+
+    private static final String BLOB_INDEX_SUFFIX = "_blob";
+
+    private static final int BLOB_PURGE_SIZE = 1000;
+
+    private static final TimeValue BLOB_PURGE_GRACE = TimeValue.timeValueMinutes(1);
+
+    private static final int PEER_TRANSFER_MAX_PEERS = 3;
+
     private final Client client;
 
     private final String index;
 
+    private final String historyIndex;
+
+    private final String blobIndex;
+
     private String configPath;
 
+    private final String trashPath;
+
     private final ThreadPool threadPool;
 
     private final TimeValue scrollForUpdate;
@@ -146,10 +350,86 @@ public class ConfigSyncService extends AbstractLifecycleComponent {
 
     private final TimeValue flushInterval;
 
+    private final TimeValue tombstoneRetention;
+
+    private final int historySize;
+
+    private final boolean reloadAnalyzersEnabled;
+
+    private final ByteSizeValue blockTransferThreshold;
+
+    private final int peerTransferMaxConcurrentChunks;
+
     private TransportFileFlushAction fileFlushAction;
 
+    private BigArrays bigArrays = BigArrays.NON_RECYCLING_INSTANCE;
+
+    private PageCacheRecycler pageCacheRecycler = PageCacheRecycler.NON_RECYCLING_INSTANCE;
+
+    private CircuitBreakerService circuitBreakerService = new NoneCircuitBreakerService();
+
+    private IndicesService indicesService;
+
     private TransportResetSyncAction resetSyncAction;
 
+    private TransportVerifyAction verifyAction;
+
+    private TransportStatsAction statsAction;
+
+    private TransportStatusAction statusAction;
+
+    private TransportFileChunkAction fileChunkAction;
+
+    private final Set<String> managedPaths = ConcurrentHashMap.newKeySet();
+
+    private Set<String> savedManagedPaths = Collections.emptySet();
+
+    private final Set<String> failedPaths = ConcurrentHashMap.newKeySet();
+
+    private final Map<String, Long> appliedRevisions = new ConcurrentHashMap<>();
+
+    private final Set<String> mappedIndexUUIDs = ConcurrentHashMap.newKeySet();
+
+    private final AtomicInteger throttledRequests = new AtomicInteger();
+
+    private volatile long lastCycleEndTime = -1;
+
+    private volatile long lastCycleTookInMillis = -1;
+
+    private volatile Tuple<Long, String> lastError;
+
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+
+    private volatile String updaterState;
+
+    private final Map<String, FileHash> fileHashCache = new ConcurrentHashMap<>();
+
+    private final Cache<String, ConfigContent> contentCache;
+
+    private volatile ConfigHashTree localHashTree;
+
+    private volatile ConfigPathFilter pathFilter = ConfigPathFilter.ALL;
+
+    private final Set<String> syncedReferencedPaths = ConcurrentHashMap.newKeySet();
+
+    private final AtomicBoolean referencedPathsChanged = new AtomicBoolean();
+
+    private final int hashConcurrency;
+
+    private final ConfigSyncStats stats = new ConfigSyncStats();
+
+    private final ConfigSyncTracer tracer;
+
+    private final ConfigSyncSlowLog slowLog;
+
+    private final ConfigSyncThrottle throttle;
+
+    private final Set<String> unreferencedBlobs = ConcurrentHashMap.newKeySet();
+
+    private volatile String blobPurgeCursor;
+
+    private final AtomicInteger servingChunks = new AtomicInteger();
+
     private static String xpackSecurityToken(final String s) {
         if (s == null || s.trim().length() == 0) {
             return "";
@@ -158,10 +438,12 @@ public class ConfigSyncService extends AbstractLifecycleComponent {
         return "Basic " + basicAuth;
     }
 
-    public ConfigSyncService(final Client client, final ClusterService clusterService, final Environment environment, final ThreadPool threadPool) {
+    public ConfigSyncService(final Client client, final ClusterService clusterService, final Environment environment,
+            final ThreadPool threadPool, final Tracer tracer) {
         this.client = client;
         this.clusterService = clusterService;
         this.threadPool = threadPool;
+        this.tracer = new ConfigSyncTracer(tracer, threadPool.getThreadContext());
 
         if (logger.isDebugEnabled()) {
             logger.debug("Creating ConfigSyncService");
@@ -170,14 +452,34 @@ public class ConfigSyncService extends AbstractLifecycleComponent {
         final Settings settings = environment.settings();
 
         index = INDEX_SETTING.get(settings);
+        historyIndex = index + HISTORY_INDEX_SUFFIX;
+        blobIndex = index + BLOB_INDEX_SUFFIX;
         configPath = CONFIG_PATH_SETTING.get(settings);
         if (configPath.length() == 0) {
             configPath = environment.configFile().toFile().getAbsolutePath();
         }
+        trashPath = TRASH_PATH_SETTING.get(settings);
         scrollForUpdate = SCROLL_TIME_SETTING.get(settings);
         sizeForUpdate = SCROLL_SIZE_SETTING.get(settings);
         fileUpdaterEnabled = FILE_UPDATER_ENABLED_SETTING.get(settings);
+        updaterState = fileUpdaterEnabled ? UPDATER_STARTING : UPDATER_DISABLED;
         flushInterval = FLUSH_INTERVAL_SETTING.get(settings);
+        tombstoneRetention = TOMBSTONE_RETENTION_SETTING.get(settings);
+        historySize = HISTORY_SIZE_SETTING.get(settings);
+        reloadAnalyzersEnabled = RELOAD_ANALYZERS_SETTING.get(settings);
+        blockTransferThreshold = BLOCK_TRANSFER_THRESHOLD_SETTING.get(settings);
+        peerTransferMaxConcurrentChunks = PEER_TRANSFER_MAX_CONCURRENT_CHUNKS_SETTING.get(settings);
+        hashConcurrency = EsExecutors.allocatedProcessors(settings);
+        slowLog = new ConfigSyncSlowLog(settings, Node.NODE_NAME_SETTING.get(settings));
+        loadManagedPaths();
+        throttle = new ConfigSyncThrottle(settings);
+        final long contentCacheSize = CONTENT_CACHE_SIZE_SETTING.get(settings).getBytes();
+        if (contentCacheSize > 0) {
+            contentCache = CacheBuilder.<String, ConfigContent> builder().setMaximumWeight(contentCacheSize)
+                    .weigher((path, content) -> content.getWeight()).build();
+        } else {
+            contentCache = null;
+        }
         try (final SecureString password = XPACK_SECURITY_PASSWORD_SETTING.get(settings)) {
             if (password.length() > 0) {
                 final String user = XPACK_SECURITY_USER_SETTING.get(settings);
@@ -196,7 +498,7 @@ public class ConfigSyncService extends AbstractLifecycleComponent {
         return this.client;
     }
 
-    private TimeValue startUpdater() {
+    private synchronized TimeValue startUpdater() {
         configFileUpdater = new ConfigFileUpdater();
 
         if (scheduledCancellable != null) {
@@ -206,10 +508,12 @@ public class ConfigSyncService extends AbstractLifecycleComponent {
         final TimeValue interval =
                 clusterService.state().getMetadata().settings().getAsTime(FLUSH_INTERVAL_SETTING.getKey(), flushInterval);
         if (interval.millis() < 0) {
+            updaterState = UPDATER_DISABLED;
             if (logger.isDebugEnabled()) {
                 logger.debug("ConfigFileUpdater is not scheduled.");
             }
         } else {
+            updaterState = UPDATER_RUNNING;
             scheduledCancellable = threadPool.schedule(configFileUpdater, interval, threadPool.executor(Names.GENERIC));
             if (logger.isDebugEnabled()) {
                 logger.debug("Scheduled ConfigFileUpdater with {}", interval);
@@ -218,6 +522,16 @@ public class ConfigSyncService extends AbstractLifecycleComponent {
         return interval;
     }
 
+    /**
+     * Runs the scheduled updater now if it is waiting for the next cycle.
+     * A running updater checks the referenced paths again after its cycle.
+     */
+    private synchronized void runUpdaterNow() {
+        if (scheduledCancellable != null && scheduledCancellable.cancel()) {
+            scheduledCancellable = threadPool.schedule(configFileUpdater, TimeValue.ZERO, threadPool.executor(Names.GENERIC));
+        }
+    }
+
     @Override
     protected void doStart() {
         if (logger.isDebugEnabled()) {
@@ -230,6 +544,48 @@ public class ConfigSyncService extends AbstractLifecycleComponent {
                 waitForClusterReady();
             }
         });
+        clusterService.addListener(event -> {
+            // referenced paths are resolved by the updater, so that routing nodes are not built for each change
+            if (fileUpdaterEnabled && (event.routingTableChanged() || event.metadataChanged())
+                    && ConfigPathFilter.SPARSE_ENABLED_SETTING.get(event.state().getMetadata().settings())
+                    && !referencedPathsChanged.getAndSet(true)) {
+                runUpdaterNow();
+            }
+        });
+    }
+
+    /**
+     * Syncs files which are newly referenced by indices allocated to this node in sparse mode.
+     * Older files are not found by the range query of a cycle, so they are fetched by their paths before the cycle.
+     * Files which failed to be synced are retried on the next cycle, and the listener is always notified.
+     */
+    private void syncReferencedPaths(final ConfigPathFilter filter, final ActionListener<Void> listener) {
+        if (!filter.isSparse()) {
+            syncedReferencedPaths.clear();
+            listener.onResponse(null);
+            return;
+        }
+        syncedReferencedPaths.retainAll(filter.getPaths());
+        final Set<String> paths = new TreeSet<>();
+        for (final String path : filter.getPaths()) {
+            if (filter.matches(path) && !syncedReferencedPaths.contains(path)) {
+                paths.add(path);
+            }
+        }
+        if (paths.isEmpty()) {
+            listener.onResponse(null);
+            return;
+        }
+        if (logger.isDebugEnabled()) {
+            logger.debug("Syncing referenced files: {}", paths);
+        }
+        new ConfigFileWriter(null, paths).execute(wrap(response -> {
+            syncedReferencedPaths.addAll(paths);
+            listener.onResponse(null);
+        }, e -> {
+            logger.warn("Failed to sync referenced files: " + paths, e);
+            listener.onResponse(null);
+        }));
     }
 
     private void waitForClusterReady() {
@@ -252,54 +608,106 @@ public class ConfigSyncService extends AbstractLifecycleComponent {
                 } else {
                     logger.warn("Could not create configsync. Retrying to start it.", e);
                 }
+                updaterState = UPDATER_WAITING;
+                setLastError("Could not create configsync: " + e.getMessage());
                 threadPool.schedule(this::waitForClusterReady, TimeValue.timeValueSeconds(15), threadPool.generic());
             }));
         }, e -> {
             logger.warn("Could not start ConfigFileUpdater. Retrying to start it.", e);
+            updaterState = UPDATER_WAITING;
+            setLastError("Could not start ConfigFileUpdater: " + e.getMessage());
             threadPool.schedule(this::waitForClusterReady, TimeValue.timeValueSeconds(15), threadPool.generic());
         }));
     }
 
     private void checkIfIndexExists(final ActionListener<ActionResponse> listener) {
-        client().admin().indices().prepareGetIndex().addIndices(index).execute(wrap(response -> {
+        checkIfIndexExists(index, FILE_MAPPING_JSON, "0-all", listener);
+    }
+
+    private void checkIfHistoryIndexExists(final ActionListener<ActionResponse> listener) {
+        checkIfIndexExists(historyIndex, HISTORY_MAPPING_JSON, "0-1", listener);
+    }
+
+    private void checkIfBlobIndexExists(final ActionListener<ActionResponse> listener) {
+        checkIfIndexExists(blobIndex, BLOB_MAPPING_JSON, "0-all", listener);
+    }
+
+    /**
+     * Checks if the index exists, and creates it if not. The mapping is put on an existing index once, because an index created
+     * by an older version does not have mappings of fields added later, and they would be mapped dynamically.
+     */
+    private void checkIfIndexExists(final String name, final String mapping, final String autoExpandReplicas,
+            final ActionListener<ActionResponse> listener) {
+        final IndexMetadata indexMetadata = clusterService.state().getMetadata().index(name);
+        if (indexMetadata != null) {
+            if (mappedIndexUUIDs.contains(indexMetadata.getIndexUUID())) {
+                listener.onResponse(ActionResponse.Empty.INSTANCE);
+            } else {
+                putMapping(name, indexMetadata.getIndexUUID(), mapping, listener);
+            }
+            return;
+        }
+        client().admin().indices().prepareGetIndex().addIndices(name).execute(wrap(response -> {
             if (response.indices().length > 0) {
                 if (logger.isDebugEnabled()) {
-                    logger.debug("{} exists.", index);
+                    logger.debug("{} exists.", name);
                 }
-                listener.onResponse(response);
+                putMapping(name, null, mapping, listener);
             } else {
-                createIndex(listener);
+                createIndex(name, mapping, autoExpandReplicas, listener);
             }
         }, e -> {
             if (e instanceof IndexNotFoundException) {
-                createIndex(listener);
+                createIndex(name, mapping, autoExpandReplicas, listener);
             } else {
                 listener.onFailure(e);
             }
         }));
     }
 
-    private void createIndex(final ActionListener<ActionResponse> listener) {
-        try (final Reader in = new InputStreamReader(ConfigSyncService.class.getClassLoader().getResourceAsStream(FILE_MAPPING_JSON),
+    private void putMapping(final String name, final String indexUUID, final String mapping,
+            final ActionListener<ActionResponse> listener) {
+        try {
+            client().admin().indices().preparePutMapping(name).setSource(loadMapping(mapping), XContentType.JSON)
+                    .execute(wrap(response -> {
+                        if (indexUUID != null) {
+                            mappedIndexUUIDs.add(indexUUID);
+                        }
+                        listener.onResponse(response);
+                    }, listener::onFailure));
+        } catch (final IOException e) {
+            listener.onFailure(e);
+        }
+    }
+
+    private static String loadMapping(final String mapping) throws IOException {
+        try (final Reader in = new InputStreamReader(ConfigSyncService.class.getClassLoader().getResourceAsStream(mapping),
                 StandardCharsets.UTF_8)) {
-            final String source = Streams.copyToString(in);
+            return Streams.copyToString(in);
+        }
+    }
+
+    private void createIndex(final String name, final String mapping, final String autoExpandReplicas,
+            final ActionListener<ActionResponse> listener) {
+        try {
+            final String source = loadMapping(mapping);
             final XContentBuilder settingsBuilder = XContentFactory.jsonBuilder()//
                     .startObject()//
                     .startObject("index")//
                     .field("number_of_shards", 1)//
                     .field("number_of_replicas", 0)//
-                    .field("auto_expand_replicas", "0-all")//
+                    .field("auto_expand_replicas", autoExpandReplicas)//
                     .endObject()//
                     .endObject();
-            client().admin().indices().prepareCreate(index).setSettings(settingsBuilder).setMapping(source)
-                    .execute(wrap(response -> waitForIndex(listener), listener::onFailure));
+            client().admin().indices().prepareCreate(name).setSettings(settingsBuilder).setMapping(source)
+                    .execute(wrap(response -> waitForIndex(name, listener), listener::onFailure));
         } catch (final IOException e) {
             listener.onFailure(e);
         }
     }
 
-    private void waitForIndex(final ActionListener<ActionResponse> listener) {
-        client.admin().cluster().prepareHealth(index).setWaitForYellowStatus()
+    private void waitForIndex(final String name, final ActionListener<ActionResponse> listener) {
+        client.admin().cluster().prepareHealth(name).setWaitForYellowStatus()
                 .execute(wrap(response -> listener.onResponse(response), listener::onFailure));
     }
 
@@ -315,160 +723,2619 @@ public class ConfigSyncService extends AbstractLifecycleComponent {
     }
 
     public void store(final String path, final byte[] contentArray, final ActionListener<DocWriteResponse> listener) {
-        checkIfIndexExists(wrap(response -> {
-            try {
-                final String id = getId(path);
-                final XContentBuilder builder = JsonXContent.contentBuilder();
-                builder.startObject();
-                builder.field(PATH, path);
-                builder.field(CONTENT, contentArray);
-                builder.field(TIMESTAMP, new Date());
-                builder.endObject();
-                client().prepareIndex(index).setId(id).setSource(builder).setRefreshPolicy(RefreshPolicy.IMMEDIATE).execute(listener);
-            } catch (final IOException e) {
-                throw new ElasticsearchException("Failed to register " + path, e);
+        store(path, contentArray, false, listener);
+    }
+
+    /**
+     * Stores a file. If bundle is true, the content is a zip archive which nodes expand into the directory of the path.
+     */
+    public void store(final String path, final byte[] contentArray, final boolean bundle, final ActionListener<DocWriteResponse> listener) {
+        if (bundle && !isZip(contentArray)) {
+            listener.onFailure(new IllegalArgumentException(path + " is not a zip archive."));
+            return;
+        }
+        final StoreEvent event = new StoreEvent();
+        event.begin();
+        final ConfigSyncTracer.Span span = tracer.startSpan("configsync.store",
+                Map.of(SPAN_PATH, String.valueOf(path), SPAN_BYTES, contentArray.length));
+        final Releasable memory;
+        try {
+            // the content, its Base64 source and the current content are held while storing it
+            memory = reserveMemory(contentArray.length * STORE_MEMORY_FACTOR, "configsync_store[" + path + "]");
+        } catch (final CircuitBreakingException e) {
+            span.end(e);
+            commitStoreEvent(event, path, contentArray.length, "failed");
+            listener.onFailure(e);
+            return;
+        }
+        final ActionListener<DocWriteResponse> storeListener = new ActionListener<DocWriteResponse>() {
+            @Override
+            public void onResponse(final DocWriteResponse response) {
+                final String result = response.getResult().getLowercase();
+                span.setAttribute("configsync.result", result);
+                span.end();
+                commitStoreEvent(event, path, contentArray.length, result);
+                listener.onResponse(response);
             }
-        }, listener::onFailure));
+
+            @Override
+            public void onFailure(final Exception e) {
+                span.end(e);
+                commitStoreEvent(event, path, contentArray.length, "failed");
+                listener.onFailure(e);
+            }
+        };
+        final ActionListener<DocWriteResponse> releasingListener = ActionListener.releaseAfter(storeListener, memory);
+        runThrottled(contentArray.length, releasingListener,
+                () -> doStore(path, contentArray, bundle, MAX_STORE_RETRIES, releasingListener));
     }
 
-    public void getPaths(final int from, final int size, final String[] fields, final String sortField, final String sortOrder,
-            final ActionListener<List<Object>> listener) {
-        checkIfIndexExists(wrap(res -> {
-            final boolean hasFields = ((fields != null) && (fields.length != 0));
-            client().prepareSearch(index).setSize(size).setFrom(from).setFetchSource(hasFields ? fields : new String[] { PATH }, null)
-                    .addSort(sortField, SortOrder.DESC.toString().equalsIgnoreCase(sortOrder) ? SortOrder.DESC : SortOrder.ASC)
-                    .execute(wrap(response -> {
-                        final List<Object> objList = new ArrayList<>();
-                        for (final SearchHit hit : response.getHits().getHits()) {
-                            if (hasFields) {
-                                final Map<String, Object> objMap = new HashMap<>();
-                                for (final String field : fields) {
-                                    objMap.put(field, hit.getSourceAsMap().get(field));
-                                }
-                                objList.add(objMap);
-                            } else {
-                                objList.add(hit.getSourceAsMap().get(PATH));
-                            }
-                        }
-                        listener.onResponse(objList);
-                    }, listener::onFailure));
-        }, listener::onFailure));
+    private static boolean isZip(final byte[] contentArray) {
+        return contentArray.length >= 4 && contentArray[0] == 'P' && contentArray[1] == 'K' && contentArray[2] == 3 && contentArray[3] == 4;
     }
 
-    private String getId(final String path) {
-        return Base64.encodeBase64URLSafeString(path.getBytes(StandardCharsets.UTF_8));
+    /**
+     * Charges bytes of contents held in heap to the request circuit breaker. CircuitBreakingException is thrown if it exceeds the limit.
+     */
+    private Releasable reserveMemory(final long bytes, final String label) {
+        final CircuitBreaker breaker = circuitBreakerService.getBreaker(CircuitBreaker.REQUEST);
+        breaker.addEstimateBytesAndMaybeBreak(bytes, label);
+        return Releasables.releaseOnce(() -> breaker.addWithoutBreaking(-bytes));
     }
 
-    public void resetSync(final ActionListener<ConfigResetSyncResponse> listener) {
-        checkIfIndexExists(wrap(response -> {
-            final ClusterState state = clusterService.state();
-            final DiscoveryNodes nodes = state.nodes();
-            final Iterator<DiscoveryNode> nodesIt = nodes.getDataNodes().values().iterator();
-            resetSync(nodesIt, listener);
-        }, listener::onFailure));
+    /**
+     * Runs the action after a delay given by configsync.max_bytes_per_sec for the bytes. Requests waiting for their delays
+     * hold their contents in heap, so the listener is failed with EsRejectedExecutionException if too many requests are waiting.
+     */
+    private void runThrottled(final long bytes, final ActionListener<?> listener, final Runnable action) {
+        final Settings clusterSettings = clusterService.state().getMetadata().settings();
+        if (!throttle.isEnabled(clusterSettings)) {
+            action.run();
+            return;
+        }
+        if (throttledRequests.incrementAndGet() > MAX_THROTTLED_REQUESTS) {
+            throttledRequests.decrementAndGet();
+            listener.onFailure(new EsRejectedExecutionException("Rejected because " + MAX_THROTTLED_REQUESTS
+                    + " requests are already waiting for configsync.max_bytes_per_sec.", false));
+            return;
+        }
+        final long delay = throttle.reserve(clusterSettings, bytes);
+        if (logger.isDebugEnabled()) {
+            logger.debug("Throttled {} bytes for {}ns", bytes, delay);
+        }
+        threadPool.schedule(() -> {
+            throttledRequests.decrementAndGet();
+            action.run();
+        }, TimeValue.timeValueNanos(delay), threadPool.generic());
     }
 
-    public void resetSync(final Iterator<DiscoveryNode> nodesIt, final ActionListener<ConfigResetSyncResponse> listener) {
-        if (!nodesIt.hasNext()) {
-            listener.onResponse(new ConfigResetSyncResponse(true));
-        } else {
-            resetSyncAction.sendRequest(nodesIt, listener);
+    private static void commitStoreEvent(final StoreEvent event, final String path, final long bytes, final String result) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.path = path;
+            event.bytes = bytes;
+            event.result = result;
+            event.commit();
         }
     }
 
-    public void restartUpdater(final ActionListener<ActionResponse> listener) {
-        if (logger.isDebugEnabled()) {
-            logger.debug("Restarting ConfigFileUpdater...");
+    /**
+     * Stores files of a release in the directory by one bulk request. Files in the release have the same release id and timestamp,
+     * and each node switches the directory to a generation containing all of them at once.
+     */
+    public void storeRelease(final String dir, final Map<String, byte[]> files, final ActionListener<Map<String, Object>> listener) {
+        final String releaseDir = dir != null ? dir.replaceAll("^/+|/+$", "") : "";
+        if (releaseDir.length() == 0 || releaseDir.contains("..")) {
+            listener.onFailure(new IllegalArgumentException("Invalid release directory: " + dir));
+            return;
         }
-        try {
-            if (configFileUpdater != null) {
-                configFileUpdater.terminate();
+        if (files.isEmpty()) {
+            listener.onFailure(new IllegalArgumentException("No files in the release."));
+            return;
+        }
+        long bytes = 0;
+        for (final Map.Entry<String, byte[]> entry : files.entrySet()) {
+            if (!entry.getKey().startsWith(releaseDir + "/")) {
+                listener.onFailure(new IllegalArgumentException(entry.getKey() + " is not in " + releaseDir));
+                return;
             }
-            checkIfIndexExists(wrap(response -> {
-                final TimeValue time = startUpdater();
-                if (time.millis() >= 0) {
-                    logger.info("ConfigFileUpdater is started at {} intervals.", time);
-                }
-                listener.onResponse(response);
-            }, e -> {
-                logger.error("Failed to restart ConfigFileUpdater.", e);
-                listener.onFailure(e);
-            }));
-        } catch (final Exception e) {
+            bytes += entry.getValue().length;
+        }
+        final Releasable memory;
+        try {
+            memory = reserveMemory(bytes * STORE_MEMORY_FACTOR, "configsync_release[" + releaseDir + "]");
+        } catch (final CircuitBreakingException e) {
             listener.onFailure(e);
+            return;
         }
+        final ActionListener<Map<String, Object>> releaseListener = ActionListener.releaseAfter(listener, memory);
+        runThrottled(bytes, releaseListener, () -> checkIfIndexExists(wrap(response -> checkIfHistoryIndexExists(wrap(response2 -> {
+            final MultiGetRequestBuilder builder = client().prepareMultiGet();
+            for (final String path : files.keySet()) {
+                builder.add(index, getId(path));
+            }
+            builder.execute(wrap(currents -> storeRelease(releaseDir, files, currents.getResponses(), releaseListener),
+                    releaseListener::onFailure));
+        }, releaseListener::onFailure)), releaseListener::onFailure)));
     }
 
-    public void flush(final ActionListener<ConfigFileFlushResponse> listener) {
-        checkIfIndexExists(wrap(response -> {
-            final ClusterState state = clusterService.state();
-            final DiscoveryNodes nodes = state.nodes();
-            final Iterator<DiscoveryNode> nodesIt = nodes.getDataNodes().values().iterator();
-            flushOnNode(nodesIt, listener);
-        }, listener::onFailure));
+    private void storeRelease(final String dir, final Map<String, byte[]> files, final MultiGetItemResponse[] items,
+            final ActionListener<Map<String, Object>> listener) throws IOException {
+        final Map<String, GetResponse> currents = new HashMap<>();
+        for (final MultiGetItemResponse item : items) {
+            if (item.isFailed()) {
+                listener.onFailure(item.getFailure().getFailure());
+                return;
+            }
+            currents.put(item.getId(), item.getResponse());
+        }
+        final Map<String, Object> results = new TreeMap<>();
+        final Map<String, byte[]> changedFiles = new TreeMap<>();
+        for (final Map.Entry<String, byte[]> entry : files.entrySet()) {
+            if (isSameContent(currents.get(getId(entry.getKey())), getHash(entry.getValue()))) {
+                results.put(entry.getKey(), DocWriteResponse.Result.NOOP.getLowercase());
+            } else {
+                changedFiles.put(entry.getKey(), entry.getValue());
+            }
+        }
+        final Map<String, Object> response = new HashMap<>();
+        response.put("paths", results);
+        if (changedFiles.isEmpty()) {
+            listener.onResponse(response);
+            return;
+        }
+        final Map<String, byte[]> blobs = new HashMap<>();
+        for (final byte[] content : changedFiles.values()) {
+            blobs.put(getHash(content), content);
+        }
+        final int historySize = getHistorySize();
+        final Map<String, Map<String, Object>> currentSources = new HashMap<>();
+        for (final GetResponse current : currents.values()) {
+            if (current.isExists() && historySize > 0) {
+                currentSources.put(current.getId(), current.getSourceAsMap());
+            }
+        }
+        // deltas of histories are encoded on the generic thread pool, not on a transport thread
+        storeBlobs(blobs, wrap(r -> fillContents(currentSources.values(),
+                wrap(r2 -> threadPool.generic().execute(ActionRunnable.wrap(listener, l -> {
+            final long timestamp = System.currentTimeMillis();
+            final String release = Long.toString(timestamp);
+            final BulkRequestBuilder bulkRequest = client().prepareBulk().setRefreshPolicy(RefreshPolicy.IMMEDIATE);
+            for (final Map.Entry<String, byte[]> entry : changedFiles.entrySet()) {
+                final String path = entry.getKey();
+                final byte[] content = entry.getValue();
+                final GetResponse current = currents.get(getId(path));
+                final long revision = getRevision(current);
+                final Map<String, Object> source = new HashMap<>();
+                source.put(PATH, path);
+                source.put(HASH, getHash(content));
+                source.put(REVISION, revision + 1);
+                source.put(TIMESTAMP, new Date(timestamp));
+                source.put(RELEASE, release);
+                source.put(RELEASE_DIR, dir);
+                source.put(RELEASE_FILES, changedFiles.size());
+                final IndexRequest indexRequest = new IndexRequest(index).id(getId(path)).source(source);
+                if (current.isExists()) {
+                    indexRequest.setIfSeqNo(current.getSeqNo()).setIfPrimaryTerm(current.getPrimaryTerm());
+                    if (historySize > 0) {
+                        bulkRequest.add(new IndexRequest(historyIndex).id(getHistoryId(path, revision))
+                                .source(newHistorySource(path, content, currentSources.get(getId(path)), revision)));
+                    }
+                } else {
+                    indexRequest.create(true);
+                }
+                bulkRequest.add(indexRequest);
+            }
+            response.put(RELEASE, release);
+            bulkRequest.execute(wrap(bulkResponse -> {
+                final Map<String, BulkItemResponse> storedItems = new TreeMap<>();
+                final Map<String, String> failures = new TreeMap<>();
+                RestStatus status = null;
+                for (final BulkItemResponse item : bulkResponse.getItems()) {
+                    if (!index.equals(item.getIndex())) {
+                        continue;
+                    }
+                    for (final String path : changedFiles.keySet()) {
+                        if (getId(path).equals(item.getId())) {
+                            invalidateContent(path);
+                            if (item.isFailed()) {
+                                failures.put(path, item.getFailureMessage());
+                                if (status == null) {
+                                    status = item.status();
+                                }
+                            } else {
+                                results.put(path, item.getResponse().getResult().getLowercase());
+                                storedItems.put(path, item);
+                            }
+                        }
+                    }
+                }
+                if (!failures.isEmpty()) {
+                    // nodes never apply an incomplete release, so files already stored are restored for the next release
+                    rollbackRelease(dir, release, storedItems, currents, failures, status, listener);
+                    return;
+                }
+                if (historySize > 0) {
+                    for (final String path : changedFiles.keySet()) {
+                        pruneHistory(path, historySize);
+                    }
+                }
+                listener.onResponse(response);
+            }, listener::onFailure));
+        })), listener::onFailure)), listener::onFailure));
     }
 
-    public void flushOnNode(final Iterator<DiscoveryNode> nodesIt, final ActionListener<ConfigFileFlushResponse> listener) {
-        if (!nodesIt.hasNext()) {
-            listener.onResponse(new ConfigFileFlushResponse(true));
-        } else {
-            fileFlushAction.sendRequest(nodesIt, listener);
+    /**
+     * Restores files stored by a failed release to their previous documents, and fails the request.
+     * If they are not restored, nodes discard the release after RELEASE_WAIT, and the previous generation is kept.
+     */
+    private void rollbackRelease(final String dir, final String release, final Map<String, BulkItemResponse> storedItems,
+            final Map<String, GetResponse> currents, final Map<String, String> failures, final RestStatus status,
+            final ActionListener<Map<String, Object>> listener) {
+        final String message = "Failed to store release " + release + " of " + dir + ": " + failures;
+        if (storedItems.isEmpty()) {
+            listener.onFailure(new ElasticsearchStatusException(message, status));
+            return;
+        }
+        final BulkRequestBuilder bulkRequest = client().prepareBulk().setRefreshPolicy(RefreshPolicy.IMMEDIATE);
+        for (final Map.Entry<String, BulkItemResponse> entry : storedItems.entrySet()) {
+            final String id = getId(entry.getKey());
+            final DocWriteResponse stored = entry.getValue().getResponse();
+            final GetResponse current = currents.get(id);
+            if (current.isExists()) {
+                bulkRequest.add(new IndexRequest(index).id(id).source(current.getSourceAsBytesRef(), XContentType.JSON)
+                        .setIfSeqNo(stored.getSeqNo()).setIfPrimaryTerm(stored.getPrimaryTerm()));
+            } else {
+                bulkRequest.add(new DeleteRequest(index, id).setIfSeqNo(stored.getSeqNo()).setIfPrimaryTerm(stored.getPrimaryTerm()));
+            }
         }
+        bulkRequest.execute(ActionListener.runAfter(wrap(response -> {
+            if (response.hasFailures()) {
+                logger.warn("Failed to roll back release {} of {}: {}", release, dir, response.buildFailureMessage());
+                listener.onFailure(new ElasticsearchStatusException(message + ", and stored files are not rolled back", status));
+            } else {
+                logger.info("Rolled back release {} of {}: {}", release, dir, storedItems.keySet());
+                listener.onFailure(new ElasticsearchStatusException(message + ", and stored files are rolled back", status));
+            }
+        }, e -> {
+            logger.warn("Failed to roll back release " + release + " of " + dir, e);
+            listener.onFailure(new ElasticsearchStatusException(message + ", and stored files are not rolled back", status, e));
+        }), () -> storedItems.keySet().forEach(this::invalidateContent)));
     }
 
-    public void getContent(final String path, final ActionListener<byte[]> listener) {
-        checkIfIndexExists(wrap(res -> {
-            client().prepareGet(index, getId(path)).execute(wrap(response -> {
-                if (response.isExists()) {
-                    final byte[] configContent = Base64.decodeBase64((String) response.getSource().get(ConfigSyncService.CONTENT));
-                    listener.onResponse(configContent);
+    /**
+     * Stores a file if its content is changed. When another store updates the path concurrently, the current document is
+     * read again and the store is retried, so the last store wins as an unconditional index request does.
+     */
+    private void doStore(final String path, final byte[] contentArray, final boolean bundle, final int retries,
+            final ActionListener<DocWriteResponse> listener) {
+        checkIfIndexExists(wrap(response -> {
+            final String id = getId(path);
+            final String hash = getHash(contentArray);
+            client().prepareGet(index, id).setFetchSource(null, new String[] { CONTENT }).execute(wrap(metadata -> {
+                if (isSameContent(metadata, hash) && isBundle(metadata.getSourceAsMap()) == bundle) {
+                    listener.onResponse(newNoopResponse(id, metadata));
+                } else if (!metadata.isExists() || (getHistorySize() <= 0 && metadata.getSourceAsMap().get(HASH) instanceof String)) {
+                    store(path, id, contentArray, hash, metadata, bundle, retries, listener);
                 } else {
-                    listener.onResponse(null);
+                    client().prepareGet(index, id).execute(wrap(current -> {
+                        if (isSameContent(current, hash) && isBundle(current.getSourceAsMap()) == bundle) {
+                            listener.onResponse(newNoopResponse(id, current));
+                        } else {
+                            store(path, id, contentArray, hash, current, bundle, retries, listener);
+                        }
+                    }, listener::onFailure));
                 }
             }, listener::onFailure));
         }, listener::onFailure));
     }
 
-    public void delete(final String path, final ActionListener<DeleteResponse> listener) {
-        checkIfIndexExists(
-                wrap(response -> client().prepareDelete(index, getId(path)).setRefreshPolicy(RefreshPolicy.IMMEDIATE).execute(listener),
-                        listener::onFailure));
+    private void store(final String path, final String id, final byte[] contentArray, final String hash, final GetResponse current,
+            final boolean bundle, final int retries, final ActionListener<DocWriteResponse> listener) {
+        storeBlobs(Map.of(hash, contentArray), wrap(r -> indexPath(path, id, hash, current, bundle, wrap(res -> {
+            invalidateContent(path);
+            storeHistory(path, contentArray, current, wrap(r2 -> listener.onResponse(res), e -> {
+                logger.warn("Failed to store a history of " + path, e);
+                listener.onResponse(res);
+            }));
+        }, e -> {
+            if (retries > 0 && ExceptionsHelper.unwrapCause(e) instanceof VersionConflictEngineException) {
+                if (logger.isDebugEnabled()) {
+                    logger.debug("Retrying to store {} updated concurrently.", path);
+                }
+                doStore(path, contentArray, bundle, retries - 1, listener);
+            } else {
+                listener.onFailure(e);
+            }
+        })), listener::onFailure));
     }
 
-    public void waitForStatus(final String waitForStatus, final String timeout, final ActionListener<ClusterHealthResponse> listener) {
-        try {
-            client.admin().cluster().prepareHealth(index).setWaitForStatus(ClusterHealthStatus.fromString(waitForStatus))
-                    .setTimeout(timeout).execute(listener);
-        } catch (final Exception e) {
-            listener.onFailure(e);
+    /**
+     * Writes a document of the path which refers to the blob of the hash.
+     */
+    private void indexPath(final String path, final String id, final String hash, final GetResponse current, final boolean bundle,
+            final ActionListener<DocWriteResponse> listener) {
+        final Map<String, Object> source = new HashMap<>();
+        source.put(PATH, path);
+        source.put(HASH, hash);
+        source.put(REVISION, getRevision(current) + 1);
+        source.put(TIMESTAMP, new Date());
+        if (bundle) {
+            source.put(BUNDLE, true);
         }
+        prepareIndex(id, current).setSource(source).execute(listener);
     }
 
-    private void updateConfigFile(final Map<String, Object> source) {
-        try {
+    /**
+     * Stores contents as blobs keyed by their hashes. A blob which exists already is not written again,
+     * so identical contents in many paths are stored and replicated once, but its timestamp is touched so that it is not purged.
+     * A content larger than configsync.block_transfer.threshold is stored as blocks, and its blob has signatures of them.
+     */
+    private void storeBlobs(final Map<String, byte[]> contents, final ActionListener<Void> listener) {
+        if (contents.isEmpty()) {
+            listener.onResponse(null);
+            return;
+        }
+        checkIfBlobIndexExists(wrap(response -> {
+            // sources are encoded into recycled pages, which are released when the bulk request is completed
+            final List<ReleasableBytesStreamOutput> outs = new ArrayList<>();
+            final BulkRequestBuilder bulkRequest = client().prepareBulk();
+            final long threshold = clusterService.state().getMetadata().settings()
+                    .getAsBytesSize(BLOCK_TRANSFER_THRESHOLD_SETTING.getKey(), blockTransferThreshold).getBytes();
+            try {
+                for (final Map.Entry<String, byte[]> entry : contents.entrySet()) {
+                    final String hash = entry.getKey();
+                    final byte[] content = entry.getValue();
+                    final ReleasableBytesStreamOutput out = new ReleasableBytesStreamOutput(bigArrays);
+                    outs.add(out);
+                    try (XContentBuilder builder = new XContentBuilder(JsonXContent.jsonXContent, Streams.noCloseStream(out))) {
+                        builder.startObject();
+                        builder.field(HASH, hash);
+                        if (threshold > 0 && content.length >= threshold) {
+                            final int blockSize = ContentBlocks.getBlockSize(content.length);
+                            builder.field(SIZE, content.length);
+                            builder.field(BLOCK_SIZE, blockSize);
+                            builder.field(BLOCKS, ContentBlocks.compute(content, blockSize));
+                            for (int offset = 0, i = 0; offset < content.length; offset += blockSize, i++) {
+                                final ReleasableBytesStreamOutput blockOut = new ReleasableBytesStreamOutput(bigArrays);
+                                outs.add(blockOut);
+                                try (XContentBuilder blockBuilder =
+                                        new XContentBuilder(JsonXContent.jsonXContent, Streams.noCloseStream(blockOut))) {
+                                    blockBuilder.startObject();
+                                    blockBuilder.field(BLOB, hash);
+                                    blockBuilder.field(CONTENT, content, offset, Math.min(blockSize, content.length - offset));
+                                    blockBuilder.endObject();
+                                }
+                                bulkRequest.add(new IndexRequest(blobIndex).id(getBlockId(hash, i)).create(true)
+                                        .source(blockOut.bytes(), XContentType.JSON));
+                            }
+                        } else {
+                            builder.field(CONTENT, content);
+                        }
+                        builder.field(TIMESTAMP, new Date());
+                        builder.endObject();
+                    }
+                    bulkRequest.add(new IndexRequest(blobIndex).id(hash).create(true).source(out.bytes(), XContentType.JSON));
+                }
+            } catch (final IOException e) {
+                Releasables.close(outs);
+                throw new ElasticsearchException("Failed to store blobs.", e);
+            }
+            bulkRequest.execute(ActionListener.runBefore(wrap(bulkResponse -> {
+                final Set<String> existingHashes = new HashSet<>();
+                for (final BulkItemResponse item : bulkResponse.getItems()) {
+                    // a conflict means that the blob of the same content is stored already
+                    if (item.isFailed() && item.status() != RestStatus.CONFLICT) {
+                        listener.onFailure(item.getFailure().getCause());
+                        return;
+                    }
+                    if (item.isFailed() && contents.containsKey(item.getId())) {
+                        existingHashes.add(item.getId());
+                    }
+                }
+                touchBlobs(existingHashes, contents, listener);
+            }, listener::onFailure), () -> Releasables.close(outs)));
+        }, listener::onFailure));
+    }
+
+    /**
+     * Updates timestamps of blobs which exist already, so purgeBlobs does not delete them before files refer to them.
+     * A blob which was purged after the conflict is stored again.
+     */
+    private void touchBlobs(final Set<String> hashes, final Map<String, byte[]> contents, final ActionListener<Void> listener) {
+        if (hashes.isEmpty()) {
+            listener.onResponse(null);
+            return;
+        }
+        final BulkRequestBuilder bulkRequest = client().prepareBulk();
+        final Date now = new Date();
+        for (final String hash : hashes) {
+            bulkRequest.add(new UpdateRequest(blobIndex, hash).doc(TIMESTAMP, now));
+        }
+        bulkRequest.execute(wrap(bulkResponse -> {
+            final Map<String, byte[]> purgedContents = new HashMap<>();
+            for (final BulkItemResponse item : bulkResponse.getItems()) {
+                if (!item.isFailed()) {
+                    continue;
+                }
+                if (item.status() != RestStatus.NOT_FOUND) {
+                    listener.onFailure(item.getFailure().getCause());
+                    return;
+                }
+                purgedContents.put(item.getId(), contents.get(item.getId()));
+            }
+            storeBlobs(purgedContents, listener);
+        }, listener::onFailure));
+    }
+
+    /**
+     * Puts contents of blobs into sources which refer to them by hashes. Blobs are read from a local copy if this node has one.
+     * A source is left without a content if its blob is not found.
+     */
+    private void fillContents(final Collection<Map<String, Object>> sources, final ActionListener<Void> listener) {
+        fillContents(sources, null, listener);
+    }
+
+    /**
+     * Puts contents of blobs into sources. If plans is given, a plain file stored as blocks is not decoded into its source,
+     * and its plan is put into plans instead. Blocks of the plan are copied from the local file, and only blocks which are
+     * not found in it are fetched.
+     */
+    private void fillContents(final Collection<Map<String, Object>> sources, final Map<Map<String, Object>, ContentBlocks.Plan> plans,
+            final ActionListener<Void> listener) {
+        final Set<String> hashes = new HashSet<>();
+        for (final Map<String, Object> source : sources) {
+            if (refersToBlob(source)) {
+                hashes.add((String) source.get(HASH));
+            }
+        }
+        if (hashes.isEmpty()) {
+            listener.onResponse(null);
+            return;
+        }
+        final MultiGetRequestBuilder builder = client().prepareMultiGet().setPreference("_local");
+        for (final String hash : hashes) {
+            builder.add(blobIndex, hash);
+        }
+        builder.execute(wrap(response -> {
+            final Map<String, Map<String, Object>> blobs = new HashMap<>();
+            for (final MultiGetItemResponse item : response.getResponses()) {
+                if (item.isFailed()) {
+                    if (!(item.getFailure().getFailure() instanceof IndexNotFoundException)) {
+                        listener.onFailure(item.getFailure().getFailure());
+                        return;
+                    }
+                } else if (item.getResponse().isExists()) {
+                    blobs.put(item.getId(), item.getResponse().getSourceAsMap());
+                }
+            }
+            final Map<Map<String, Object>, Map<String, Object>> blockedSources = new IdentityHashMap<>();
+            for (final Map<String, Object> source : sources) {
+                final Map<String, Object> blob = refersToBlob(source) ? blobs.get(source.get(HASH)) : null;
+                if (blob == null) {
+                    continue;
+                }
+                if (blob.get(CONTENT) instanceof String) {
+                    source.put(CONTENT, blob.get(CONTENT));
+                } else if (blob.get(BLOCKS) instanceof List) {
+                    blockedSources.put(source, blob);
+                }
+            }
+            if (blockedSources.isEmpty()) {
+                listener.onResponse(null);
+                return;
+            }
+            // local files are mapped and hashed to find blocks, so it does not run on the thread of the response
+            threadPool.generic().execute(ActionRunnable.wrap(listener, l -> fillBlocks(blockedSources, plans, l)));
+        }, listener::onFailure));
+    }
+
+    /**
+     * Builds contents of sources whose blobs are stored as blocks. Blocks are searched in local files of plain files,
+     * and the rest of them are fetched.
+     */
+    private void fillBlocks(final Map<Map<String, Object>, Map<String, Object>> blockedSources,
+            final Map<Map<String, Object>, ContentBlocks.Plan> plans, final ActionListener<Void> listener) {
+        final Map<Map<String, Object>, ContentBlocks.Plan> blockPlans = new IdentityHashMap<>();
+        final Set<Map<String, Object>> plainSources = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (final Map.Entry<Map<String, Object>, Map<String, Object>> entry : blockedSources.entrySet()) {
+            final Map<String, Object> source = entry.getKey();
+            final Map<String, Object> blob = entry.getValue();
+            // only plain files are built from their local files
+            final boolean plain = plans != null && !isBundle(source) && !isNewRelease(source);
+            if (plain) {
+                plainSources.add(source);
+            }
+            final Path localPath = plain ? getConfigFilePath((String) source.get(PATH)) : null;
+            try {
+                final ContentBlocks.Plan plan =
+                        AccessController.doPrivileged((PrivilegedExceptionAction<ContentBlocks.Plan>) () -> ContentBlocks.plan(
+                                (String) blob.get(HASH), ((Number) blob.get(SIZE)).longValue(),
+                                ((Number) blob.get(BLOCK_SIZE)).intValue(), (List<?>) blob.get(BLOCKS), localPath));
+                blockPlans.put(source, plan);
+                if (plans != null) {
+                    stats.blocksReused.add(plan.getNumOfLocalBlocks());
+                    stats.blocksFetched.add(plan.getMissingBlocks().size());
+                }
+            } catch (final PrivilegedActionException e) {
+                logger.warn("Failed to find local blocks of " + source.get(PATH), e.getException());
+            }
+        }
+        fetchBlocks(blockPlans, wrap(r -> {
+            for (final Map.Entry<Map<String, Object>, ContentBlocks.Plan> entry : blockPlans.entrySet()) {
+                final ContentBlocks.Plan plan = entry.getValue();
+                // plain files are streamed from their blocks even without local files, so their contents are not held twice
+                if (plainSources.contains(entry.getKey())) {
+                    plans.put(entry.getKey(), plan);
+                } else if (plan.isComplete()) {
+                    // the content is built in heap, so it is reserved before its blocks are concatenated
+                    try (Releasable memory = reserveMemory(plan.getSize(), "configsync_blocks[" + entry.getKey().get(PATH) + "]")) {
+                        entry.getKey().put(CONTENT, java.util.Base64.getEncoder().encodeToString(plan.toBytes()));
+                    }
+                }
+            }
+            listener.onResponse(null);
+        }, listener::onFailure));
+    }
+
+    /**
+     * Fetches blocks which are not found in local files. Blocks are fetched from peers first, and the rest of them are
+     * fetched from the blob index. A plan stays incomplete if some of its blocks are not found.
+     */
+    private void fetchBlocks(final Map<Map<String, Object>, ContentBlocks.Plan> plans, final ActionListener<Void> listener) {
+        fetchBlocksFromPeers(plans, () -> fetchBlocksFromIndex(plans, listener));
+    }
+
+    private void fetchBlocksFromIndex(final Map<Map<String, Object>, ContentBlocks.Plan> plans, final ActionListener<Void> listener) {
+        final Map<String, List<Tuple<ContentBlocks.Plan, Integer>>> blocks = new HashMap<>();
+        for (final Map.Entry<Map<String, Object>, ContentBlocks.Plan> entry : plans.entrySet()) {
+            final String hash = (String) entry.getKey().get(HASH);
+            for (final Integer index : entry.getValue().getBlocksToFetch()) {
+                blocks.computeIfAbsent(getBlockId(hash, index), k -> new ArrayList<>()).add(new Tuple<>(entry.getValue(), index));
+            }
+        }
+        if (blocks.isEmpty()) {
+            listener.onResponse(null);
+            return;
+        }
+        final MultiGetRequestBuilder builder = client().prepareMultiGet().setPreference("_local");
+        for (final String id : blocks.keySet()) {
+            builder.add(blobIndex, id);
+        }
+        // blocks are decoded and verified by their hashes on the generic thread pool
+        builder.execute(wrap(response -> threadPool.generic().execute(ActionRunnable.wrap(listener, l -> {
+            for (final MultiGetItemResponse item : response.getResponses()) {
+                if (item.isFailed()) {
+                    l.onFailure(item.getFailure().getFailure());
+                    return;
+                }
+                if (item.getResponse().isExists() && item.getResponse().getSourceAsMap().get(CONTENT) instanceof String) {
+                    final byte[] content = Base64.decodeBase64((String) item.getResponse().getSourceAsMap().get(CONTENT));
+                    for (final Tuple<ContentBlocks.Plan, Integer> block : blocks.get(item.getId())) {
+                        block.v1().setBlock(block.v2(), content);
+                    }
+                }
+            }
+            l.onResponse(null);
+        })), listener::onFailure));
+    }
+
+    /**
+     * Fetches blocks from other nodes over the transport layer, as shard recovery copies file chunks. Responses and onDone
+     * run on the generic thread pool, because blocks are verified by their hashes. A peer serves a block
+     * only if its local file has the hash of the blob, so nodes which already applied the file share the load of the blob index.
+     * Up to configsync.peer_transfer.max_concurrent_chunks requests are sent at a time, and each file asks at most
+     * PEER_TRANSFER_MAX_PEERS peers in random order. A failure of a peer is not an error, and its blocks are fetched from the index.
+     */
+    private void fetchBlocksFromPeers(final Map<Map<String, Object>, ContentBlocks.Plan> plans, final Runnable onDone) {
+        final ClusterState state = clusterService.state();
+        final int maxConcurrentChunks = state.getMetadata().settings().getAsInt(PEER_TRANSFER_MAX_CONCURRENT_CHUNKS_SETTING.getKey(),
+                peerTransferMaxConcurrentChunks);
+        final List<DiscoveryNode> nodes = new ArrayList<>();
+        for (final DiscoveryNode node : state.nodes()) {
+            if (!node.getId().equals(state.nodes().getLocalNodeId())) {
+                nodes.add(node);
+            }
+        }
+        final Queue<Tuple<PeerTransfer, Integer>> chunks = new ConcurrentLinkedQueue<>();
+        if (fileChunkAction != null && maxConcurrentChunks > 0 && !nodes.isEmpty()) {
+            for (final Map.Entry<Map<String, Object>, ContentBlocks.Plan> entry : plans.entrySet()) {
+                // a bundle is expanded on peers, so its archive is not served
+                if (isBundle(entry.getKey())) {
+                    continue;
+                }
+                final List<DiscoveryNode> peers = new ArrayList<>(nodes);
+                Randomness.shuffle(peers);
+                final PeerTransfer transfer = new PeerTransfer((String) entry.getKey().get(PATH), entry.getValue(),
+                        peers.subList(0, Math.min(PEER_TRANSFER_MAX_PEERS, peers.size())));
+                for (final Integer index : entry.getValue().getBlocksToFetch()) {
+                    chunks.add(new Tuple<>(transfer, index));
+                }
+            }
+        }
+        if (chunks.isEmpty()) {
+            onDone.run();
+            return;
+        }
+        final int numOfWorkers = Math.min(maxConcurrentChunks, chunks.size());
+        final CountDown countDown = new CountDown(numOfWorkers);
+        for (int i = 0; i < numOfWorkers; i++) {
+            fetchChunkFromPeer(chunks, () -> {
+                if (countDown.countDown()) {
+                    onDone.run();
+                }
+            });
+        }
+    }
+
+    /**
+     * Fetches chunks in the queue one by one. A chunk which a peer does not serve is queued again for the next peer.
+     */
+    private void fetchChunkFromPeer(final Queue<Tuple<PeerTransfer, Integer>> chunks, final Runnable onDone) {
+        Tuple<PeerTransfer, Integer> chunk;
+        DiscoveryNode peer = null;
+        while ((chunk = chunks.poll()) != null) {
+            peer = chunk.v1().getPeer();
+            if (peer != null) {
+                break;
+            }
+        }
+        if (chunk == null) {
+            onDone.run();
+            return;
+        }
+        final PeerTransfer transfer = chunk.v1();
+        final ContentBlocks.Plan plan = transfer.plan;
+        final int index = chunk.v2();
+        final DiscoveryNode node = peer;
+        final Tuple<PeerTransfer, Integer> current = chunk;
+        fileChunkAction.sendRequest(node,
+                new FileChunkRequest(transfer.path, plan.getHash(), plan.getBlockOffset(index), plan.getBlockLength(index)),
+                ActionListener.runAfter(wrap(response -> {
+                    if (response.getContent() != null && plan.setBlock(index, response.getContent())) {
+                        stats.bytesFetchedFromPeers.add(response.getContent().length);
+                    } else {
+                        transfer.skipPeer(node);
+                        chunks.add(current);
+                    }
+                }, e -> {
+                    if (logger.isDebugEnabled()) {
+                        logger.debug("Failed to fetch a chunk of " + transfer.path + " from " + node, e);
+                    }
+                    transfer.skipPeer(node);
+                    chunks.add(current);
+                }), () -> fetchChunkFromPeer(chunks, onDone)));
+    }
+
+    /**
+     * Reads a chunk of the local file for a peer. Null is returned if the file does not have the hash, or this node is
+     * already serving configsync.peer_transfer.max_concurrent_chunks chunks.
+     */
+    public byte[] readFileChunk(final String path, final String hash, final long offset, final int length) {
+        final int maxConcurrentChunks = clusterService.state().getMetadata().settings()
+                .getAsInt(PEER_TRANSFER_MAX_CONCURRENT_CHUNKS_SETTING.getKey(), peerTransferMaxConcurrentChunks);
+        try {
+            if (servingChunks.incrementAndGet() > maxConcurrentChunks || !hash.equals(getLocalFileHash(path))) {
+                return null;
+            }
+            final Path filePath = getConfigFilePath(path);
+            final byte[] content = AccessController.doPrivileged((PrivilegedAction<byte[]>) () -> {
+                if (!Files.isRegularFile(filePath)) {
+                    return null;
+                }
+                try (FileChannel channel = FileChannel.open(filePath, StandardOpenOption.READ)) {
+                    // the buffer is allocated only for a chunk in the file
+                    if (offset < 0 || length < 0 || length > ContentBlocks.MAX_BLOCK_SIZE || offset + length > channel.size()) {
+                        return null;
+                    }
+                    final ByteBuffer buffer = ByteBuffer.allocate(length);
+                    while (buffer.hasRemaining()) {
+                        if (channel.read(buffer, offset + buffer.position()) < 0) {
+                            return null;
+                        }
+                    }
+                    return buffer.array();
+                } catch (final IOException e) {
+                    logger.warn("Failed to read a chunk of " + filePath, e);
+                    return null;
+                }
+            });
+            if (content != null) {
+                stats.bytesServedToPeers.add(content.length);
+            }
+            return content;
+        } finally {
+            servingChunks.decrementAndGet();
+        }
+    }
+
+    /**
+     * Peers which are asked for blocks of a file. When the current peer does not serve a block, the next one is asked.
+     */
+    private static class PeerTransfer {
+        final String path;
+
+        final ContentBlocks.Plan plan;
+
+        private final List<DiscoveryNode> peers;
+
+        private int current;
+
+        PeerTransfer(final String path, final ContentBlocks.Plan plan, final List<DiscoveryNode> peers) {
+            this.path = path;
+            this.plan = plan;
+            this.peers = peers;
+        }
+
+        synchronized DiscoveryNode getPeer() {
+            return current < peers.size() ? peers.get(current) : null;
+        }
+
+        synchronized void skipPeer(final DiscoveryNode peer) {
+            if (current < peers.size() && peers.get(current).equals(peer)) {
+                current++;
+            }
+        }
+    }
+
+    private static String getBlockId(final String hash, final int index) {
+        return hash + "_" + index;
+    }
+
+    /**
+     * Checks if the source refers to a blob and does not have its content. Sources stored before blobs have contents in themselves.
+     */
+    private static boolean refersToBlob(final Map<String, Object> source) {
+        return source != null && !isDeleted(source) && !(source.get(CONTENT) instanceof String) && source.get(HASH) instanceof String;
+    }
+
+    private static boolean isSameContent(final GetResponse response, final String hash) {
+        if (!response.isExists()) {
+            return false;
+        }
+        final Map<String, Object> source = response.getSourceAsMap();
+        if (isDeleted(source)) {
+            return false;
+        }
+        if (source.get(HASH) instanceof String) {
+            return hash.equals(source.get(HASH));
+        }
+        return source.get(CONTENT) instanceof String && hash.equals(getHash(getContent(source)));
+    }
+
+    private DocWriteResponse newNoopResponse(final String id, final GetResponse response) {
+        if (logger.isDebugEnabled()) {
+            logger.debug("{} is not changed.", response.getSourceAsMap().get(PATH));
+        }
+        return new UpdateResponse(getShardId(), id, response.getSeqNo(), response.getPrimaryTerm(), response.getVersion(),
+                DocWriteResponse.Result.NOOP);
+    }
+
+    private IndexRequestBuilder prepareIndex(final String id, final GetResponse current) {
+        final IndexRequestBuilder builder = client().prepareIndex(index).setId(id).setRefreshPolicy(RefreshPolicy.IMMEDIATE);
+        if (current.isExists()) {
+            builder.setIfSeqNo(current.getSeqNo()).setIfPrimaryTerm(current.getPrimaryTerm());
+        } else {
+            builder.setCreate(true);
+        }
+        return builder;
+    }
+
+    private static long getRevision(final GetResponse response) {
+        if (!response.isExists()) {
+            return 0;
+        }
+        final Map<String, Object> source = response.getSourceAsMap();
+        if (source != null && source.get(REVISION) instanceof Number) {
+            return ((Number) source.get(REVISION)).longValue();
+        }
+        return response.getVersion();
+    }
+
+    static byte[] getContent(final Map<String, Object> source) {
+        final Object content = source != null ? source.get(CONTENT) : null;
+        if (content instanceof String) {
+            return Base64.decodeBase64((String) content);
+        }
+        return new byte[0];
+    }
+
+    private static boolean isDeleted(final Map<String, Object> source) {
+        return source != null && Boolean.TRUE.equals(source.get(DELETED));
+    }
+
+    private ShardId getShardId() {
+        return new ShardId(clusterService.state().getMetadata().index(index).getIndex(), 0);
+    }
+
+    public void getPaths(final int from, final int size, final String[] fields, final String sortField, final String sortOrder,
+            final ActionListener<List<Object>> listener) {
+        checkIfIndexExists(wrap(res -> {
+            final boolean hasFields = ((fields != null) && (fields.length != 0));
+            client().prepareSearch(index).setQuery(QueryBuilders.boolQuery().mustNot(QueryBuilders.termQuery(DELETED, true)))
+                    .setSize(size).setFrom(from).setFetchSource(hasFields ? fields : new String[] { PATH }, null)
+                    .addSort(sortField, SortOrder.DESC.toString().equalsIgnoreCase(sortOrder) ? SortOrder.DESC : SortOrder.ASC)
+                    .execute(wrap(response -> {
+                        final List<Object> objList = new ArrayList<>();
+                        for (final SearchHit hit : response.getHits().getHits()) {
+                            if (hasFields) {
+                                final Map<String, Object> objMap = new HashMap<>();
+                                for (final String field : fields) {
+                                    objMap.put(field, hit.getSourceAsMap().get(field));
+                                }
+                                objList.add(objMap);
+                            } else {
+                                objList.add(hit.getSourceAsMap().get(PATH));
+                            }
+                        }
+                        listener.onResponse(objList);
+                    }, listener::onFailure));
+        }, listener::onFailure));
+    }
+
+    static String getId(final String path) {
+        return Base64.encodeBase64URLSafeString(path.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String getHash(final byte[] content) {
+        return MessageDigests.toHexString(MessageDigests.sha256().digest(content));
+    }
+
+    private Path getConfigFilePath(final String path) {
+        return Paths.get(configPath, path.replace("..", ""));
+    }
+
+    /**
+     * Resolves target nodes of flush and reset requests. Data nodes are returned if no node is specified,
+     * and other nodes, such as ingest or ml nodes, can be given by node ids, names or attributes like "ml:true".
+     */
+    private List<DiscoveryNode> resolveNodes(final String[] nodeIds) {
+        final DiscoveryNodes nodes = clusterService.state().nodes();
+        if (nodeIds == null || nodeIds.length == 0) {
+            return new ArrayList<>(nodes.getDataNodes().values());
+        }
+        final List<DiscoveryNode> targetNodes = new ArrayList<>();
+        for (final String nodeId : nodes.resolveNodes(nodeIds)) {
+            targetNodes.add(nodes.get(nodeId));
+        }
+        return targetNodes;
+    }
+
+    public void resetSync(final ConfigSyncTask task, final String[] nodeIds, final ActionListener<ConfigResetSyncResponse> listener) {
+        checkIfIndexExists(wrap(response -> {
+            final List<DiscoveryNode> targetNodes = resolveNodes(nodeIds);
+            task.setTotalNodes(targetNodes.size());
+            final Iterator<DiscoveryNode> nodesIt = targetNodes.iterator();
+            resetSync(task, nodesIt, listener);
+        }, listener::onFailure));
+    }
+
+    public void resetSync(final ConfigSyncTask task, final Iterator<DiscoveryNode> nodesIt,
+            final ActionListener<ConfigResetSyncResponse> listener) {
+        if (!nodesIt.hasNext()) {
+            listener.onResponse(new ConfigResetSyncResponse(true));
+        } else if (task == null || !task.notifyIfCancelled(listener)) {
+            resetSyncAction.sendRequest(task, nodesIt, listener);
+        }
+    }
+
+    public void restartUpdater(final ActionListener<ActionResponse> listener) {
+        if (logger.isDebugEnabled()) {
+            logger.debug("Restarting ConfigFileUpdater...");
+        }
+        try {
+            if (configFileUpdater != null) {
+                configFileUpdater.terminate();
+            }
+            checkIfIndexExists(wrap(response -> {
+                final TimeValue time = startUpdater();
+                if (time.millis() >= 0) {
+                    logger.info("ConfigFileUpdater is started at {} intervals.", time);
+                }
+                listener.onResponse(response);
+            }, e -> {
+                logger.error("Failed to restart ConfigFileUpdater.", e);
+                updaterState = UPDATER_STOPPED;
+                setLastError("Failed to restart ConfigFileUpdater: " + e.getMessage());
+                listener.onFailure(e);
+            }));
+        } catch (final Exception e) {
+            listener.onFailure(e);
+        }
+    }
+
+    public void flush(final ConfigSyncTask task, final String[] nodeIds, final ActionListener<ConfigFileFlushResponse> listener) {
+        checkIfIndexExists(wrap(response -> {
+            final List<DiscoveryNode> targetNodes = resolveNodes(nodeIds);
+            task.setTotalNodes(targetNodes.size());
+            final Iterator<DiscoveryNode> nodesIt = targetNodes.iterator();
+            flushOnNode(task, nodesIt, listener);
+        }, listener::onFailure));
+    }
+
+    /**
+     * Flushes config files on the next node. The task is null if the flush is not invoked by a flush request.
+     */
+    public void flushOnNode(final ConfigSyncTask task, final Iterator<DiscoveryNode> nodesIt,
+            final ActionListener<ConfigFileFlushResponse> listener) {
+        if (!nodesIt.hasNext()) {
+            listener.onResponse(new ConfigFileFlushResponse(true));
+        } else if (task == null || !task.notifyIfCancelled(listener)) {
+            fileFlushAction.sendRequest(task, nodesIt, listener);
+        }
+    }
+
+    /**
+     * Gets a decoded content of the path. A cached content is used if its document is not changed,
+     * and a content without bytes is returned if ifNoneMatch matches the ETag. A newly decoded content is charged to
+     * the request circuit breaker until the content is released, which the REST channel does after sending it.
+     */
+    public void getContent(final String path, final String ifNoneMatch, final ActionListener<ConfigContent> listener) {
+        final ConfigSyncTracer.Span span = tracer.startSpan("configsync.get_content", Map.of(SPAN_PATH, String.valueOf(path)));
+        final ActionListener<ConfigContent> tracedListener = new ActionListener<ConfigContent>() {
+            @Override
+            public void onResponse(final ConfigContent content) {
+                span.end();
+                listener.onResponse(content);
+            }
+
+            @Override
+            public void onFailure(final Exception e) {
+                span.end(e);
+                listener.onFailure(e);
+            }
+        };
+        checkIfIndexExists(wrap(res -> {
+            final String id = getId(path);
+            final String indexUUID = clusterService.state().getMetadata().index(index).getIndexUUID();
+            final ConfigContent cached = contentCache != null ? contentCache.get(path) : null;
+            if (cached == null) {
+                getContent(path, id, indexUUID, ifNoneMatch, span, tracedListener);
+                return;
+            }
+            client().prepareGet(index, id).setFetchSource(false).execute(wrap(response -> {
+                if (!response.isExists()) {
+                    invalidateContent(path);
+                    tracedListener.onResponse(null);
+                } else if (cached.isSameRevision(indexUUID, response.getSeqNo(), response.getPrimaryTerm())) {
+                    span.setAttribute(SPAN_BYTES, cached.getContent().length());
+                    tracedListener.onResponse(cached.matches(ifNoneMatch) ? cached.notModified() : cached);
+                } else {
+                    getContent(path, id, indexUUID, ifNoneMatch, span, tracedListener);
+                }
+            }, tracedListener::onFailure));
+        }, tracedListener::onFailure));
+    }
+
+    private void getContent(final String path, final String id, final String indexUUID, final String ifNoneMatch,
+            final ConfigSyncTracer.Span span, final ActionListener<ConfigContent> listener) {
+        client().prepareGet(index, id).execute(wrap(response -> {
+            if (!response.isExists()) {
+                invalidateContent(path);
+                listener.onResponse(null);
+                return;
+            }
+            // the decoded content is estimated from the Base64 length of the source, and reserved before the source is decoded
+            final long estimatedLength = response.getSourceAsBytesRef().length() / 4 * 3;
+            final Releasable sourceMemory = reserveMemory(estimatedLength, "configsync_get[" + path + "]");
+            final Map<String, Object> source;
+            try {
+                source = response.getSource();
+            } catch (final RuntimeException e) {
+                sourceMemory.close();
+                throw e;
+            }
+            if (isDeleted(source)) {
+                sourceMemory.close();
+                invalidateContent(path);
+                listener.onResponse(null);
+                return;
+            }
+            fillContents(List.of(source), wrap(r -> {
+                final long decodedLength =
+                        source.get(CONTENT) instanceof String ? ((String) source.get(CONTENT)).length() / 4 * 3 : 0;
+                // a content of a blob is larger than its source, so the rest of it is reserved before it is decoded
+                final Releasable memory;
+                try {
+                    memory = Releasables.wrap(sourceMemory, reserveMemory(Math.max(0, decodedLength - estimatedLength),
+                            "configsync_get[" + path + "]"));
+                } catch (final RuntimeException e) {
+                    sourceMemory.close();
+                    throw e;
+                }
+                // the decoded content is held until the response is sent, so the memory is released with the content
+                boolean sent = false;
+                try {
+                    final byte[] configContent = getContent(source);
+                    final String hash = source.get(HASH) instanceof String ? (String) source.get(HASH) : getHash(configContent);
+                    final ConfigContent content = new ConfigContent(indexUUID, response.getSeqNo(), response.getPrimaryTerm(), hash,
+                            new BytesArray(configContent));
+                    if (contentCache != null) {
+                        contentCache.put(path, content);
+                    }
+                    span.setAttribute(SPAN_BYTES, configContent.length);
+                    if (content.matches(ifNoneMatch)) {
+                        listener.onResponse(content.notModified());
+                    } else {
+                        sent = true;
+                        listener.onResponse(content.releaseAfterSent(memory));
+                    }
+                } finally {
+                    if (!sent) {
+                        memory.close();
+                    }
+                }
+            }, e -> {
+                sourceMemory.close();
+                listener.onFailure(e);
+            }));
+        }, listener::onFailure));
+    }
+
+    /**
+     * Gets a content from the synced file on this node without accessing the index, so it works while the index is unavailable.
+     * The file is memory-mapped instead of being read into heap. Only files synced by this node are served, and null is returned
+     * for other paths and expanded bundles. Synced paths are saved under the config directory, so they are known after a restart.
+     */
+    public void getLocalContent(final String path, final String ifNoneMatch, final ActionListener<ConfigContent> listener) {
+        if (!managedPaths.contains(path)) {
+            listener.onResponse(null);
+            return;
+        }
+        final ConfigSyncTracer.Span span = tracer.startSpan("configsync.get_local_content", Map.of(SPAN_PATH, String.valueOf(path)));
+        try {
+            final String hash = getLocalFileHash(path);
+            if (hash == null) {
+                span.end();
+                listener.onResponse(null);
+                return;
+            }
+            final ConfigContent content = new ConfigContent(hash, BytesArray.EMPTY);
+            if (content.matches(ifNoneMatch)) {
+                span.end();
+                listener.onResponse(content.notModified());
+                return;
+            }
+            final Path filePath = getConfigFilePath(path);
+            final BytesReference bytes = AccessController.doPrivileged((PrivilegedExceptionAction<BytesReference>) () -> {
+                if (Files.isDirectory(filePath)) {
+                    // an expanded bundle is not a zip archive anymore, so it is read from the index
+                    return null;
+                }
+                try (FileChannel channel = FileChannel.open(filePath, StandardOpenOption.READ)) {
+                    return BytesReference.fromByteBuffers(new ByteBuffer[] { channel.map(MapMode.READ_ONLY, 0, channel.size()) });
+                }
+            });
+            if (bytes == null) {
+                span.end();
+                listener.onResponse(null);
+                return;
+            }
+            span.setAttribute(SPAN_BYTES, bytes.length());
+            span.end();
+            listener.onResponse(new ConfigContent(hash, bytes));
+        } catch (final PrivilegedActionException e) {
+            span.end(e.getException());
+            listener.onFailure(e.getException());
+        } catch (final Exception e) {
+            span.end(e);
+            listener.onFailure(e);
+        }
+    }
+
+    private void invalidateContent(final String path) {
+        if (contentCache != null) {
+            contentCache.invalidate(path);
+        }
+    }
+
+    public void delete(final String path, final ActionListener<DeleteResponse> listener) {
+        delete(path, MAX_STORE_RETRIES, listener);
+    }
+
+    private void delete(final String path, final int retries, final ActionListener<DeleteResponse> listener) {
+        checkIfIndexExists(wrap(response -> {
+            final String id = getId(path);
+            client().prepareGet(index, id).execute(wrap(current -> {
+                if (!current.isExists() || isDeleted(current.getSourceAsMap())) {
+                    listener.onResponse(new DeleteResponse(getShardId(), id, current.getSeqNo(), current.getPrimaryTerm(),
+                            current.getVersion(), false));
+                    return;
+                }
+                final Map<String, Object> source = new HashMap<>();
+                source.put(PATH, path);
+                source.put(DELETED, true);
+                source.put(REVISION, getRevision(current) + 1);
+                source.put(TIMESTAMP, new Date());
+                source.put(ACKED_NODES, Collections.emptyList());
+                prepareIndex(id, current).setSource(source).execute(wrap(res -> {
+                    invalidateContent(path);
+                    final DeleteResponse deleteResponse =
+                            new DeleteResponse(res.getShardId(), res.getId(), res.getSeqNo(), res.getPrimaryTerm(), res.getVersion(), true);
+                    storeHistory(path, new byte[0], current, wrap(r -> listener.onResponse(deleteResponse), e -> {
+                        logger.warn("Failed to store a history of " + path, e);
+                        listener.onResponse(deleteResponse);
+                    }));
+                }, e -> {
+                    if (retries > 0 && ExceptionsHelper.unwrapCause(e) instanceof VersionConflictEngineException) {
+                        delete(path, retries - 1, listener);
+                    } else {
+                        listener.onFailure(e);
+                    }
+                }));
+            }, listener::onFailure));
+        }, listener::onFailure));
+    }
+
+    /**
+     * Copies a file to the destination path. Only a document which refers to the blob of the file is written,
+     * so the content is not transferred unless the history of the destination needs it. The file is deleted if move is true.
+     */
+    public void copy(final String path, final String dest, final boolean move, final ActionListener<DocWriteResponse> listener) {
+        if (path.equals(dest)) {
+            listener.onFailure(new IllegalArgumentException("The destination is same as " + path));
+            return;
+        }
+        checkIfIndexExists(wrap(response -> client().prepareGet(index, getId(path)).execute(wrap(from -> {
+            if (!from.isExists() || isDeleted(from.getSourceAsMap())) {
+                listener.onFailure(new ResourceNotFoundException(path + " is not found."));
+                return;
+            }
+            final Map<String, Object> source = from.getSourceAsMap();
+            final Map<String, byte[]> blobs = new HashMap<>();
+            final String hash;
+            if (source.get(HASH) instanceof String && !(source.get(CONTENT) instanceof String)) {
+                hash = (String) source.get(HASH);
+            } else {
+                // a file stored before blobs has its content in itself
+                final byte[] content = getContent(source);
+                hash = getHash(content);
+                blobs.put(hash, content);
+            }
+            final boolean bundle = isBundle(source);
+            final String id = getId(dest);
+            storeBlobs(blobs, wrap(r -> client().prepareGet(index, id).execute(wrap(current -> {
+                final ActionListener<DocWriteResponse> copyListener = move ? wrap(res -> delete(path,
+                        wrap(deleted -> listener.onResponse(res), listener::onFailure)), listener::onFailure) : listener;
+                if (isSameContent(current, hash) && isBundle(current.getSourceAsMap()) == bundle) {
+                    copyListener.onResponse(newNoopResponse(id, current));
+                    return;
+                }
+                indexPath(dest, id, hash, current, bundle, wrap(res -> {
+                    invalidateContent(dest);
+                    if (!current.isExists() || getHistorySize() <= 0) {
+                        copyListener.onResponse(res);
+                        return;
+                    }
+                    fillContents(List.of(source), wrap(r2 -> storeHistory(dest, getContent(source), current,
+                            wrap(r3 -> copyListener.onResponse(res), e -> {
+                                logger.warn("Failed to store a history of " + dest, e);
+                                copyListener.onResponse(res);
+                            })), copyListener::onFailure));
+                }, copyListener::onFailure));
+            }, listener::onFailure)), listener::onFailure));
+        }, listener::onFailure)), listener::onFailure));
+    }
+
+    public ConfigSyncStats getStats() {
+        return stats;
+    }
+
+    /**
+     * Gets stats of all nodes. Nodes are asked in parallel, and a node which fails is reported with its error.
+     */
+    public void stats(final ActionListener<Map<String, Object>> listener) {
+        final List<DiscoveryNode> nodes = new ArrayList<>(clusterService.state().nodes().getNodes().values());
+        final Map<String, ConfigSyncStats.Snapshot> snapshots = new ConcurrentHashMap<>();
+        final Map<String, Object> results = new ConcurrentHashMap<>();
+        if (nodes.isEmpty()) {
+            onStatsCollected(nodes, snapshots, results, listener);
+            return;
+        }
+        final CountDown countDown = new CountDown(nodes.size());
+        for (final DiscoveryNode node : nodes) {
+            statsOnNode(node, snapshots, results, () -> {
+                if (countDown.countDown()) {
+                    onStatsCollected(nodes, snapshots, results, listener);
+                }
+            });
+        }
+    }
+
+    private void statsOnNode(final DiscoveryNode node, final Map<String, ConfigSyncStats.Snapshot> snapshots,
+            final Map<String, Object> results, final Runnable onDone) {
+        statsAction.sendRequest(node, ActionListener.runAfter(wrap(response -> {
+            final Map<String, Object> result = response.getStats().toMap();
+            result.put("name", node.getName());
+            snapshots.put(node.getId(), response.getStats());
+            results.put(node.getId(), result);
+        }, e -> {
+            logger.warn("Failed to get stats on " + node, e);
+            final Map<String, Object> result = new HashMap<>();
+            result.put("name", node.getName());
+            result.put("error", e.getMessage());
+            results.put(node.getId(), result);
+        }), onDone));
+    }
+
+    private void onStatsCollected(final List<DiscoveryNode> nodes, final Map<String, ConfigSyncStats.Snapshot> snapshots,
+            final Map<String, Object> results, final ActionListener<Map<String, Object>> listener) {
+        // snapshots are merged in the order of nodes, so the total does not depend on the order of responses
+        ConfigSyncStats.Snapshot total = null;
+        for (final DiscoveryNode node : nodes) {
+            final ConfigSyncStats.Snapshot snapshot = snapshots.get(node.getId());
+            if (snapshot != null) {
+                total = total != null ? total.merge(snapshot) : snapshot;
+            }
+        }
+        final Map<String, Object> response = new HashMap<>();
+        response.put("_all", total != null ? total.toMap() : stats.snapshot().toMap());
+        response.put("nodes", new HashMap<>(results));
+        listener.onResponse(response);
+    }
+
+    /**
+     * Waits until all data nodes apply the current revisions of the paths. Each node reports revisions which it applied,
+     * so clocks of nodes are not compared. Nodes which have not applied them are flushed, and nodes not applied within
+     * the timeout are reported as pending. A node which failed to write one of the paths is flushed again until the timeout.
+     */
+    public void waitForPropagation(final TimeValue timeout, final Collection<String> paths,
+            final ActionListener<Map<String, Object>> listener) {
+        if (paths.isEmpty()) {
+            new PropagationWaiter(clusterService.state().nodes().getDataNodes(), Collections.emptyMap(), timeout, listener).execute();
+            return;
+        }
+        // the refresh makes the revisions visible to searches of sync cycles
+        client().admin().indices().prepareRefresh(index).execute(wrap(res -> {
+            final MultiGetRequestBuilder builder = client().prepareMultiGet();
+            for (final String path : new TreeSet<>(paths)) {
+                builder.add(index, getId(path));
+            }
+            builder.execute(wrap(response -> {
+                final Map<String, Long> targets = new HashMap<>();
+                for (final MultiGetItemResponse item : response.getResponses()) {
+                    if (item.isFailed()) {
+                        listener.onFailure(item.getFailure().getFailure());
+                        return;
+                    }
+                    if (item.getResponse().isExists()) {
+                        final Map<String, Object> source = item.getResponse().getSourceAsMap();
+                        targets.put((String) source.get(PATH), getRevision(item.getResponse()));
+                    }
+                }
+                new PropagationWaiter(clusterService.state().nodes().getDataNodes(), targets, timeout, listener).execute();
+            }, listener::onFailure));
+        }, listener::onFailure));
+    }
+
+    public void getStatus(final DiscoveryNode node, final ActionListener<StatusResponse> listener) {
+        statusAction.sendRequest(node, listener);
+    }
+
+    /**
+     * Gets statuses of all nodes. Nodes are asked in parallel, and a node which fails is reported with its error.
+     */
+    public void status(final ActionListener<Map<String, Object>> listener) {
+        final List<DiscoveryNode> nodes = new ArrayList<>(clusterService.state().nodes().getNodes().values());
+        final Map<String, Object> results = new ConcurrentHashMap<>();
+        if (nodes.isEmpty()) {
+            listener.onResponse(results);
+            return;
+        }
+        final CountDown countDown = new CountDown(nodes.size());
+        for (final DiscoveryNode node : nodes) {
+            statusOnNode(node, results, () -> {
+                if (countDown.countDown()) {
+                    listener.onResponse(new HashMap<>(results));
+                }
+            });
+        }
+    }
+
+    private void statusOnNode(final DiscoveryNode node, final Map<String, Object> results, final Runnable onDone) {
+        statusAction.sendRequest(node, ActionListener.runAfter(wrap(response -> {
+            final Map<String, Object> result = response.toMap();
+            result.put("name", node.getName());
+            results.put(node.getId(), result);
+        }, e -> {
+            logger.warn("Failed to get status on " + node, e);
+            final Map<String, Object> result = new HashMap<>();
+            result.put("name", node.getName());
+            result.put("error", e.getMessage());
+            results.put(node.getId(), result);
+        }), onDone));
+    }
+
+    /**
+     * Creates a status of this node. Pending paths are files updated after the watermark, which are applied in the next cycle,
+     * and files failed to be applied.
+     */
+    public void getLocalStatus(final Collection<String> paths, final ActionListener<StatusResponse> listener) {
+        final Map<String, Long> revisions = new HashMap<>();
+        for (final String path : paths) {
+            if (pathFilter.matches(path)) {
+                revisions.put(path, appliedRevisions.getOrDefault(path, -1L));
+            }
+        }
+        final long watermark = stats.getLastSyncedTime();
+        client().prepareSearch(index).setQuery(QueryBuilders.boolQuery().filter(QueryBuilders.rangeQuery(TIMESTAMP).from(watermark)))
+                .setFetchSource(new String[] { PATH }, null).setSize(MAX_PENDING_PATHS).execute(wrap(response -> {
+                    final Set<String> pendingPaths = new LinkedHashSet<>(failedPaths);
+                    final SearchHit[] hits = response.getHits().getHits();
+                    for (final SearchHit hit : hits) {
+                        final Object path = hit.getSourceAsMap().get(PATH);
+                        if (path != null) {
+                            pendingPaths.add(path.toString());
+                        }
+                    }
+                    final long numOfPending = pendingPaths.size() + Math.max(0, response.getHits().getTotalHits().value - hits.length);
+                    listener.onResponse(new StatusResponse(watermark, lastCycleEndTime, lastCycleTookInMillis,
+                            new ArrayList<>(pendingPaths), numOfPending, lastError, updaterState, consecutiveFailures.get(), revisions));
+                }, listener::onFailure));
+    }
+
+    private void setLastError(final String message) {
+        lastError = new Tuple<>(System.currentTimeMillis(), message);
+    }
+
+    /**
+     * Compares files on all data nodes with the index. Nodes are verified in parallel.
+     */
+    public void verify(final ActionListener<Map<String, Object>> listener) {
+        checkIfIndexExists(wrap(response -> new IndexHashCollector(wrap(indexHashes -> {
+            final List<DiscoveryNode> nodes = new ArrayList<>(clusterService.state().nodes().getDataNodes().values());
+            final Map<String, Object> results = new ConcurrentHashMap<>();
+            if (nodes.isEmpty()) {
+                listener.onResponse(results);
+                return;
+            }
+            final CountDown countDown = new CountDown(nodes.size());
+            for (final DiscoveryNode node : nodes) {
+                verifyOnNode(node, indexHashes, ActionListener.runAfter(wrap(result -> results.put(node.getId(), result), e -> {
+                    logger.warn("Failed to verify config files on " + node, e);
+                    final Map<String, Object> result = new HashMap<>();
+                    result.put("name", node.getName());
+                    result.put("error", e.getMessage());
+                    results.put(node.getId(), result);
+                }), () -> {
+                    if (countDown.countDown()) {
+                        listener.onResponse(new HashMap<>(results));
+                    }
+                }));
+            }
+        }, listener::onFailure)).execute(), listener::onFailure));
+    }
+
+    private void verifyOnNode(final DiscoveryNode node, final Map<String, String> indexHashes,
+            final ActionListener<Map<String, Object>> listener) {
+        // files excluded by the path filter of the node are not expected on it
+        final ConfigPathFilter filter = ConfigPathFilter.of(clusterService.state(), node, configPath);
+        final ConfigHashTree indexTree = ConfigHashTree.build(filter.filter(indexHashes));
+        compareHashTree(node, indexTree, Collections.singletonList(ConfigHashTree.ROOT), 1, new ArrayList<>(), listener);
+    }
+
+    private void compareHashTree(final DiscoveryNode node, final ConfigHashTree indexTree, final List<String> dirs, final int round,
+            final List<Map<String, Object>> drifts, final ActionListener<Map<String, Object>> listener) {
+        verifyAction.sendRequest(node, new VerifyRequest(dirs.toArray(new String[dirs.size()]), round == 1), wrap(response -> {
+            final List<String> nextDirs = new ArrayList<>();
+            if (round > 1 || !indexTree.getRootHash().equals(response.getRootHash())) {
+                for (final String dir : dirs) {
+                    final Map<String, String> indexChildren = indexTree.getChildren(dir);
+                    final Map<String, String> localChildren = response.getChildren(dir);
+                    final Set<String> names = new TreeSet<>(indexChildren.keySet());
+                    names.addAll(localChildren.keySet());
+                    for (final String name : names) {
+                        final String indexHash = indexChildren.get(name);
+                        final String localHash = localChildren.get(name);
+                        if (indexHash != null && indexHash.equals(localHash)) {
+                            continue;
+                        }
+                        final String childPath = ConfigHashTree.getChildPath(dir, name);
+                        if (ConfigHashTree.isDirectory(name)) {
+                            if (localHash == null) {
+                                for (final String file : indexTree.getFiles(childPath)) {
+                                    drifts.add(newDrift(file, "missing"));
+                                }
+                            } else {
+                                nextDirs.add(childPath);
+                            }
+                        } else if (localHash == null) {
+                            drifts.add(newDrift(childPath, "missing"));
+                        } else if (indexHash == null) {
+                            drifts.add(newDrift(childPath, "unexpected"));
+                        } else {
+                            drifts.add(newDrift(childPath, "modified"));
+                        }
+                    }
+                }
+            }
+            if (nextDirs.isEmpty()) {
+                final Map<String, Object> result = new HashMap<>();
+                result.put("name", node.getName());
+                result.put("in_sync", drifts.isEmpty());
+                result.put("rounds", round);
+                result.put("drift", drifts);
+                listener.onResponse(result);
+            } else {
+                compareHashTree(node, indexTree, nextDirs, round + 1, drifts, listener);
+            }
+        }, listener::onFailure));
+    }
+
+    class PropagationWaiter {
+
+        private final Map<String, DiscoveryNode> nodes;
+
+        private final Map<String, Long> targets;
+
+        private final TimeValue timeout;
+
+        private final ActionListener<Map<String, Object>> listener;
+
+        private final Map<String, Object> pendingNodes = new ConcurrentHashMap<>();
+
+        private final AtomicBoolean completed = new AtomicBoolean(false);
+
+        private final CountDown countDown;
+
+        private final long startTime = System.nanoTime();
+
+        private ScheduledCancellable timer;
+
+        PropagationWaiter(final Map<String, DiscoveryNode> nodes, final Map<String, Long> targets, final TimeValue timeout,
+                final ActionListener<Map<String, Object>> listener) {
+            this.nodes = nodes;
+            this.targets = targets;
+            this.timeout = timeout;
+            this.listener = listener;
+            countDown = new CountDown(nodes.size());
+            for (final DiscoveryNode node : nodes.values()) {
+                pendingNodes.put(node.getId(), Collections.singletonMap("name", node.getName()));
+            }
+        }
+
+        void execute() {
+            if (nodes.isEmpty()) {
+                complete(false);
+                return;
+            }
+            timer = threadPool.schedule(() -> complete(true), timeout, threadPool.executor(Names.GENERIC));
+            for (final DiscoveryNode node : nodes.values()) {
+                checkNode(node, false);
+            }
+        }
+
+        /**
+         * Checks the status of the node. The node is applied if it has applied the target revision of each path which it syncs.
+         * Otherwise, it is flushed and checked again, and a node which still has pending paths is retried after a while.
+         */
+        private void checkNode(final DiscoveryNode node, final boolean flushed) {
+            if (completed.get()) {
+                return;
+            }
+            statusAction.sendRequest(node, targets.keySet(), wrap(status -> {
+                final List<String> failed = new ArrayList<>();
+                for (final Map.Entry<String, Long> entry : targets.entrySet()) {
+                    final Long applied = status.getAppliedRevisions().get(entry.getKey());
+                    if (applied != null && applied < entry.getValue()) {
+                        failed.add(entry.getKey());
+                    }
+                }
+                if (failed.isEmpty()) {
+                    onApplied(node);
+                } else if (!flushed) {
+                    fileFlushAction.sendRequest(null, Collections.singletonList(node).iterator(),
+                            wrap(response -> checkNode(node, true), e -> onFailed(node, e)));
+                } else {
+                    final Map<String, Object> result = new HashMap<>();
+                    result.put("name", node.getName());
+                    result.put("pending_paths", failed);
+                    pendingNodes.put(node.getId(), result);
+                    threadPool.schedule(() -> checkNode(node, false), PROPAGATION_RETRY_INTERVAL, threadPool.executor(Names.GENERIC));
+                }
+            }, e -> onFailed(node, e)));
+        }
+
+        private void onApplied(final DiscoveryNode node) {
+            pendingNodes.remove(node.getId());
+            if (countDown.countDown()) {
+                complete(false);
+            }
+        }
+
+        private void onFailed(final DiscoveryNode node, final Exception e) {
+            logger.warn("Failed to wait for propagation on " + node, e);
+            final Map<String, Object> result = new HashMap<>();
+            result.put("name", node.getName());
+            result.put("error", e.getMessage());
+            pendingNodes.put(node.getId(), result);
+            if (countDown.countDown()) {
+                complete(false);
+            }
+        }
+
+        private void complete(final boolean timedOut) {
+            if (!completed.compareAndSet(false, true)) {
+                return;
+            }
+            if (timer != null) {
+                timer.cancel();
+            }
+            final Map<String, Object> result = new HashMap<>();
+            result.put("propagated", pendingNodes.isEmpty());
+            result.put("timed_out", timedOut);
+            result.put("took_in_millis", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime));
+            result.put("pending_nodes", new HashMap<>(pendingNodes));
+            listener.onResponse(result);
+        }
+    }
+
+    private static Map<String, Object> newDrift(final String path, final String type) {
+        final Map<String, Object> drift = new HashMap<>();
+        drift.put(PATH, path);
+        drift.put("type", type);
+        return drift;
+    }
+
+    /**
+     * Returns the hash tree of local files. The tree is rebuilt if refresh is true or it is not built yet.
+     */
+    public void getLocalHashTree(final boolean refresh, final ActionListener<ConfigHashTree> listener) {
+        final ConfigHashTree tree = localHashTree;
+        if (!refresh && tree != null) {
+            listener.onResponse(tree);
+            return;
+        }
+        final ActionListener<Map<String, String>> hashesListener = wrap(hashes -> {
+            final ConfigHashTree newTree = ConfigHashTree.build(hashes);
+            localHashTree = newTree;
+            listener.onResponse(newTree);
+        }, listener::onFailure);
+        new IndexHashCollector(wrap(indexHashes -> computeLocalHashes(indexHashes.keySet(), hashesListener), e -> {
+            if (ExceptionsHelper.unwrapCause(e) instanceof IndexNotFoundException) {
+                computeLocalHashes(Collections.emptySet(), hashesListener);
+            } else {
+                listener.onFailure(e);
+            }
+        })).execute();
+    }
+
+    /**
+     * Computes hashes of local files in parallel on the generic thread pool. Files to check are found by getLocalPaths,
+     * so the result does not depend on whether this node has completed a sync cycle.
+     */
+    private void computeLocalHashes(final Collection<String> indexPaths, final ActionListener<Map<String, String>> listener) {
+        threadPool.generic().execute(() -> {
+            final List<String> paths;
+            try {
+                paths = new ArrayList<>(getLocalPaths(indexPaths));
+            } catch (final Exception e) {
+                listener.onFailure(e);
+                return;
+            }
+            final Map<String, String> hashes = new ConcurrentHashMap<>();
+            final int numOfTasks = Math.max(1, Math.min(hashConcurrency, paths.size()));
+            final CountDown countDown = new CountDown(numOfTasks);
+            for (int i = 0; i < numOfTasks; i++) {
+                final int offset = i;
+                threadPool.generic().execute(() -> {
+                    try {
+                        for (int j = offset; j < paths.size(); j += numOfTasks) {
+                            final String path = paths.get(j);
+                            final String hash = getLocalFileHash(path);
+                            if (hash != null) {
+                                hashes.put(path, hash);
+                            }
+                        }
+                    } finally {
+                        if (countDown.countDown()) {
+                            listener.onResponse(hashes);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Collects paths to check: paths in the index, paths written by this node, and files under top-level directories which
+     * contain synced files, so a file left in a synced directory is found as unexpected. Other files in the config directory,
+     * such as elasticsearch.yml, are not synced and are not checked. A bundle is checked as one path, and temporary files and
+     * generations of releases are skipped.
+     */
+    private Set<String> getLocalPaths(final Collection<String> indexPaths) throws IOException {
+        final Set<String> paths = new TreeSet<>(indexPaths);
+        paths.addAll(managedPaths);
+        final Set<String> dirs = new TreeSet<>();
+        for (final String path : paths) {
+            final int pos = path.indexOf('/');
+            if (pos > 0) {
+                dirs.add(path.substring(0, pos));
+            }
+        }
+        final Path configDir = Paths.get(configPath).toAbsolutePath();
+        final Path releasesDir = configDir.resolve(RELEASES_PATH);
+        final IOException e = AccessController.doPrivileged((PrivilegedAction<IOException>) () -> {
+            try {
+                for (final String dir : dirs) {
+                    final Path dirPath = configDir.resolve(dir.replace("..", ""));
+                    // a directory of releases is a link, and its files are checked by their paths
+                    if (!Files.isDirectory(dirPath, LinkOption.NOFOLLOW_LINKS)) {
+                        continue;
+                    }
+                    Files.walkFileTree(dirPath, new SimpleFileVisitor<Path>() {
+                        @Override
+                        public FileVisitResult preVisitDirectory(final Path path, final BasicFileAttributes attrs) {
+                            if (path.startsWith(releasesDir)) {
+                                return FileVisitResult.SKIP_SUBTREE;
+                            }
+                            if (Files.isRegularFile(path.resolve(BUNDLE_MANIFEST))) {
+                                paths.add(configDir.relativize(path).toString().replace('\\', '/'));
+                                return FileVisitResult.SKIP_SUBTREE;
+                            }
+                            return FileVisitResult.CONTINUE;
+                        }
+
+                        @Override
+                        public FileVisitResult visitFile(final Path path, final BasicFileAttributes attrs) {
+                            if (attrs.isRegularFile() && !path.getFileName().toString().endsWith(TEMP_FILE_SUFFIX)) {
+                                paths.add(configDir.relativize(path).toString().replace('\\', '/'));
+                            }
+                            return FileVisitResult.CONTINUE;
+                        }
+                    });
+                }
+            } catch (final IOException e1) {
+                return e1;
+            }
+            return null;
+        });
+        if (e != null) {
+            throw e;
+        }
+        return paths;
+    }
+
+    private String getLocalFileHash(final String path) {
+        final Path filePath = getConfigFilePath(path);
+        return AccessController.doPrivileged((PrivilegedAction<String>) () -> {
+            try {
+                final Path manifestPath = filePath.resolve(BUNDLE_MANIFEST);
+                if (Files.isDirectory(filePath) && Files.isRegularFile(manifestPath)) {
+                    // an expanded bundle has the hash of the bundle in its manifest
+                    final List<String> lines = Files.readAllLines(manifestPath, StandardCharsets.UTF_8);
+                    return lines.isEmpty() || lines.get(0).length() == 0 ? null : lines.get(0);
+                }
+                if (!Files.isRegularFile(filePath)) {
+                    fileHashCache.remove(path);
+                    return null;
+                }
+                final long lastModified = Files.getLastModifiedTime(filePath).toMillis();
+                final long size = Files.size(filePath);
+                final FileHash cached = fileHashCache.get(path);
+                if (cached != null && cached.lastModified == lastModified && cached.size == size) {
+                    return cached.hash;
+                }
+                final MessageDigest digest = MessageDigests.sha256();
+                try (InputStream in = Files.newInputStream(filePath)) {
+                    final byte[] buffer = new byte[8192];
+                    int n;
+                    while ((n = in.read(buffer)) != -1) {
+                        digest.update(buffer, 0, n);
+                    }
+                }
+                final String hash = MessageDigests.toHexString(digest.digest());
+                fileHashCache.put(path, new FileHash(lastModified, size, hash));
+                return hash;
+            } catch (final IOException e) {
+                logger.warn("Failed to compute a hash of " + filePath, e);
+                return null;
+            }
+        });
+    }
+
+    static class IndexedDoc {
+        final String id;
+
+        final long seqNo;
+
+        final long primaryTerm;
+
+        final Map<String, Object> source;
+
+        IndexedDoc(final SearchHit hit) {
+            id = hit.getId();
+            seqNo = hit.getSeqNo();
+            primaryTerm = hit.getPrimaryTerm();
+            source = hit.getSourceAsMap();
+        }
+    }
+
+    static class FileHash {
+        final long lastModified;
+
+        final long size;
+
+        final String hash;
+
+        FileHash(final long lastModified, final long size, final String hash) {
+            this.lastModified = lastModified;
+            this.size = size;
+            this.hash = hash;
+        }
+    }
+
+    class IndexHashCollector implements ActionListener<SearchResponse> {
+
+        private final Map<String, String> hashes = new HashMap<>();
+
+        private final List<String> unhashedIds = new ArrayList<>();
+
+        private final ActionListener<Map<String, String>> listener;
+
+        IndexHashCollector(final ActionListener<Map<String, String>> listener) {
+            this.listener = listener;
+        }
+
+        public void execute() {
+            client().prepareSearch(index).setQuery(QueryBuilders.boolQuery().mustNot(QueryBuilders.termQuery(DELETED, true)))
+                    .setFetchSource(new String[] { PATH, HASH }, null).setScroll(scrollForUpdate).setSize(VERIFY_SCROLL_SIZE)
+                    .execute(this);
+        }
+
+        @Override
+        public void onResponse(final SearchResponse response) {
+            final SearchHit[] hits = response.getHits().getHits();
+            if (hits.length == 0) {
+                clearScroll(response.getScrollId());
+                computeUnhashedContents();
+                return;
+            }
+            for (final SearchHit hit : hits) {
+                final Map<String, Object> source = hit.getSourceAsMap();
+                if (source.get(HASH) instanceof String) {
+                    hashes.put((String) source.get(PATH), (String) source.get(HASH));
+                } else {
+                    unhashedIds.add(hit.getId());
+                }
+            }
+            client().prepareSearchScroll(response.getScrollId()).setScroll(scrollForUpdate).execute(this);
+        }
+
+        private void computeUnhashedContents() {
+            if (unhashedIds.isEmpty()) {
+                listener.onResponse(hashes);
+                return;
+            }
+            final MultiGetRequestBuilder builder = client().prepareMultiGet();
+            for (final String id : unhashedIds) {
+                builder.add(index, id);
+            }
+            builder.execute(wrap(response -> {
+                for (final MultiGetItemResponse item : response.getResponses()) {
+                    if (!item.isFailed() && item.getResponse().isExists()) {
+                        final Map<String, Object> source = item.getResponse().getSourceAsMap();
+                        hashes.put((String) source.get(PATH), getHash(Base64.decodeBase64((String) source.get(CONTENT))));
+                    }
+                }
+                listener.onResponse(hashes);
+            }, listener::onFailure));
+        }
+
+        @Override
+        public void onFailure(final Exception e) {
+            listener.onFailure(e);
+        }
+    }
+
+    private void clearScroll(final String scrollId) {
+        if (scrollId == null) {
+            return;
+        }
+        client().prepareClearScroll().addScrollId(scrollId).execute(wrap(response -> {}, e -> {
+            if (logger.isDebugEnabled()) {
+                logger.debug("Failed to clear scroll.", e);
+            }
+        }));
+    }
+
+    private String getHistoryId(final String path, final long revision) {
+        return getId(path) + "_" + revision;
+    }
+
+    private int getHistorySize() {
+        return clusterService.state().getMetadata().settings().getAsInt(HISTORY_SIZE_SETTING.getKey(), historySize);
+    }
+
+    private Map<String, Object> newHistorySource(final String path, final byte[] newContent, final Map<String, Object> source,
+            final long revision) throws IOException {
+        final byte[] content = getContent(source);
+        final Map<String, Object> history = new HashMap<>();
+        history.put(PATH, path);
+        history.put(REVISION, revision);
+        history.put(TIMESTAMP, source.get(TIMESTAMP));
+        history.put(DELETED, isDeleted(source));
+        history.put(HASH, source.get(HASH) instanceof String ? source.get(HASH) : getHash(content));
+        history.put(DELTA, ContentDelta.encode(newContent, content));
+        // a revision is restored as the same kind of file
+        if (isBundle(source)) {
+            history.put(BUNDLE, true);
+        }
+        if (source.get(RELEASE_DIR) != null) {
+            history.put(RELEASE_DIR, source.get(RELEASE_DIR));
+        }
+        return history;
+    }
+
+    private void storeHistory(final String path, final byte[] newContent, final GetResponse current, final ActionListener<Void> listener) {
+        final int size = getHistorySize();
+        if (!current.isExists() || size <= 0) {
+            listener.onResponse(null);
+            return;
+        }
+        final Map<String, Object> source = current.getSourceAsMap();
+        // a delta is encoded on the generic thread pool, not on a transport thread
+        checkIfHistoryIndexExists(wrap(response -> fillContents(List.of(source), wrap(r -> threadPool.generic().execute(
+                ActionRunnable.wrap(listener, l -> {
+                    final long revision = getRevision(current);
+                    client().prepareIndex(historyIndex).setId(getHistoryId(path, revision))
+                            .setSource(newHistorySource(path, newContent, source, revision))
+                            .setRefreshPolicy(RefreshPolicy.IMMEDIATE).execute(wrap(res -> {
+                                pruneHistory(path, size);
+                                l.onResponse(null);
+                            }, l::onFailure));
+                })), listener::onFailure)), listener::onFailure));
+    }
+
+    private void pruneHistory(final String path, final int size) {
+        client().prepareSearch(historyIndex).setQuery(QueryBuilders.termQuery(PATH, path)).addSort(REVISION, SortOrder.DESC)
+                .setFetchSource(false).setFrom(size).setSize(VERIFY_SCROLL_SIZE).execute(wrap(response -> {
+                    final SearchHit[] hits = response.getHits().getHits();
+                    if (hits.length == 0) {
+                        return;
+                    }
+                    final BulkRequestBuilder bulkRequest = client().prepareBulk();
+                    for (final SearchHit hit : hits) {
+                        bulkRequest.add(new DeleteRequest(historyIndex, hit.getId()));
+                    }
+                    bulkRequest.execute(wrap(res -> {
+                        if (res.hasFailures()) {
+                            logger.warn("Failed to prune histories of {}: {}", path, res.buildFailureMessage());
+                        }
+                    }, e -> logger.warn("Failed to prune histories of " + path, e)));
+                }, e -> logger.warn("Failed to prune histories of " + path, e)));
+    }
+
+    public void rollback(final String to, final String[] paths, final ActionListener<List<Map<String, Object>>> listener) {
+        final boolean byRevision = to.matches("[0-9]+");
+        final long target;
+        try {
+            target = byRevision ? Long.parseLong(to) : DateFormatter.forPattern("strict_date_optional_time").parseMillis(to);
+        } catch (final Exception e) {
+            listener.onFailure(new IllegalArgumentException("Invalid revision or timestamp: " + to, e));
+            return;
+        }
+        final BoolQueryBuilder queryBuilder = QueryBuilders.boolQuery();
+        if (paths.length > 0) {
+            queryBuilder.filter(QueryBuilders.termsQuery(PATH, paths));
+        }
+        queryBuilder.filter(QueryBuilders.rangeQuery(byRevision ? REVISION : TIMESTAMP).gt(target));
+        checkIfIndexExists(wrap(res -> checkIfHistoryIndexExists(wrap(res2 -> {
+            searchAll(client().prepareSearch(index).setQuery(queryBuilder).seqNoAndPrimaryTerm(true), IndexedDoc::new,
+                    wrap(docs -> {
+                        if (docs.isEmpty()) {
+                            listener.onResponse(Collections.emptyList());
+                            return;
+                        }
+                        final Map<String, IndexedDoc> currents = new HashMap<>();
+                        final List<Map<String, Object>> currentSources = new ArrayList<>();
+                        for (final IndexedDoc doc : docs) {
+                            currents.put((String) doc.source.get(PATH), doc);
+                            currentSources.add(doc.source);
+                        }
+                        fillContents(currentSources, wrap(r -> searchHistories(new ArrayList<>(currents.keySet()), 0,
+                                byRevision ? target : -1, new ArrayList<>(), wrap(histories -> threadPool.generic()
+                                        .execute(ActionRunnable.wrap(listener, l -> rollback(byRevision, target, currents, histories, l))),
+                                        listener::onFailure)),
+                                listener::onFailure));
+                    }, listener::onFailure));
+        }, listener::onFailure)), listener::onFailure));
+    }
+
+    /**
+     * Collects histories of the paths, which are sorted by path and descending revision. Paths are searched in batches,
+     * so the number of terms in a query is bounded, and hits of each batch are scrolled.
+     */
+    private void searchHistories(final List<String> paths, final int offset, final long minRevision,
+            final List<Map<String, Object>> histories, final ActionListener<List<Map<String, Object>>> listener) {
+        if (offset >= paths.size()) {
+            listener.onResponse(histories);
+            return;
+        }
+        final List<String> batch = paths.subList(offset, Math.min(offset + ROLLBACK_PATH_BATCH_SIZE, paths.size()));
+        final BoolQueryBuilder queryBuilder = QueryBuilders.boolQuery().filter(QueryBuilders.termsQuery(PATH, batch));
+        if (minRevision >= 0) {
+            queryBuilder.filter(QueryBuilders.rangeQuery(REVISION).gte(minRevision));
+        }
+        searchAll(client().prepareSearch(historyIndex).setQuery(queryBuilder).addSort(PATH, SortOrder.ASC)
+                .addSort(REVISION, SortOrder.DESC), SearchHit::getSourceAsMap, wrap(sources -> {
+                    histories.addAll(sources);
+                    searchHistories(paths, offset + batch.size(), minRevision, histories, listener);
+                }, listener::onFailure));
+    }
+
+    /**
+     * Collects all hits of the search by scrolling, so results are not truncated by the size of a page.
+     */
+    private <T> void searchAll(final SearchRequestBuilder builder, final Function<SearchHit, T> mapper,
+            final ActionListener<List<T>> listener) {
+        final List<T> results = new ArrayList<>();
+        builder.setScroll(scrollForUpdate).setSize(VERIFY_SCROLL_SIZE).execute(new ActionListener<SearchResponse>() {
+            @Override
+            public void onResponse(final SearchResponse response) {
+                final SearchHit[] hits = response.getHits().getHits();
+                if (hits.length == 0) {
+                    clearScroll(response.getScrollId());
+                    listener.onResponse(results);
+                    return;
+                }
+                for (final SearchHit hit : hits) {
+                    results.add(mapper.apply(hit));
+                }
+                client().prepareSearchScroll(response.getScrollId()).setScroll(scrollForUpdate).execute(this);
+            }
+
+            @Override
+            public void onFailure(final Exception e) {
+                listener.onFailure(e);
+            }
+        });
+    }
+
+    /**
+     * Rolls back the files. Contents are rebuilt by applying deltas, so this runs on the generic thread pool.
+     */
+    private void rollback(final boolean byRevision, final long target, final Map<String, IndexedDoc> currents,
+            final List<Map<String, Object>> historySources, final ActionListener<List<Map<String, Object>>> listener)
+            throws IOException, ParseException {
+        final Map<String, List<Map<String, Object>>> histories = new HashMap<>();
+        for (final Map<String, Object> source : historySources) {
+            histories.computeIfAbsent((String) source.get(PATH), k -> new ArrayList<>()).add(source);
+        }
+        final List<Map<String, Object>> results = new ArrayList<>();
+        final Map<String, byte[]> blobs = new HashMap<>();
+        final BulkRequestBuilder bulkRequest = client().prepareBulk().setRefreshPolicy(RefreshPolicy.IMMEDIATE);
+        for (final Map.Entry<String, IndexedDoc> entry : currents.entrySet()) {
+            final String path = entry.getKey();
+            final IndexedDoc doc = entry.getValue();
+            final Map<String, Object> current = doc.source;
+            final long currentRevision = current.get(REVISION) instanceof Number ? ((Number) current.get(REVISION)).longValue() : 0;
+            final Map<String, Object> result = new HashMap<>();
+            result.put(PATH, path);
+            result.put("from_revision", currentRevision);
+            results.add(result);
+            if (current.get(RELEASE_DIR) != null) {
+                rejectReleaseRollback(result, current);
+                continue;
+            }
+
+            byte[] content = getContent(current);
+            long revision = currentRevision;
+            Map<String, Object> found = null;
+            for (final Map<String, Object> history : histories.getOrDefault(path, Collections.emptyList())) {
+                final long historyRevision = ((Number) history.get(REVISION)).longValue();
+                if (historyRevision != revision - 1) {
+                    break;
+                }
+                content = ContentDelta.apply(content, Base64.decodeBase64((String) history.get(DELTA)));
+                revision = historyRevision;
+                if (byRevision ? revision == target : getTimestamp(history.get(TIMESTAMP)).getTime() <= target) {
+                    found = history;
+                    break;
+                }
+            }
+            if (found == null) {
+                result.put("result", "not_found");
+                continue;
+            }
+            if (found.get(RELEASE_DIR) != null) {
+                rejectReleaseRollback(result, found);
+                continue;
+            }
+            result.put("to_revision", revision);
+            result.put("result", "rolled_back");
+
+            final Map<String, Object> source = new HashMap<>();
+            source.put(PATH, path);
+            source.put(REVISION, currentRevision + 1);
+            source.put(TIMESTAMP, new Date());
+            if (isDeleted(found)) {
+                source.put(DELETED, true);
+                source.put(ACKED_NODES, Collections.emptyList());
+                content = new byte[0];
+            } else {
+                source.put(HASH, getHash(content));
+                blobs.put(getHash(content), content);
+                if (isBundle(found)) {
+                    source.put(BUNDLE, true);
+                }
+            }
+            bulkRequest.add(new IndexRequest(index).id(doc.id).source(source).setIfSeqNo(doc.seqNo).setIfPrimaryTerm(doc.primaryTerm));
+            bulkRequest.add(new IndexRequest(historyIndex).id(getHistoryId(path, currentRevision))
+                    .source(newHistorySource(path, content, current, currentRevision)));
+        }
+        if (bulkRequest.numberOfActions() == 0) {
+            listener.onResponse(results);
+            return;
+        }
+        long bytes = bulkRequest.request().estimatedSizeInBytes();
+        for (final byte[] content : blobs.values()) {
+            bytes += content.length;
+        }
+        runThrottled(bytes, listener, () -> storeBlobs(blobs, wrap(r -> bulkRequest.execute(wrap(response -> {
+            final Map<String, String> failures = new HashMap<>();
+            for (final BulkItemResponse item : response.getItems()) {
+                if (item.isFailed() && index.equals(item.getIndex())) {
+                    failures.put(item.getId(), item.getFailureMessage());
+                }
+            }
+            final int size = getHistorySize();
+            for (final Map<String, Object> result : results) {
+                final String path = (String) result.get(PATH);
+                final String failure = failures.get(getId(path));
+                if (failure != null) {
+                    result.put("result", "failed");
+                    result.put("reason", failure);
+                } else if ("rolled_back".equals(result.get("result"))) {
+                    pruneHistory(path, size);
+                }
+            }
+            listener.onResponse(results);
+        }, listener::onFailure)), listener::onFailure)));
+    }
+
+    /**
+     * A file of a release is switched with the other files of the release, so it is not rolled back alone.
+     */
+    private static void rejectReleaseRollback(final Map<String, Object> result, final Map<String, Object> source) {
+        result.put("result", "failed");
+        result.put("reason", result.get(PATH) + " is in a release of " + source.get(RELEASE_DIR) + ", so store a new release instead.");
+    }
+
+    public void waitForStatus(final String waitForStatus, final String timeout, final ActionListener<ClusterHealthResponse> listener) {
+        try {
+            client.admin().cluster().prepareHealth(index).setWaitForStatus(ClusterHealthStatus.fromString(waitForStatus))
+                    .setTimeout(timeout).execute(listener);
+        } catch (final Exception e) {
+            listener.onFailure(e);
+        }
+    }
+
+    /**
+     * Writes the file of the source. If plan is given, the file is built from blocks in the local file and fetched blocks.
+     */
+    private long updateConfigFile(final Map<String, Object> source, final ContentBlocks.Plan plan, final Set<String> changedPaths) {
+        final long[] writtenBytes = { 0 };
+        final FileUpdateEvent event = new FileUpdateEvent();
+        event.begin();
+        final ConfigSyncTracer.Span span = tracer.startSpan("configsync.update_file", Map.of(SPAN_PATH, String.valueOf(source.get(PATH))));
+        try {
             final Date timestamp = getTimestamp(source.get(TIMESTAMP));
             final String path = (String) source.get(PATH);
-            final Path filePath = Paths.get(configPath, path.replace("..", ""));
+            final Path filePath = getConfigFilePath(path);
             if (logger.isDebugEnabled()) {
                 logger.debug("Checking {}", filePath);
             }
             final Exception e = AccessController.doPrivileged((PrivilegedAction<Exception>) () -> {
                 try {
-                    if (logger.isDebugEnabled()) {
-                        logger.debug("timestamp(index): {}", timestamp.getTime());
-                        if (Files.exists(filePath)) {
-                            logger.debug("timestamp(file):  {}", Files.getLastModifiedTime(filePath).toMillis());
+                    if (logger.isDebugEnabled()) {
+                        logger.debug("timestamp(index): {}", timestamp.getTime());
+                        if (Files.exists(filePath)) {
+                            logger.debug("timestamp(file):  {}", Files.getLastModifiedTime(filePath).toMillis());
+                        }
+                    }
+                    if (!Files.exists(filePath) || Files.getLastModifiedTime(filePath).toMillis() < timestamp.getTime()) {
+                        final File parentFile = filePath.toFile().getParentFile();
+                        if (!parentFile.exists() && !parentFile.mkdirs()) {
+                            logger.warn("Failed to create " + parentFile.getAbsolutePath());
+                        }
+                        final long startTime = System.nanoTime();
+                        final long[] decodeTime = { 0 };
+                        if (plan != null) {
+                            writeAtomically(filePath, out -> writtenBytes[0] = plan.writeTo(out));
+                            logger.info("Built {} from {} local blocks and {} fetched bytes", filePath, plan.getNumOfLocalBlocks(),
+                                    plan.getFetchedBytes());
+                        } else {
+                            writeAtomically(filePath,
+                                    out -> writtenBytes[0] = decodeTo((String) source.get(CONTENT), out, pageCacheRecycler, decodeTime));
+                        }
+                        event.decodeTime = decodeTime[0];
+                        event.writeTime = System.nanoTime() - startTime - decodeTime[0];
+                        stats.decodeLatency.recordNanos(event.decodeTime);
+                        stats.writeLatency.recordNanos(event.writeTime);
+                        stats.filesWritten.increment();
+                        stats.bytesWritten.add(writtenBytes[0]);
+                        logger.info("Updated " + filePath.toFile().getAbsolutePath());
+                    } else {
+                        event.skipped = true;
+                        stats.filesSkipped.increment();
+                    }
+                } catch (final Exception e1) {
+                    return e1;
+                }
+                return null;
+            });
+            if (e != null) {
+                throw e;
+            }
+            managedPaths.add(path);
+            failedPaths.remove(path);
+            markApplied(path, source);
+            if (!event.skipped) {
+                changedPaths.add(path);
+                slowLog.onFileUpdated(path, writtenBytes[0], event.decodeTime, event.writeTime);
+            }
+            span.setAttribute(SPAN_BYTES, writtenBytes[0]);
+            span.end();
+        } catch (final Exception e) {
+            stats.failedFiles.increment();
+            failedPaths.add((String) source.get(PATH));
+            setLastError("Failed to update " + source.get(PATH) + ": " + e.getMessage());
+            logger.warn("Failed to update " + source.get(PATH), e);
+            span.end(e);
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.path = String.valueOf(source.get(PATH));
+            event.bytes = writtenBytes[0];
+            event.commit();
+        }
+        return writtenBytes[0];
+    }
+
+    /**
+     * Checks if the file belongs to a release which is newer than the current generation of its directory on this node.
+     */
+    private boolean isNewRelease(final Map<String, Object> source) {
+        if (!(source.get(RELEASE) instanceof String) || !(source.get(RELEASE_DIR) instanceof String)) {
+            return false;
+        }
+        final String dir = (String) source.get(RELEASE_DIR);
+        final String path = (String) source.get(PATH);
+        if (path == null || !path.startsWith(dir + "/")) {
+            return false;
+        }
+        return Long.parseLong((String) source.get(RELEASE)) > getReleaseGeneration(dir);
+    }
+
+    /**
+     * Returns the release id of the generation which the directory links to, or -1 if it is not a link.
+     */
+    private long getReleaseGeneration(final String dir) {
+        final Path link = getConfigFilePath(dir);
+        return AccessController.doPrivileged((PrivilegedAction<Long>) () -> {
+            try {
+                if (Files.isSymbolicLink(link)) {
+                    return Long.parseLong(Files.readSymbolicLink(link).getFileName().toString());
+                }
+            } catch (final IOException | NumberFormatException e) {
+                logger.warn("Failed to read a generation of " + link, e);
+            }
+            return -1L;
+        });
+    }
+
+    private Path getReleasePath(final String dir, final String release) {
+        return Paths.get(configPath, RELEASES_PATH, dir.replace("..", ""), release);
+    }
+
+    /**
+     * Switches the directory to the generation of the release. Files of the current generation which are not in the release are
+     * copied to the new generation, and then the link is replaced by a rename, so readers see all files of a release or none of them.
+     */
+    private void switchRelease(final StagedRelease staged, final Set<String> changedPaths) {
+        final Path link = getConfigFilePath(staged.dir);
+        final Path generation = getReleasePath(staged.dir, staged.release);
+        final Exception e = AccessController.doPrivileged((PrivilegedAction<Exception>) () -> {
+            try {
+                final Path previous;
+                if (Files.isSymbolicLink(link)) {
+                    previous = link.toRealPath();
+                    copyMissingFiles(previous, generation);
+                    final Path tempLink = link.resolveSibling("." + link.getFileName() + TEMP_FILE_SUFFIX);
+                    Files.deleteIfExists(tempLink);
+                    Files.createSymbolicLink(tempLink, generation);
+                    Files.move(tempLink, link, StandardCopyOption.ATOMIC_MOVE);
+                } else {
+                    if (Files.isDirectory(link)) {
+                        // the first release replaces the directory with a link, so the directory is missing for a moment
+                        copyMissingFiles(link, generation);
+                        previous = generation.resolveSibling(staged.release + ".orig");
+                        Files.move(link, previous, StandardCopyOption.ATOMIC_MOVE);
+                    } else {
+                        previous = null;
+                        Files.createDirectories(link.getParent());
+                    }
+                    Files.createSymbolicLink(link, generation);
+                }
+                if (previous != null) {
+                    IOUtils.rm(previous);
+                }
+            } catch (final Exception e1) {
+                return e1;
+            }
+            return null;
+        });
+        if (e != null) {
+            stats.failedFiles.add(staged.paths.size());
+            failedPaths.addAll(staged.paths);
+            setLastError("Failed to switch " + staged.dir + " to release " + staged.release + ": " + e.getMessage());
+            logger.warn("Failed to switch " + staged.dir + " to release " + staged.release, e);
+            return;
+        }
+        stats.filesWritten.add(staged.paths.size());
+        managedPaths.addAll(staged.paths);
+        failedPaths.removeAll(staged.paths);
+        staged.revisions.forEach((path, revision) -> appliedRevisions.merge(path, revision, Math::max));
+        changedPaths.addAll(staged.paths);
+        for (final String path : staged.paths) {
+            fileHashCache.remove(path);
+        }
+        logger.info("Switched {} to release {} with {}", link, staged.release, staged.paths);
+    }
+
+    private static void copyMissingFiles(final Path source, final Path target) throws IOException {
+        final List<Path> files;
+        try (Stream<Path> stream = Files.walk(source)) {
+            files = stream.filter(Files::isRegularFile).collect(Collectors.toList());
+        }
+        for (final Path file : files) {
+            final Path targetFile = target.resolve(source.relativize(file).toString());
+            if (!file.getFileName().toString().endsWith(TEMP_FILE_SUFFIX) && !Files.exists(targetFile)) {
+                Files.createDirectories(targetFile.getParent());
+                Files.copy(file, targetFile, StandardCopyOption.COPY_ATTRIBUTES);
+            }
+        }
+    }
+
+    /**
+     * Files of a release staged in a sync cycle.
+     */
+    static class StagedRelease {
+        final String dir;
+
+        final String release;
+
+        final int numOfFiles;
+
+        final Set<String> paths = new TreeSet<>();
+
+        final Map<String, Long> revisions = new HashMap<>();
+
+        boolean failed;
+
+        StagedRelease(final Map<String, Object> source) {
+            dir = (String) source.get(RELEASE_DIR);
+            release = (String) source.get(RELEASE);
+            numOfFiles = source.get(RELEASE_FILES) instanceof Number ? ((Number) source.get(RELEASE_FILES)).intValue() : 0;
+        }
+
+        long getTimestamp() {
+            return Long.parseLong(release);
+        }
+    }
+
+    /**
+     * Writes a file to a temporary file and moves it, so readers, including memory-mapped ones, never see a partially written file.
+     */
+    private void writeAtomically(final Path filePath, final CheckedConsumer<OutputStream, IOException> writer) throws IOException {
+        // each writer has its own temporary file, so concurrent writers of the same path do not write into one file
+        final Path tempPath = Files.createTempFile(filePath.getParent(), "." + filePath.getFileName(), TEMP_FILE_SUFFIX);
+        try {
+            try (OutputStream out = throttle.wrap(Files.newOutputStream(tempPath), clusterService.state().getMetadata().settings())) {
+                writer.accept(out);
+            }
+            Files.move(tempPath, filePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tempPath);
+        }
+    }
+
+    /**
+     * Loads paths synced by this node before it was restarted, so local reads are served before the first sync cycle.
+     */
+    private void loadManagedPaths() {
+        final Path filePath = Paths.get(configPath, MANAGED_PATHS_FILE);
+        AccessController.doPrivileged((PrivilegedAction<Void>) () -> {
+            try {
+                if (Files.isRegularFile(filePath)) {
+                    final List<String> lines = Files.readAllLines(filePath, StandardCharsets.UTF_8);
+                    managedPaths.addAll(lines);
+                    savedManagedPaths = new HashSet<>(lines);
+                }
+            } catch (final IOException e) {
+                logger.warn("Failed to load " + filePath, e);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Saves paths synced by this node if they are changed.
+     */
+    private synchronized void saveManagedPaths() {
+        final Set<String> paths = new TreeSet<>(managedPaths);
+        if (paths.equals(savedManagedPaths)) {
+            return;
+        }
+        final Path filePath = Paths.get(configPath, MANAGED_PATHS_FILE);
+        AccessController.doPrivileged((PrivilegedAction<Void>) () -> {
+            try {
+                Files.createDirectories(filePath.getParent());
+                writeAtomically(filePath, out -> {
+                    for (final String path : paths) {
+                        out.write(path.getBytes(StandardCharsets.UTF_8));
+                        out.write('\n');
+                    }
+                });
+                savedManagedPaths = paths;
+            } catch (final IOException e) {
+                logger.warn("Failed to save " + filePath, e);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Decodes Base64 content to the stream through a recycled page, so the decoded content is not held in heap as a whole.
+     * Returns the number of decoded bytes, and adds nanoseconds spent in decoding to decodeTime[0].
+     */
+    static long decodeTo(final String encoded, final OutputStream out, final PageCacheRecycler recycler, final long[] decodeTime)
+            throws IOException {
+        long length = 0;
+        try (Recycler.V<byte[]> page = recycler.bytePage(false); InputStream in = newDecodingStream(encoded)) {
+            final byte[] buffer = page.v();
+            while (true) {
+                final long startTime = System.nanoTime();
+                final int n = in.read(buffer);
+                decodeTime[0] += System.nanoTime() - startTime;
+                if (n < 0) {
+                    return length;
+                }
+                out.write(buffer, 0, n);
+                length += n;
+            }
+        }
+    }
+
+    private static InputStream newDecodingStream(final String encoded) {
+        return java.util.Base64.getDecoder().wrap(new AsciiInputStream(encoded));
+    }
+
+    /**
+     * Checks if the file is not older than its document, so it is skipped without its content.
+     */
+    private boolean isUpToDate(final Map<String, Object> source) {
+        if (isBundle(source) || isNewRelease(source) || !(source.get(PATH) instanceof String)) {
+            return false;
+        }
+        final Path filePath = getConfigFilePath((String) source.get(PATH));
+        return AccessController.doPrivileged((PrivilegedAction<Boolean>) () -> {
+            try {
+                return Files.isRegularFile(filePath)
+                        && Files.getLastModifiedTime(filePath).toMillis() >= getTimestamp(source.get(TIMESTAMP)).getTime();
+            } catch (final Exception e) {
+                return false;
+            }
+        });
+    }
+
+    /**
+     * Records the revision of the source as applied on this node, which wait_for_propagation compares with the written one.
+     */
+    private void markApplied(final String path, final Map<String, Object> source) {
+        final long revision = source.get(REVISION) instanceof Number ? ((Number) source.get(REVISION)).longValue() : 0;
+        appliedRevisions.merge(path, revision, Math::max);
+    }
+
+    private static boolean isBundle(final Map<String, Object> source) {
+        return Boolean.TRUE.equals(source.get(BUNDLE));
+    }
+
+    /**
+     * Expands a bundle into the directory of its path as a stream. An entry is written only if its CRC or size differs from
+     * the manifest of the previous bundle, and files of entries removed from the bundle are deleted.
+     */
+    private long applyBundle(final Map<String, Object> source, final Set<String> changedPaths) {
+        final String path = (String) source.get(PATH);
+        final long[] writtenBytes = { 0 };
+        try {
+            final Date timestamp = getTimestamp(source.get(TIMESTAMP));
+            final Path dirPath = getConfigFilePath(path).toAbsolutePath().normalize();
+            final Path manifestPath = dirPath.resolve(BUNDLE_MANIFEST);
+            final Exception e = AccessController.doPrivileged((PrivilegedAction<Exception>) () -> {
+                try {
+                    if (Files.exists(manifestPath) && Files.getLastModifiedTime(manifestPath).toMillis() >= timestamp.getTime()) {
+                        stats.filesSkipped.increment();
+                        return null;
+                    }
+                    final Map<String, String> previous = readBundleManifest(manifestPath);
+                    final Map<String, String> entries = new LinkedHashMap<>();
+                    if (Files.isRegularFile(dirPath)) {
+                        // the path was a plain file before it was stored as a bundle
+                        Files.delete(dirPath);
+                    }
+                    Files.createDirectories(dirPath);
+                    try (ZipInputStream in = new ZipInputStream(newDecodingStream((String) source.get(CONTENT)))) {
+                        ZipEntry entry;
+                        while ((entry = in.getNextEntry()) != null) {
+                            if (entry.isDirectory()) {
+                                continue;
+                            }
+                            final String name = entry.getName();
+                            final Path filePath = getBundleEntryPath(dirPath, name);
+                            // the CRC is known before reading data unless the entry has a data descriptor
+                            if (entry.getCrc() >= 0 && entry.getSize() >= 0) {
+                                final String checksum = entry.getCrc() + ":" + entry.getSize();
+                                if (checksum.equals(previous.get(name)) && Files.isRegularFile(filePath)) {
+                                    entries.put(name, checksum);
+                                    stats.filesSkipped.increment();
+                                    continue;
+                                }
+                            }
+                            Files.createDirectories(filePath.getParent());
+                            final Path tempPath =
+                                    Files.createTempFile(filePath.getParent(), "." + filePath.getFileName(), TEMP_FILE_SUFFIX);
+                            final CRC32 crc = new CRC32();
+                            final long size;
+                            try (OutputStream out = new CheckedOutputStream(
+                                    throttle.wrap(Files.newOutputStream(tempPath), clusterService.state().getMetadata().settings()), crc)) {
+                                size = in.transferTo(out);
+                            }
+                            final String checksum = crc.getValue() + ":" + size;
+                            entries.put(name, checksum);
+                            if (checksum.equals(previous.get(name)) && Files.isRegularFile(filePath)) {
+                                Files.delete(tempPath);
+                                stats.filesSkipped.increment();
+                            } else {
+                                Files.move(tempPath, filePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                                writtenBytes[0] += size;
+                                stats.filesWritten.increment();
+                                changedPaths.add(path + "/" + name);
+                            }
                         }
                     }
-                    if (!Files.exists(filePath) || Files.getLastModifiedTime(filePath).toMillis() < timestamp.getTime()) {
-                        final String content = (String) source.get(CONTENT);
-                        final File parentFile = filePath.toFile().getParentFile();
-                        if (!parentFile.exists() && !parentFile.mkdirs()) {
-                            logger.warn("Failed to create " + parentFile.getAbsolutePath());
+                    for (final String name : previous.keySet()) {
+                        if (!entries.containsKey(name)) {
+                            Files.deleteIfExists(getBundleEntryPath(dirPath, name));
+                            stats.filesDeleted.increment();
+                            changedPaths.add(path + "/" + name);
                         }
+                    }
+                    writeBundleManifest(manifestPath, (String) source.get(HASH), entries);
+                    stats.bytesWritten.add(writtenBytes[0]);
+                    logger.info("Expanded {} entries of {} into {}", entries.size(), path, dirPath);
+                } catch (final Exception e1) {
+                    return e1;
+                }
+                return null;
+            });
+            if (e != null) {
+                throw e;
+            }
+            managedPaths.add(path);
+            failedPaths.remove(path);
+            markApplied(path, source);
+            fileHashCache.remove(path);
+        } catch (final Exception e) {
+            stats.failedFiles.increment();
+            failedPaths.add(path);
+            setLastError("Failed to expand " + path + ": " + e.getMessage());
+            logger.warn("Failed to expand " + path, e);
+        }
+        return writtenBytes[0];
+    }
+
+    private static Path getBundleEntryPath(final Path dirPath, final String name) throws IOException {
+        final Path filePath = dirPath.resolve(name).normalize();
+        if (!filePath.startsWith(dirPath) || filePath.equals(dirPath.resolve(BUNDLE_MANIFEST))) {
+            throw new IOException("Invalid entry: " + name);
+        }
+        return filePath;
+    }
+
+    /**
+     * Reads a manifest of an expanded bundle. The first line is the hash of the bundle, and the others are names and checksums of entries.
+     */
+    private static Map<String, String> readBundleManifest(final Path manifestPath) throws IOException {
+        final Map<String, String> entries = new LinkedHashMap<>();
+        if (!Files.exists(manifestPath)) {
+            return entries;
+        }
+        final List<String> lines = Files.readAllLines(manifestPath, StandardCharsets.UTF_8);
+        for (int i = 1; i < lines.size(); i++) {
+            final int pos = lines.get(i).lastIndexOf('\t');
+            if (pos > 0) {
+                entries.put(lines.get(i).substring(0, pos), lines.get(i).substring(pos + 1));
+            }
+        }
+        return entries;
+    }
+
+    private void writeBundleManifest(final Path manifestPath, final String hash, final Map<String, String> entries)
+            throws IOException {
+        writeAtomically(manifestPath, out -> {
+            final StringBuilder buf = new StringBuilder();
+            buf.append(hash != null ? hash : "").append('\n');
+            for (final Map.Entry<String, String> entry : entries.entrySet()) {
+                buf.append(entry.getKey()).append('\t').append(entry.getValue()).append('\n');
+            }
+            out.write(buf.toString().getBytes(StandardCharsets.UTF_8));
+        });
+    }
+
+    /**
+     * Input stream of ASCII characters in a string, which does not copy the string.
+     */
+    private static class AsciiInputStream extends InputStream {
+
+        private final String value;
+
+        private int pos;
+
+        AsciiInputStream(final String value) {
+            this.value = value != null ? value : "";
+        }
+
+        @Override
+        public int read() {
+            return pos < value.length() ? value.charAt(pos++) & 0xff : -1;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (pos >= value.length()) {
+                return -1;
+            }
+            final int n = Math.min(len, value.length() - pos);
+            for (int i = 0; i < n; i++) {
+                b[off + i] = (byte) value.charAt(pos++);
+            }
+            return n;
+        }
+    }
+
+    private void deleteConfigFile(final SearchHit hit, final Map<String, Object> source, final Set<String> changedPaths) {
+        try {
+            final Date timestamp = getTimestamp(source.get(TIMESTAMP));
+            final String path = (String) source.get(PATH);
+            final Path filePath = getConfigFilePath(path);
+            if (logger.isDebugEnabled()) {
+                logger.debug("Checking deleted {}", filePath);
+            }
+            final Exception e = AccessController.doPrivileged((PrivilegedAction<Exception>) () -> {
+                try {
+                    if (Files.exists(filePath) && Files.getLastModifiedTime(filePath).toMillis() < timestamp.getTime()) {
                         final String absolutePath = filePath.toFile().getAbsolutePath();
-                        decodeToFile(content, absolutePath);
-                        logger.info("Updated " + absolutePath);
+                        if (trashPath.length() > 0) {
+                            final Path trashFilePath = Paths.get(trashPath, path.replace("..", "") + "." + timestamp.getTime());
+                            Files.createDirectories(trashFilePath.getParent());
+                            Files.move(filePath, trashFilePath, StandardCopyOption.REPLACE_EXISTING);
+                            logger.info("Moved " + absolutePath + " to " + trashFilePath.toFile().getAbsolutePath());
+                        } else if (Files.isDirectory(filePath)) {
+                            IOUtils.rm(filePath);
+                            logger.info("Deleted " + absolutePath);
+                        } else {
+                            Files.delete(filePath);
+                            logger.info("Deleted " + absolutePath);
+                        }
+                        stats.filesDeleted.increment();
+                        changedPaths.add(path);
+                    } else {
+                        stats.filesSkipped.increment();
                     }
                 } catch (final Exception e1) {
                     return e1;
@@ -478,12 +3345,202 @@ public class ConfigSyncService extends AbstractLifecycleComponent {
             if (e != null) {
                 throw e;
             }
+            managedPaths.remove(path);
+            failedPaths.remove(path);
+            markApplied(path, source);
+            acknowledgeTombstone(hit.getId(), hit.getSeqNo(), hit.getPrimaryTerm(), source, MAX_ACK_RETRIES);
         } catch (final Exception e) {
-            logger.warn("Failed to update " + source.get(PATH), e);
+            stats.failedFiles.increment();
+            failedPaths.add((String) source.get(PATH));
+            setLastError("Failed to delete " + source.get(PATH) + ": " + e.getMessage());
+            logger.warn("Failed to delete " + source.get(PATH), e);
+        }
+    }
+
+    private void acknowledgeTombstone(final String id, final long seqNo, final long primaryTerm, final Map<String, Object> source,
+            final int retries) {
+        final String nodeId = clusterService.localNode().getId();
+        final List<String> ackedNodes = getAckedNodes(source);
+        if (ackedNodes.contains(nodeId)) {
+            return;
+        }
+        ackedNodes.add(nodeId);
+        final Map<String, Object> newSource = new HashMap<>(source);
+        newSource.put(ACKED_NODES, ackedNodes);
+        client().prepareIndex(index).setId(id).setSource(newSource).setIfSeqNo(seqNo).setIfPrimaryTerm(primaryTerm).execute(wrap(res -> {
+            if (logger.isDebugEnabled()) {
+                logger.debug("Acknowledged tombstone for {}", source.get(PATH));
+            }
+        }, e -> {
+            if (retries > 0 && ExceptionsHelper.unwrapCause(e) instanceof VersionConflictEngineException) {
+                client().prepareGet(index, id).execute(wrap(res -> {
+                    if (res.isExists() && isDeleted(res.getSourceAsMap())) {
+                        acknowledgeTombstone(id, res.getSeqNo(), res.getPrimaryTerm(), res.getSourceAsMap(), retries - 1);
+                    }
+                }, e1 -> logger.warn("Failed to acknowledge tombstone for " + source.get(PATH), e1)));
+            } else {
+                logger.warn("Failed to acknowledge tombstone for " + source.get(PATH), e);
+            }
+        }));
+    }
+
+    private static List<String> getAckedNodes(final Map<String, Object> source) {
+        final List<String> ackedNodes = new ArrayList<>();
+        final Object value = source.get(ACKED_NODES);
+        if (value instanceof List) {
+            for (final Object nodeId : (List<?>) value) {
+                ackedNodes.add(nodeId.toString());
+            }
+        } else if (value != null) {
+            ackedNodes.add(value.toString());
+        }
+        return ackedNodes;
+    }
+
+    private void purgeTombstones() {
+        final ClusterState state = clusterService.state();
+        if (!state.nodes().isLocalNodeElectedMaster()) {
+            return;
+        }
+        // the updater runs on any node, such as ingest or ml nodes, so all nodes which sync the path need to acknowledge it
+        final Map<String, ConfigPathFilter> nodeFilters = new HashMap<>();
+        for (final DiscoveryNode node : state.nodes()) {
+            nodeFilters.put(node.getId(), ConfigPathFilter.of(state, node, configPath));
+        }
+        final long expiredTime = System.currentTimeMillis()
+                - state.getMetadata().settings().getAsTime(TOMBSTONE_RETENTION_SETTING.getKey(), tombstoneRetention).millis();
+        client().prepareSearch(index).setQuery(QueryBuilders.boolQuery().filter(QueryBuilders.termQuery(DELETED, true)))
+                .setFetchSource(new String[] { PATH, TIMESTAMP, ACKED_NODES }, null).seqNoAndPrimaryTerm(true)
+                .setSize(TOMBSTONE_PURGE_SIZE).execute(wrap(response -> {
+                    for (final SearchHit hit : response.getHits().getHits()) {
+                        final Map<String, Object> source = hit.getSourceAsMap();
+                        if (isAckedByAll(source, nodeFilters) || getTimestamp(source.get(TIMESTAMP)).getTime() < expiredTime) {
+                            client().prepareDelete(index, hit.getId()).setIfSeqNo(hit.getSeqNo()).setIfPrimaryTerm(hit.getPrimaryTerm())
+                                    .execute(wrap(res -> {
+                                        if (logger.isDebugEnabled()) {
+                                            logger.debug("Purged tombstone for {}", source.get(PATH));
+                                        }
+                                    }, e -> logger.debug("Failed to purge tombstone for " + source.get(PATH), e)));
+                        }
+                    }
+                }, e -> logger.warn("Failed to purge tombstones.", e)));
+    }
+
+    /**
+     * Deletes blobs which no file refers to. A page of blobs is checked in each cycle, and a blob is deleted when it is found
+     * unreferenced in two checks, so a blob which a file starts to refer to between them is kept.
+     * A blob stored or touched in BLOB_PURGE_GRACE is kept, and a blob is deleted only if it is not touched after the check,
+     * so a file which is being stored with an existing blob never refers to a deleted one. Blocks are deleted after their blob.
+     */
+    private void purgeBlobs() {
+        final ClusterState state = clusterService.state();
+        if (!state.nodes().isLocalNodeElectedMaster() || !state.getMetadata().hasIndex(blobIndex)) {
+            unreferencedBlobs.clear();
+            return;
+        }
+        // blocks are deleted with their blobs
+        final SearchRequestBuilder builder = client().prepareSearch(blobIndex)
+                .setQuery(QueryBuilders.boolQuery().mustNot(QueryBuilders.existsQuery(BLOB)))
+                .setFetchSource(new String[] { SIZE, BLOCK_SIZE, TIMESTAMP }, null).seqNoAndPrimaryTerm(true)
+                .addSort(HASH, SortOrder.ASC).setSize(BLOB_PURGE_SIZE);
+        if (blobPurgeCursor != null) {
+            builder.searchAfter(new Object[] { blobPurgeCursor });
+        }
+        builder.execute(wrap(response -> {
+            final long graceTime = System.currentTimeMillis() - BLOB_PURGE_GRACE.millis();
+            final List<String> hashes = new ArrayList<>();
+            final Set<String> recentHashes = new HashSet<>();
+            final Map<String, SearchHit> blobs = new HashMap<>();
+            final Map<String, Integer> numOfBlocks = new HashMap<>();
+            for (final SearchHit hit : response.getHits().getHits()) {
+                hashes.add(hit.getId());
+                blobs.put(hit.getId(), hit);
+                final Map<String, Object> source = hit.getSourceAsMap();
+                try {
+                    if (source != null && source.get(TIMESTAMP) != null && getTimestamp(source.get(TIMESTAMP)).getTime() > graceTime) {
+                        recentHashes.add(hit.getId());
+                    }
+                } catch (final ParseException e) {
+                    logger.warn("Invalid timestamp of blob " + hit.getId(), e);
+                    recentHashes.add(hit.getId());
+                }
+                if (source != null && source.get(SIZE) instanceof Number && source.get(BLOCK_SIZE) instanceof Number) {
+                    numOfBlocks.put(hit.getId(), ContentBlocks.getNumOfBlocks(((Number) source.get(SIZE)).longValue(),
+                            ((Number) source.get(BLOCK_SIZE)).intValue()));
+                }
+            }
+            blobPurgeCursor = hashes.size() < BLOB_PURGE_SIZE ? null : hashes.get(hashes.size() - 1);
+            if (hashes.isEmpty()) {
+                return;
+            }
+            client().prepareSearch(index).setQuery(QueryBuilders.termsQuery(HASH, hashes)).setSize(0)
+                    .addAggregation(AggregationBuilders.terms(HASH).field(HASH).size(hashes.size())).execute(wrap(refResponse -> {
+                        final Set<String> referenced = new HashSet<>();
+                        final Terms terms = refResponse.getAggregations().get(HASH);
+                        for (final Terms.Bucket bucket : terms.getBuckets()) {
+                            referenced.add(bucket.getKeyAsString());
+                        }
+                        final BulkRequestBuilder bulkRequest = client().prepareBulk();
+                        for (final String hash : hashes) {
+                            if (referenced.contains(hash) || recentHashes.contains(hash)) {
+                                unreferencedBlobs.remove(hash);
+                            } else if (unreferencedBlobs.remove(hash)) {
+                                final SearchHit hit = blobs.get(hash);
+                                bulkRequest.add(new DeleteRequest(blobIndex, hash).setIfSeqNo(hit.getSeqNo())
+                                        .setIfPrimaryTerm(hit.getPrimaryTerm()));
+                            } else {
+                                unreferencedBlobs.add(hash);
+                            }
+                        }
+                        if (bulkRequest.numberOfActions() == 0) {
+                            return;
+                        }
+                        bulkRequest.execute(wrap(res -> {
+                            final BulkRequestBuilder blockRequest = client().prepareBulk();
+                            for (final BulkItemResponse item : res.getItems()) {
+                                if (item.isFailed()) {
+                                    // a conflict means that the blob is touched by a file stored after the check
+                                    if (item.status() != RestStatus.CONFLICT) {
+                                        logger.warn("Failed to purge blob {}: {}", item.getId(), item.getFailureMessage());
+                                    }
+                                    continue;
+                                }
+                                for (int i = 0; i < numOfBlocks.getOrDefault(item.getId(), 0); i++) {
+                                    blockRequest.add(new DeleteRequest(blobIndex, getBlockId(item.getId(), i)));
+                                }
+                            }
+                            if (logger.isDebugEnabled()) {
+                                logger.debug("Purged {} blobs", res.getItems().length);
+                            }
+                            if (blockRequest.numberOfActions() == 0) {
+                                return;
+                            }
+                            blockRequest.execute(wrap(blockResponse -> {
+                                if (blockResponse.hasFailures()) {
+                                    logger.warn("Failed to purge blocks: {}", blockResponse.buildFailureMessage());
+                                }
+                            }, e -> logger.warn("Failed to purge blocks.", e)));
+                        }, e -> logger.warn("Failed to purge blobs.", e)));
+                    }, e -> logger.warn("Failed to purge blobs.", e)));
+        }, e -> logger.warn("Failed to purge blobs.", e)));
+    }
+
+    /**
+     * Checks if the deletion is acknowledged by all nodes except ones which do not sync the path.
+     * A node whose updater is disabled never acknowledges it, and its tombstone is purged after configsync.tombstone.retention.
+     */
+    private static boolean isAckedByAll(final Map<String, Object> source, final Map<String, ConfigPathFilter> nodeFilters) {
+        final List<String> ackedNodes = getAckedNodes(source);
+        final String path = (String) source.get(PATH);
+        for (final Map.Entry<String, ConfigPathFilter> entry : nodeFilters.entrySet()) {
+            if (!ackedNodes.contains(entry.getKey()) && (path == null || entry.getValue().matches(path))) {
+                return false;
+            }
         }
+        return true;
     }
 
-    private Date getTimestamp(final Object value) throws ParseException {
+    static Date getTimestamp(final Object value) throws ParseException {
         if (value instanceof Date) {
             return (Date) value;
         }
@@ -498,7 +3555,7 @@ public class ConfigSyncService extends AbstractLifecycleComponent {
 
     class ConfigFileUpdater implements Runnable {
 
-        ConfigFileWriter writer = new ConfigFileWriter();
+        ConfigFileWriter writer = new ConfigFileWriter(null);
 
         @Override
         public void run() {
@@ -513,10 +3570,26 @@ public class ConfigSyncService extends AbstractLifecycleComponent {
                 logger.debug("Processing ConfigFileUpdater.");
             }
 
-            writer.execute(wrap(response -> startUpdater(), e -> {
+            referencedPathsChanged.set(false);
+            final ClusterState state = clusterService.state();
+            final ConfigPathFilter filter = ConfigPathFilter.of(state, state.nodes().getLocalNode(), configPath);
+            // the referenced paths are synced before the cycle, so that both writers do not run concurrently
+            syncReferencedPaths(filter, wrap(r -> writer.execute(filter, wrap(response -> {
+                purgeTombstones();
+                purgeBlobs();
+                restartAfterCycle();
+            }, e -> {
                 logger.error("Failed to process ConfigFileUpdater.", e);
-                startUpdater();
-            }));
+                restartAfterCycle();
+            })), e -> restartAfterCycle()));
+        }
+
+        private void restartAfterCycle() {
+            startUpdater();
+            if (referencedPathsChanged.get()) {
+                // shards were allocated while this cycle was running
+                runUpdaterNow();
+            }
         }
 
         public void terminate() {
@@ -524,24 +3597,112 @@ public class ConfigSyncService extends AbstractLifecycleComponent {
         }
     }
 
-    public ConfigFileWriter newConfigFileWriter() {
-        return new ConfigFileWriter();
+    public ConfigFileWriter newConfigFileWriter(final ConfigSyncTask task) {
+        return new ConfigFileWriter(task);
     }
 
     public class ConfigFileWriter implements ActionListener<SearchResponse> {
 
         private final AtomicBoolean terminated = new AtomicBoolean(false);
 
+        private final ConfigSyncTask task;
+
         private ActionListener<Void> listener;
 
+        private Date checkedFrom;
+
+        private long startTime;
+
+        private long syncedTime;
+
+        private ConfigSyncTracer.Span span;
+
+        private SyncCycleEvent event;
+
+        private final Set<String> paths;
+
+        private final Set<String> changedPaths = new HashSet<>();
+
+        private final Map<String, StagedRelease> releases = new HashMap<>();
+
+        ConfigFileWriter(final ConfigSyncTask task) {
+            this(task, null);
+        }
+
+        /**
+         * Creates a writer which fetches only the given paths regardless of the last checked time.
+         */
+        ConfigFileWriter(final ConfigSyncTask task, final Set<String> paths) {
+            this.task = task;
+            this.paths = paths;
+        }
+
         public void execute(final ActionListener<Void> listener) {
+            final ClusterState state = clusterService.state();
+            execute(paths != null ? null : ConfigPathFilter.of(state, state.nodes().getLocalNode(), configPath), listener);
+        }
+
+        /**
+         * Runs a cycle with the path filter resolved by the caller. The filter is not used when paths are given.
+         */
+        void execute(final ConfigPathFilter filter, final ActionListener<Void> listener) {
             this.listener = listener;
 
             final Date now = new Date();
-            final QueryBuilder queryBuilder =
-                    QueryBuilders.boolQuery().filter(QueryBuilders.rangeQuery(TIMESTAMP).from(lastChecked.getTime()));
-            lastChecked = now;
-            client().prepareSearch(index).setQuery(queryBuilder).setScroll(scrollForUpdate).setSize(sizeForUpdate).execute(this);
+            final ClusterState state = clusterService.state();
+            changedPaths.clear();
+            releases.clear();
+            final QueryBuilder queryBuilder;
+            if (paths != null) {
+                // the last checked time is kept because other files are not checked
+                checkedFrom = null;
+                queryBuilder = QueryBuilders.boolQuery().filter(QueryBuilders.termsQuery(PATH, paths));
+            } else {
+                if (!filter.hasSameRules(pathFilter)) {
+                    // files which are newly included may be older than the last check
+                    logger.info("Path filter is changed to [{}], all config files are checked.", filter);
+                    lastChecked = new Date(0);
+                }
+                if (!filter.equals(pathFilter)) {
+                    pathFilter = filter;
+                    managedPaths.removeIf(path -> !filter.matches(path));
+                }
+                checkedFrom = lastChecked;
+                final BoolQueryBuilder rangeQueryBuilder =
+                        QueryBuilders.boolQuery().filter(QueryBuilders.rangeQuery(TIMESTAMP).from(checkedFrom.getTime()));
+                queryBuilder = filter.apply(rangeQueryBuilder, PATH);
+                lastChecked = now;
+            }
+            syncedTime = now.getTime();
+            event = new SyncCycleEvent();
+            event.begin();
+            slowLog.load(state.getMetadata().settings());
+            span = tracer.startSpan("configsync.sync_cycle",
+                    Map.of("configsync.from", checkedFrom != null ? checkedFrom.getTime() : 0L));
+            startTime = System.nanoTime();
+            client().prepareSearch(index).setQuery(queryBuilder).setScroll(scrollForUpdate).setSize(sizeForUpdate)
+                    .seqNoAndPrimaryTerm(true).execute(timed(this));
+        }
+
+        /**
+         * Records the time from now to the response as search time.
+         */
+        private ActionListener<SearchResponse> timed(final ActionListener<SearchResponse> delegate) {
+            final long searchStartTime = System.nanoTime();
+            return new ActionListener<SearchResponse>() {
+                @Override
+                public void onResponse(final SearchResponse response) {
+                    final long searchTime = System.nanoTime() - searchStartTime;
+                    stats.searchLatency.recordNanos(searchTime);
+                    event.searchTime += searchTime;
+                    delegate.onResponse(response);
+                }
+
+                @Override
+                public void onFailure(final Exception e) {
+                    delegate.onFailure(e);
+                }
+            };
         }
 
         public void terminate() {
@@ -554,34 +3715,353 @@ public class ConfigSyncService extends AbstractLifecycleComponent {
                 if (logger.isDebugEnabled()) {
                     logger.debug("Terminated {}", this);
                 }
-                listener.onFailure(new ElasticsearchException("Config Writing process was terminated."));
+                final ElasticsearchException e = new ElasticsearchException("Config Writing process was terminated.");
+                endCycle(e);
+                listener.onFailure(e);
+                return;
+            }
+            if (task != null && task.isCancelled()) {
+                clearScroll(response.getScrollId());
+                rewindLastChecked();
+                final TaskCancelledException e =
+                        new TaskCancelledException("Config Writing process was cancelled: " + task.getReasonCancelled());
+                endCycle(e);
+                listener.onFailure(e);
                 return;
             }
 
             final SearchHits searchHits = response.getHits();
             final SearchHit[] hits = searchHits.getHits();
             if (hits.length == 0) {
+                clearScroll(response.getScrollId());
+                final long took = System.nanoTime() - startTime;
+                // a sync of referenced paths is not a cycle, so only its files are counted and logged
+                if (paths == null) {
+                    stats.cycles.increment();
+                    stats.cycleLatency.recordNanos(took);
+                    stats.setLastSyncedTime(syncedTime);
+                    saveManagedPaths();
+                    slowLog.onCycleCompleted(took, event.docsScanned, event.bytesWritten, event.searchTime);
+                    lastCycleEndTime = System.currentTimeMillis();
+                    lastCycleTookInMillis = TimeUnit.NANOSECONDS.toMillis(took);
+                    consecutiveFailures.set(0);
+                    applyReleases();
+                }
+                endCycle(null);
+                if (paths == null) {
+                    // newly referenced files are read when their shards are opened, so they need no reload
+                    reloadAnalyzers(new HashSet<>(changedPaths));
+                }
                 listener.onResponse(null);
             } else {
-                for (final SearchHit hit : hits) {
-                    final Map<String, Object> source = hit.getSourceAsMap();
-                    updateConfigFile(source);
+                try {
+                    processHits(response);
+                } catch (final Exception e) {
+                    clearScroll(response.getScrollId());
+                    onFailure(e);
+                }
+            }
+        }
+
+        private void processHits(final SearchResponse response) {
+            final SearchHit[] hits = response.getHits().getHits();
+            stats.docsScanned.add(hits.length);
+            event.docsScanned += hits.length;
+            final List<Map<String, Object>> sources = new ArrayList<>(hits.length);
+            final Set<Map<String, Object>> blobSources = Collections.newSetFromMap(new IdentityHashMap<>());
+            for (final SearchHit hit : hits) {
+                final Map<String, Object> source = hit.getSourceAsMap();
+                sources.add(source);
+                // blobs are fetched only for files to be written
+                if (refersToBlob(source) && !isUpToDate(source)) {
+                    blobSources.add(source);
+                }
+            }
+            final Map<Map<String, Object>, ContentBlocks.Plan> plans = new IdentityHashMap<>();
+            response.incRef();
+            final ActionListener<Void> writeListener =
+                    ActionListener.runAfter(wrap(r -> writeHits(response, sources, blobSources, plans), e -> {
+                        clearScroll(response.getScrollId());
+                        onFailure(e);
+                    }), response::decRef);
+            // files are written on the generic pool because throttled writes wait between chunks
+            fillContents(blobSources, plans,
+                    wrap(r -> threadPool.generic().execute(() -> writeListener.onResponse(null)), writeListener::onFailure));
+        }
+
+        private void writeHits(final SearchResponse response, final List<Map<String, Object>> sources,
+                final Set<Map<String, Object>> blobSources, final Map<Map<String, Object>, ContentBlocks.Plan> plans) {
+            final SearchHit[] hits = response.getHits().getHits();
+            long sourceBytes = 0;
+            for (final SearchHit hit : hits) {
+                sourceBytes += hit.getSourceRef() != null ? hit.getSourceRef().length() : 0;
+            }
+            for (final Map<String, Object> source : blobSources) {
+                sourceBytes += source.get(CONTENT) instanceof String ? ((String) source.get(CONTENT)).length() : 0;
+            }
+            for (final ContentBlocks.Plan plan : plans.values()) {
+                sourceBytes += plan.getFetchedBytes();
+            }
+            // the next page is fetched while files of this page are written, so the scroll is kept alive for the throttled writes
+            final long delay = throttle.estimate(clusterService.state().getMetadata().settings(), sourceBytes);
+            final TimeValue keepAlive = delay > 0 ? TimeValue.timeValueNanos(scrollForUpdate.nanos() + delay) : scrollForUpdate;
+            final SubscribableListener<SearchResponse> nextPage = new SubscribableListener<>();
+            client().prepareSearchScroll(response.getScrollId()).setScroll(keepAlive).execute(timed(wrap(next -> {
+                next.incRef();
+                nextPage.onResponse(next);
+            }, nextPage::onFailure)));
+            boolean written = false;
+            // parsed sources of the page are held until all files in it are written
+            try (ThreadContext.StoredContext ignored = span.restoreContext();
+                    Releasable memory = reserveMemory(sourceBytes, "configsync_sync[" + index + "]")) {
+                for (int i = 0; i < hits.length; i++) {
+                    final SearchHit hit = hits[i];
+                    final Map<String, Object> source = sources.get(i);
+                    if (isDeleted(source)) {
+                        deleteConfigFile(hit, source, changedPaths);
+                        if (task != null) {
+                            task.onFileProcessed(0);
+                        }
+                    } else if (refersToBlob(source) && blobSources.contains(source)
+                            && (!plans.containsKey(source) || !plans.get(source).isComplete())) {
+                        onBlobNotFound(source);
+                    } else {
+                        final long bytes;
+                        if (isBundle(source)) {
+                            bytes = applyBundle(source, changedPaths);
+                        } else if (isNewRelease(source)) {
+                            bytes = stageReleaseFile(source);
+                        } else {
+                            bytes = updateConfigFile(source, plans.get(source), changedPaths);
+                        }
+                        event.bytesWritten += bytes;
+                        if (task != null) {
+                            task.onFileProcessed(bytes);
+                        }
+                    }
+                }
+                written = true;
+            } finally {
+                if (written) {
+                    nextPage.addListener(wrap(next -> {
+                        try {
+                            onResponse(next);
+                        } finally {
+                            next.decRef();
+                        }
+                    }, this::onFailure));
+                } else {
+                    // the page is failed, and the next page is released without being processed
+                    nextPage.addListener(wrap(SearchResponse::decRef, e -> {}));
                 }
-                final String scrollId = response.getScrollId();
-                client().prepareSearchScroll(scrollId).setScroll(scrollForUpdate).execute(this);
             }
         }
 
         @Override
         public void onFailure(final Exception e) {
+            if (paths == null) {
+                stats.failedCycles.increment();
+                consecutiveFailures.incrementAndGet();
+                setLastError("Failed to sync config files: " + e.getMessage());
+            }
+            rewindLastChecked();
+            endCycle(e);
             listener.onFailure(e);
         }
+
+        private void endCycle(final Exception e) {
+            span.setAttribute("configsync.docs_scanned", event.docsScanned);
+            span.setAttribute(SPAN_BYTES, event.bytesWritten);
+            if (e == null) {
+                span.end();
+            } else {
+                span.end(e);
+            }
+            event.end();
+            if (event.shouldCommit()) {
+                event.succeeded = e == null;
+                event.commit();
+            }
+        }
+
+        /**
+         * Writes a file of a release to its generation directory. The file is visible after all files of the release are staged.
+         */
+        private long stageReleaseFile(final Map<String, Object> source) {
+            final StagedRelease staged =
+                    releases.computeIfAbsent(source.get(RELEASE_DIR) + "@" + source.get(RELEASE), k -> new StagedRelease(source));
+            final String path = (String) source.get(PATH);
+            final Path filePath =
+                    getReleasePath(staged.dir, staged.release).resolve(path.substring(staged.dir.length() + 1).replace("..", ""));
+            final long[] writtenBytes = { 0 };
+            final Exception e = AccessController.doPrivileged((PrivilegedAction<Exception>) () -> {
+                try {
+                    Files.createDirectories(filePath.getParent());
+                    final long[] decodeTime = { 0 };
+                    writeAtomically(filePath,
+                            out -> writtenBytes[0] = decodeTo((String) source.get(CONTENT), out, pageCacheRecycler, decodeTime));
+                    stats.decodeLatency.recordNanos(decodeTime[0]);
+                    stats.bytesWritten.add(writtenBytes[0]);
+                } catch (final Exception e1) {
+                    return e1;
+                }
+                return null;
+            });
+            if (e != null) {
+                staged.failed = true;
+                stats.failedFiles.increment();
+                setLastError("Failed to stage " + path + ": " + e.getMessage());
+                logger.warn("Failed to stage " + path, e);
+                return 0;
+            }
+            staged.paths.add(path);
+            staged.revisions.put(path, source.get(REVISION) instanceof Number ? ((Number) source.get(REVISION)).longValue() : 0);
+            return writtenBytes[0];
+        }
+
+        /**
+         * Switches directories to releases staged in this cycle. A release is applied only when all files are staged.
+         * A release whose files are not found in RELEASE_WAIT, for example because they failed to be stored, is discarded,
+         * and the directory keeps the previous generation.
+         */
+        private void applyReleases() {
+            final List<StagedRelease> stagedReleases = new ArrayList<>(releases.values());
+            stagedReleases.sort((r1, r2) -> Long.compare(r1.getTimestamp(), r2.getTimestamp()));
+            for (final StagedRelease staged : stagedReleases) {
+                final boolean complete = !staged.failed && staged.paths.size() >= staged.numOfFiles;
+                if (!complete && System.currentTimeMillis() - staged.getTimestamp() < RELEASE_WAIT.millis()) {
+                    logger.info("Release {} of {} is not complete: {}/{} files", staged.release, staged.dir, staged.paths.size(),
+                            staged.numOfFiles);
+                    if (lastChecked.getTime() > staged.getTimestamp()) {
+                        lastChecked = new Date(staged.getTimestamp());
+                    }
+                } else if (!complete) {
+                    if (staged.failed) {
+                        logger.warn("Discarded release {} of {} because files could not be staged.", staged.release, staged.dir);
+                        failedPaths.addAll(staged.paths);
+                    } else {
+                        setLastError("Release " + staged.release + " of " + staged.dir + " is not complete: " + staged.paths.size() + "/"
+                                + staged.numOfFiles + " files");
+                        logger.warn("Discarded release {} of {} because only {}/{} files are found.", staged.release, staged.dir,
+                                staged.paths.size(), staged.numOfFiles);
+                    }
+                    AccessController.doPrivileged((PrivilegedAction<Void>) () -> {
+                        try {
+                            final Path generation = getReleasePath(staged.dir, staged.release);
+                            final Path link = getConfigFilePath(staged.dir);
+                            // files of the current generation may be found again, for example after a reset
+                            if (!Files.isSymbolicLink(link) || !Files.readSymbolicLink(link).equals(generation)) {
+                                IOUtils.rm(generation);
+                            }
+                        } catch (final IOException e) {
+                            logger.warn("Failed to delete release " + staged.release + " of " + staged.dir, e);
+                        }
+                        return null;
+                    });
+                } else {
+                    switchRelease(staged, changedPaths);
+                }
+            }
+        }
+
+        /**
+         * Handles a file whose blob is not found, for example because the blob of a release is not replicated yet.
+         * The file is checked again in the next cycle.
+         */
+        private void onBlobNotFound(final Map<String, Object> source) {
+            final String path = (String) source.get(PATH);
+            stats.failedFiles.increment();
+            failedPaths.add(path);
+            setLastError("Blob of " + path + " is not found: " + source.get(HASH));
+            logger.warn("Blob of {} is not found: {}", path, source.get(HASH));
+            try {
+                final Date timestamp = getTimestamp(source.get(TIMESTAMP));
+                if (checkedFrom != null && lastChecked.after(timestamp)) {
+                    lastChecked = timestamp;
+                }
+            } catch (final ParseException e) {
+                logger.warn("Invalid timestamp of " + path, e);
+            }
+        }
+
+        /**
+         * Moves the checked time back so that files in an incomplete cycle are processed in the next cycle.
+         */
+        private void rewindLastChecked() {
+            if (checkedFrom != null && checkedFrom.before(lastChecked)) {
+                lastChecked = checkedFrom;
+            }
+        }
     }
 
-    private static void decodeToFile(final String dataToDecode, final String filename) throws java.io.IOException {
-        try (final Base64OutputStream os = new Base64OutputStream(new FileOutputStream(filename), false)) {
-            os.write(dataToDecode.getBytes(StandardCharsets.UTF_8));
+    /**
+     * Reloads search analyzers of indices on this node which refer to files changed in a sync cycle.
+     * Only local shards are reloaded, so each node reloads its own shards once after writing its own files,
+     * and no shard is reloaded before its node has the new file.
+     */
+    private void reloadAnalyzers(final Set<String> changedPaths) {
+        final ClusterState state = clusterService.state();
+        if (changedPaths.isEmpty() || indicesService == null
+                || !state.getMetadata().settings().getAsBoolean(RELOAD_ANALYZERS_SETTING.getKey(), reloadAnalyzersEnabled)) {
+            return;
+        }
+        final List<String> indices = new ArrayList<>();
+        for (final Map.Entry<String, Set<String>> entry : ConfigPathFilter
+                .getReferencedPathsByIndex(state, state.nodes().getLocalNode(), configPath).entrySet()) {
+            if (!Collections.disjoint(entry.getValue(), changedPaths)) {
+                indices.add(entry.getKey());
+            }
+        }
+        if (indices.isEmpty()) {
+            return;
+        }
+        if (logger.isDebugEnabled()) {
+            logger.debug("Reloading search analyzers of {} for {}", indices, changedPaths);
         }
+        // analyzers read their files while reloading, so it does not run on the thread of the search response
+        threadPool.generic().execute(() -> {
+            final List<String> reloaded = new ArrayList<>();
+            for (final String name : indices) {
+                final IndexMetadata indexMetadata = state.getMetadata().index(name);
+                final IndexService indexService = indexMetadata != null ? indicesService.indexService(indexMetadata.getIndex()) : null;
+                if (indexService == null) {
+                    // the shard is not created yet, and it reads the new file when it is created
+                    continue;
+                }
+                final Exception e = AccessController.doPrivileged((PrivilegedAction<Exception>) () -> {
+                    try {
+                        indexService.mapperService().reloadSearchAnalyzers(indicesService.getAnalysis(), null, false);
+                    } catch (final Exception e1) {
+                        return e1;
+                    }
+                    return null;
+                });
+                if (e != null) {
+                    logger.warn("Failed to reload search analyzers of " + name, e);
+                } else {
+                    reloaded.add(name);
+                }
+            }
+            if (!reloaded.isEmpty()) {
+                logger.info("Reloaded search analyzers of {}", reloaded);
+            }
+        });
+    }
+
+    public void setBigArrays(final BigArrays bigArrays) {
+        this.bigArrays = bigArrays;
+    }
+
+    public void setPageCacheRecycler(final PageCacheRecycler pageCacheRecycler) {
+        this.pageCacheRecycler = pageCacheRecycler;
+    }
+
+    public void setCircuitBreakerService(final CircuitBreakerService circuitBreakerService) {
+        this.circuitBreakerService = circuitBreakerService;
+    }
+
+    public void setIndicesService(final IndicesService indicesService) {
+        this.indicesService = indicesService;
     }
 
     public void setFileFlushAction(final TransportFileFlushAction fileFlushAction) {
@@ -591,4 +4071,20 @@ public class ConfigSyncService extends AbstractLifecycleComponent {
     public void setResetSyncAction(final TransportResetSyncAction resetSyncAction) {
         this.resetSyncAction = resetSyncAction;
     }
+
+    public void setVerifyAction(final TransportVerifyAction verifyAction) {
+        this.verifyAction = verifyAction;
+    }
+
+    public void setStatsAction(final TransportStatsAction statsAction) {
+        this.statsAction = statsAction;
+    }
+
+    public void setStatusAction(final TransportStatusAction statusAction) {
+        this.statusAction = statusAction;
+    }
+
+    public void setFileChunkAction(final TransportFileChunkAction fileChunkAction) {
+        this.fileChunkAction = fileChunkAction;
+    }
 }
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2012-2022 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.elasticsearch.configsync.service;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.elasticsearch.common.settings.Setting;
+import org.elasticsearch.common.settings.Setting.Property;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.core.TimeValue;
+
+/**
+ * Logs sync cycles and synced files which exceed thresholds, like slow logs of Elasticsearch.
+ * Thresholds are loaded from cluster settings at the start of each cycle, and -1 disables them.
+ */
+public class ConfigSyncSlowLog {
+
+    static final String LOGGER_NAME = "org.codelibs.elasticsearch.configsync.slowlog";
+
+    private static final Logger logger = LogManager.getLogger(LOGGER_NAME);
+
+    private static final String PREFIX = "configsync.slowlog.threshold.";
+
+    public static final Setting<TimeValue> CYCLE_WARN_SETTING =
+            Setting.timeSetting(PREFIX + "cycle.warn", TimeValue.MINUS_ONE, TimeValue.MINUS_ONE, Property.NodeScope, Property.Dynamic);
+
+    public static final Setting<TimeValue> CYCLE_INFO_SETTING =
+            Setting.timeSetting(PREFIX + "cycle.info", TimeValue.MINUS_ONE, TimeValue.MINUS_ONE, Property.NodeScope, Property.Dynamic);
+
+    public static final Setting<TimeValue> WRITE_WARN_SETTING =
+            Setting.timeSetting(PREFIX + "write.warn", TimeValue.MINUS_ONE, TimeValue.MINUS_ONE, Property.NodeScope, Property.Dynamic);
+
+    public static final Setting<TimeValue> WRITE_INFO_SETTING =
+            Setting.timeSetting(PREFIX + "write.info", TimeValue.MINUS_ONE, TimeValue.MINUS_ONE, Property.NodeScope, Property.Dynamic);
+
+    public static final Setting<ByteSizeValue> SIZE_WARN_SETTING =
+            Setting.byteSizeSetting(PREFIX + "size.warn", ByteSizeValue.MINUS_ONE, Property.NodeScope, Property.Dynamic);
+
+    public static final Setting<ByteSizeValue> SIZE_INFO_SETTING =
+            Setting.byteSizeSetting(PREFIX + "size.info", ByteSizeValue.MINUS_ONE, Property.NodeScope, Property.Dynamic);
+
+    private final Settings nodeSettings;
+
+    private final String nodeName;
+
+    private volatile long cycleWarnThreshold;
+
+    private volatile long cycleInfoThreshold;
+
+    private volatile long writeWarnThreshold;
+
+    private volatile long writeInfoThreshold;
+
+    private volatile long sizeWarnThreshold;
+
+    private volatile long sizeInfoThreshold;
+
+    public ConfigSyncSlowLog(final Settings nodeSettings, final String nodeName) {
+        this.nodeSettings = nodeSettings;
+        this.nodeName = nodeName;
+        load(Settings.EMPTY);
+    }
+
+    /**
+     * Loads thresholds from cluster settings. Node settings are used if they are not set.
+     */
+    public void load(final Settings clusterSettings) {
+        cycleWarnThreshold = getNanos(clusterSettings, CYCLE_WARN_SETTING);
+        cycleInfoThreshold = getNanos(clusterSettings, CYCLE_INFO_SETTING);
+        writeWarnThreshold = getNanos(clusterSettings, WRITE_WARN_SETTING);
+        writeInfoThreshold = getNanos(clusterSettings, WRITE_INFO_SETTING);
+        sizeWarnThreshold = getBytes(clusterSettings, SIZE_WARN_SETTING);
+        sizeInfoThreshold = getBytes(clusterSettings, SIZE_INFO_SETTING);
+    }
+
+    private long getNanos(final Settings clusterSettings, final Setting<TimeValue> setting) {
+        return clusterSettings.getAsTime(setting.getKey(), setting.get(nodeSettings)).nanos();
+    }
+
+    private long getBytes(final Settings clusterSettings, final Setting<ByteSizeValue> setting) {
+        return clusterSettings.getAsBytesSize(setting.getKey(), setting.get(nodeSettings)).getBytes();
+    }
+
+    public void onFileUpdated(final String path, final long bytes, final long decodeNanos, final long writeNanos) {
+        final long tookNanos = decodeNanos + writeNanos;
+        final Level level;
+        if (isExceeded(tookNanos, writeWarnThreshold) || isExceeded(bytes, sizeWarnThreshold)) {
+            level = Level.WARN;
+        } else if (isExceeded(tookNanos, writeInfoThreshold) || isExceeded(bytes, sizeInfoThreshold)) {
+            level = Level.INFO;
+        } else {
+            return;
+        }
+        logger.log(level, "[{}] file: path[{}], bytes[{}], took[{}], took_millis[{}], decode[{}], write[{}]", nodeName, path, bytes,
+                TimeValue.timeValueNanos(tookNanos), TimeUnit.NANOSECONDS.toMillis(tookNanos), TimeValue.timeValueNanos(decodeNanos),
+                TimeValue.timeValueNanos(writeNanos));
+    }
+
+    public void onCycleCompleted(final long tookNanos, final long docsScanned, final long bytes, final long searchNanos) {
+        final Level level;
+        if (isExceeded(tookNanos, cycleWarnThreshold)) {
+            level = Level.WARN;
+        } else if (isExceeded(tookNanos, cycleInfoThreshold)) {
+            level = Level.INFO;
+        } else {
+            return;
+        }
+        logger.log(level, "[{}] cycle: took[{}], took_millis[{}], docs[{}], bytes[{}], search[{}], apply[{}]", nodeName,
+                TimeValue.timeValueNanos(tookNanos), TimeUnit.NANOSECONDS.toMillis(tookNanos), docsScanned, bytes,
+                TimeValue.timeValueNanos(searchNanos), TimeValue.timeValueNanos(Math.max(0, tookNanos - searchNanos)));
+    }
+
+    private static boolean isExceeded(final long value, final long threshold) {
+        return threshold >= 0 && value >= threshold;
+    }
+}
@@ -0,0 +1,378 @@
+/*
+ * Copyright 2012-2022 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.elasticsearch.configsync.service;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.io.stream.Writeable;
+
+/**
+ * Counters and latency histograms of the sync process on a node.
+ */
+public class ConfigSyncStats {
+
+    final LongAdder cycles = new LongAdder();
+
+    final LongAdder failedCycles = new LongAdder();
+
+    final LongAdder docsScanned = new LongAdder();
+
+    final LongAdder filesWritten = new LongAdder();
+
+    final LongAdder filesSkipped = new LongAdder();
+
+    final LongAdder filesDeleted = new LongAdder();
+
+    final LongAdder failedFiles = new LongAdder();
+
+    final LongAdder bytesWritten = new LongAdder();
+
+    final LongAdder bytesFetchedFromPeers = new LongAdder();
+
+    final LongAdder bytesServedToPeers = new LongAdder();
+
+    final LongAdder blocksReused = new LongAdder();
+
+    final LongAdder blocksFetched = new LongAdder();
+
+    final LatencyHistogram searchLatency = new LatencyHistogram();
+
+    final LatencyHistogram decodeLatency = new LatencyHistogram();
+
+    final LatencyHistogram writeLatency = new LatencyHistogram();
+
+    final LatencyHistogram cycleLatency = new LatencyHistogram();
+
+    private volatile long lastSyncedTime = -1;
+
+    void setLastSyncedTime(final long time) {
+        lastSyncedTime = time;
+    }
+
+    public long getLastSyncedTime() {
+        return lastSyncedTime;
+    }
+
+    public Snapshot snapshot() {
+        final long lag = lastSyncedTime < 0 ? -1 : Math.max(0, System.currentTimeMillis() - lastSyncedTime);
+        return new Snapshot(cycles.sum(), failedCycles.sum(), docsScanned.sum(), filesWritten.sum(), filesSkipped.sum(),
+                filesDeleted.sum(), failedFiles.sum(), bytesWritten.sum(), bytesFetchedFromPeers.sum(), bytesServedToPeers.sum(),
+                blocksReused.sum(), blocksFetched.sum(), lag, searchLatency.snapshot(), decodeLatency.snapshot(), writeLatency.snapshot(),
+                cycleLatency.snapshot());
+    }
+
+    /**
+     * Log-linear histogram of latencies in microseconds. Each power of two is divided into 8 buckets,
+     * so recorded values are kept within 12.5% error, as in HdrHistogram.
+     */
+    public static class LatencyHistogram {
+
+        private static final int SUB_BUCKET_BITS = 3;
+
+        private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+        static final int NUM_OF_BUCKETS = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+        private final LongAdder[] buckets = new LongAdder[NUM_OF_BUCKETS];
+
+        private final LongAdder sum = new LongAdder();
+
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+        LatencyHistogram() {
+            for (int i = 0; i < NUM_OF_BUCKETS; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        public void recordNanos(final long nanos) {
+            final long micros = Math.max(0, TimeUnit.NANOSECONDS.toMicros(nanos));
+            buckets[getBucketIndex(micros)].increment();
+            sum.add(micros);
+            max.accumulate(micros);
+        }
+
+        static int getBucketIndex(final long value) {
+            if (value < SUB_BUCKETS) {
+                return (int) value;
+            }
+            final int exponent = 63 - Long.numberOfLeadingZeros(value);
+            final int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+            return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+        }
+
+        static long getBucketUpperBound(final int index) {
+            if (index < SUB_BUCKETS) {
+                return index;
+            }
+            final int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+            final long subBucket = index % SUB_BUCKETS;
+            return ((SUB_BUCKETS + subBucket + 1) << (exponent - SUB_BUCKET_BITS)) - 1;
+        }
+
+        HistogramSnapshot snapshot() {
+            final long[] counts = new long[NUM_OF_BUCKETS];
+            for (int i = 0; i < NUM_OF_BUCKETS; i++) {
+                counts[i] = buckets[i].sum();
+            }
+            return new HistogramSnapshot(counts, sum.sum(), max.get());
+        }
+    }
+
+    public static class HistogramSnapshot implements Writeable {
+
+        private final long[] counts;
+
+        private final long sum;
+
+        private final long max;
+
+        HistogramSnapshot(final long[] counts, final long sum, final long max) {
+            this.counts = counts;
+            this.sum = sum;
+            this.max = max;
+        }
+
+        public HistogramSnapshot(final StreamInput in) throws IOException {
+            counts = new long[LatencyHistogram.NUM_OF_BUCKETS];
+            final int size = in.readVInt();
+            for (int i = 0; i < size; i++) {
+                counts[in.readVInt()] = in.readVLong();
+            }
+            sum = in.readVLong();
+            max = in.readVLong();
+        }
+
+        @Override
+        public void writeTo(final StreamOutput out) throws IOException {
+            int size = 0;
+            for (final long count : counts) {
+                if (count > 0) {
+                    size++;
+                }
+            }
+            out.writeVInt(size);
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] > 0) {
+                    out.writeVInt(i);
+                    out.writeVLong(counts[i]);
+                }
+            }
+            out.writeVLong(sum);
+            out.writeVLong(max);
+        }
+
+        public long getCount() {
+            long count = 0;
+            for (final long value : counts) {
+                count += value;
+            }
+            return count;
+        }
+
+        public long getPercentile(final double percentile) {
+            final long count = getCount();
+            if (count == 0) {
+                return 0;
+            }
+            final long rank = (long) Math.ceil(count * percentile / 100.0);
+            long total = 0;
+            for (int i = 0; i < counts.length; i++) {
+                total += counts[i];
+                if (total >= rank) {
+                    return Math.min(LatencyHistogram.getBucketUpperBound(i), max);
+                }
+            }
+            return max;
+        }
+
+        HistogramSnapshot merge(final HistogramSnapshot other) {
+            final long[] merged = new long[counts.length];
+            for (int i = 0; i < counts.length; i++) {
+                merged[i] = counts[i] + other.counts[i];
+            }
+            return new HistogramSnapshot(merged, sum + other.sum, Math.max(max, other.max));
+        }
+
+        public Map<String, Object> toMap() {
+            final long count = getCount();
+            final Map<String, Object> map = new HashMap<>();
+            map.put("count", count);
+            map.put("total_in_micros", sum);
+            map.put("avg_in_micros", count > 0 ? sum / count : 0);
+            map.put("p50_in_micros", getPercentile(50));
+            map.put("p90_in_micros", getPercentile(90));
+            map.put("p99_in_micros", getPercentile(99));
+            map.put("max_in_micros", max);
+            return map;
+        }
+    }
+
+    public static class Snapshot implements Writeable {
+
+        private final long cycles;
+
+        private final long failedCycles;
+
+        private final long docsScanned;
+
+        private final long filesWritten;
+
+        private final long filesSkipped;
+
+        private final long filesDeleted;
+
+        private final long failedFiles;
+
+        private final long bytesWritten;
+
+        private final long bytesFetchedFromPeers;
+
+        private final long bytesServedToPeers;
+
+        private final long blocksReused;
+
+        private final long blocksFetched;
+
+        private final long lagInMillis;
+
+        private final HistogramSnapshot searchLatency;
+
+        private final HistogramSnapshot decodeLatency;
+
+        private final HistogramSnapshot writeLatency;
+
+        private final HistogramSnapshot cycleLatency;
+
+        Snapshot(final long cycles, final long failedCycles, final long docsScanned, final long filesWritten, final long filesSkipped,
+                final long filesDeleted, final long failedFiles, final long bytesWritten, final long bytesFetchedFromPeers,
+                final long bytesServedToPeers, final long blocksReused, final long blocksFetched, final long lagInMillis,
+                final HistogramSnapshot searchLatency, final HistogramSnapshot decodeLatency, final HistogramSnapshot writeLatency,
+                final HistogramSnapshot cycleLatency) {
+            this.cycles = cycles;
+            this.failedCycles = failedCycles;
+            this.docsScanned = docsScanned;
+            this.filesWritten = filesWritten;
+            this.filesSkipped = filesSkipped;
+            this.filesDeleted = filesDeleted;
+            this.failedFiles = failedFiles;
+            this.bytesWritten = bytesWritten;
+            this.bytesFetchedFromPeers = bytesFetchedFromPeers;
+            this.bytesServedToPeers = bytesServedToPeers;
+            this.blocksReused = blocksReused;
+            this.blocksFetched = blocksFetched;
+            this.lagInMillis = lagInMillis;
+            this.searchLatency = searchLatency;
+            this.decodeLatency = decodeLatency;
+            this.writeLatency = writeLatency;
+            this.cycleLatency = cycleLatency;
+        }
+
+        public Snapshot(final StreamInput in) throws IOException {
+            cycles = in.readVLong();
+            failedCycles = in.readVLong();
+            docsScanned = in.readVLong();
+            filesWritten = in.readVLong();
+            filesSkipped = in.readVLong();
+            filesDeleted = in.readVLong();
+            failedFiles = in.readVLong();
+            bytesWritten = in.readVLong();
+            bytesFetchedFromPeers = in.readVLong();
+            bytesServedToPeers = in.readVLong();
+            blocksReused = in.readVLong();
+            blocksFetched = in.readVLong();
+            lagInMillis = in.readLong();
+            searchLatency = new HistogramSnapshot(in);
+            decodeLatency = new HistogramSnapshot(in);
+            writeLatency = new HistogramSnapshot(in);
+            cycleLatency = new HistogramSnapshot(in);
+        }
+
+        @Override
+        public void writeTo(final StreamOutput out) throws IOException {
+            out.writeVLong(cycles);
+            out.writeVLong(failedCycles);
+            out.writeVLong(docsScanned);
+            out.writeVLong(filesWritten);
+            out.writeVLong(filesSkipped);
+            out.writeVLong(filesDeleted);
+            out.writeVLong(failedFiles);
+            out.writeVLong(bytesWritten);
+            out.writeVLong(bytesFetchedFromPeers);
+            out.writeVLong(bytesServedToPeers);
+            out.writeVLong(blocksReused);
+            out.writeVLong(blocksFetched);
+            out.writeLong(lagInMillis);
+            searchLatency.writeTo(out);
+            decodeLatency.writeTo(out);
+            writeLatency.writeTo(out);
+            cycleLatency.writeTo(out);
+        }
+
+        public long getLagInMillis() {
+            return lagInMillis;
+        }
+
+        /**
+         * Merges stats of two nodes. The lag is the largest one of them.
+         */
+        public Snapshot merge(final Snapshot other) {
+            return new Snapshot(cycles + other.cycles, failedCycles + other.failedCycles, docsScanned + other.docsScanned,
+                    filesWritten + other.filesWritten, filesSkipped + other.filesSkipped, filesDeleted + other.filesDeleted,
+                    failedFiles + other.failedFiles, bytesWritten + other.bytesWritten,
+                    bytesFetchedFromPeers + other.bytesFetchedFromPeers, bytesServedToPeers + other.bytesServedToPeers,
+                    blocksReused + other.blocksReused, blocksFetched + other.blocksFetched,
+                    Math.max(lagInMillis, other.lagInMillis), searchLatency.merge(other.searchLatency),
+                    decodeLatency.merge(other.decodeLatency), writeLatency.merge(other.writeLatency),
+                    cycleLatency.merge(other.cycleLatency));
+        }
+
+        public Map<String, Object> toMap() {
+            final Map<String, Object> cycleMap = new HashMap<>();
+            cycleMap.put("total", cycles);
+            cycleMap.put("failed", failedCycles);
+            final Map<String, Object> fileMap = new HashMap<>();
+            fileMap.put("scanned", docsScanned);
+            fileMap.put("written", filesWritten);
+            fileMap.put("skipped", filesSkipped);
+            fileMap.put("deleted", filesDeleted);
+            fileMap.put("failed", failedFiles);
+            fileMap.put("written_in_bytes", bytesWritten);
+            fileMap.put("fetched_from_peers_in_bytes", bytesFetchedFromPeers);
+            fileMap.put("served_to_peers_in_bytes", bytesServedToPeers);
+            fileMap.put("reused_blocks", blocksReused);
+            fileMap.put("fetched_blocks", blocksFetched);
+            final Map<String, Object> latencyMap = new HashMap<>();
+            latencyMap.put("search", searchLatency.toMap());
+            latencyMap.put("decode", decodeLatency.toMap());
+            latencyMap.put("write", writeLatency.toMap());
+            latencyMap.put("cycle", cycleLatency.toMap());
+            final Map<String, Object> map = new HashMap<>();
+            map.put("cycles", cycleMap);
+            map.put("files", fileMap);
+            map.put("latency", latencyMap);
+            map.put("lag_in_millis", lagInMillis);
+            return map;
+        }
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2012-2022 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.elasticsearch.configsync.service;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.elasticsearch.common.settings.Setting;
+import org.elasticsearch.common.settings.Setting.Property;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.ByteSizeValue;
+
+/**
+ * Rate limiter of sync I/O on a node, which is shared by file writes and uploads. It works like the rate limiter of recovery:
+ * uploads reserve their bytes and are scheduled after the returned delay, and file writes wait between chunks like
+ * a rate-limited stream of recovery, so a large file is written at the limit instead of in a burst.
+ */
+public class ConfigSyncThrottle {
+
+    public static final Setting<ByteSizeValue> MAX_BYTES_PER_SEC_SETTING =
+            Setting.byteSizeSetting("configsync.max_bytes_per_sec", ByteSizeValue.ZERO, Property.NodeScope, Property.Dynamic);
+
+    private final ByteSizeValue defaultMaxBytesPerSec;
+
+    private long nextNanos = System.nanoTime();
+
+    public ConfigSyncThrottle(final Settings settings) {
+        defaultMaxBytesPerSec = MAX_BYTES_PER_SEC_SETTING.get(settings);
+    }
+
+    /**
+     * Reserves bytes which are read or written, and returns nanoseconds to wait before the next I/O.
+     * 0 is returned if the throttling is disabled.
+     */
+    public synchronized long reserve(final Settings clusterSettings, final long bytes) {
+        final long maxBytesPerSec = getMaxBytesPerSec(clusterSettings);
+        if (maxBytesPerSec <= 0 || bytes <= 0) {
+            return 0;
+        }
+        final long now = System.nanoTime();
+        nextNanos = Math.max(nextNanos, now) + (long) (bytes * (1_000_000_000.0 / maxBytesPerSec));
+        return nextNanos - now;
+    }
+
+    /**
+     * Returns nanoseconds which reading or writing the bytes would take, including waits for bytes reserved already.
+     * The bytes are not reserved.
+     */
+    public synchronized long estimate(final Settings clusterSettings, final long bytes) {
+        final long maxBytesPerSec = getMaxBytesPerSec(clusterSettings);
+        if (maxBytesPerSec <= 0 || bytes <= 0) {
+            return 0;
+        }
+        final long now = System.nanoTime();
+        return Math.max(nextNanos, now) - now + (long) (bytes * (1_000_000_000.0 / maxBytesPerSec));
+    }
+
+    public boolean isEnabled(final Settings clusterSettings) {
+        return getMaxBytesPerSec(clusterSettings) > 0;
+    }
+
+    /**
+     * Wraps the stream, so each written chunk is reserved and the next chunk waits for its delay.
+     * The stream blocks the calling thread, so it must not be used on a network thread.
+     */
+    public OutputStream wrap(final OutputStream out, final Settings clusterSettings) {
+        if (!isEnabled(clusterSettings)) {
+            return out;
+        }
+        return new FilterOutputStream(out) {
+            @Override
+            public void write(final int b) throws IOException {
+                out.write(b);
+                pause(reserve(clusterSettings, 1));
+            }
+
+            @Override
+            public void write(final byte[] b, final int off, final int len) throws IOException {
+                out.write(b, off, len);
+                pause(reserve(clusterSettings, len));
+            }
+        };
+    }
+
+    private long getMaxBytesPerSec(final Settings clusterSettings) {
+        return clusterSettings.getAsBytesSize(MAX_BYTES_PER_SEC_SETTING.getKey(), defaultMaxBytesPerSec).getBytes();
+    }
+
+    private static void pause(final long delay) throws IOException {
+        if (delay <= 0) {
+            return;
+        }
+        try {
+            TimeUnit.NANOSECONDS.sleep(delay);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while throttling.");
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2012-2022 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.elasticsearch.configsync.service;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import org.elasticsearch.common.util.concurrent.ThreadContext;
+import org.elasticsearch.telemetry.tracing.Traceable;
+import org.elasticsearch.telemetry.tracing.Tracer;
+
+/**
+ * Creates spans of the sync pipeline with the tracer of Elasticsearch.
+ */
+public class ConfigSyncTracer {
+
+    private static final String SPAN_ID_PREFIX = "configsync-";
+
+    private final AtomicLong spanIds = new AtomicLong();
+
+    private final Tracer tracer;
+
+    private final ThreadContext threadContext;
+
+    public ConfigSyncTracer(final Tracer tracer, final ThreadContext threadContext) {
+        this.tracer = tracer;
+        this.threadContext = threadContext;
+    }
+
+    public Span startSpan(final String name, final Map<String, Object> attributes) {
+        final Span span = new Span(SPAN_ID_PREFIX + spanIds.incrementAndGet());
+        try (ThreadContext.StoredContext ignored = threadContext.newTraceContext()) {
+            tracer.startTrace(threadContext, span, name, attributes);
+            span.context = threadContext.newRestorableContext(false);
+        }
+        return span;
+    }
+
+    public class Span implements Traceable {
+
+        private final String spanId;
+
+        private Supplier<ThreadContext.StoredContext> context;
+
+        Span(final String spanId) {
+            this.spanId = spanId;
+        }
+
+        @Override
+        public String getSpanId() {
+            return spanId;
+        }
+
+        /**
+         * Restores the thread context of this span, so spans started in it become children of this span.
+         */
+        public ThreadContext.StoredContext restoreContext() {
+            return context.get();
+        }
+
+        public void setAttribute(final String key, final long value) {
+            tracer.setAttribute(this, key, value);
+        }
+
+        public void setAttribute(final String key, final String value) {
+            tracer.setAttribute(this, key, value);
+        }
+
+        public void end() {
+            tracer.stopTrace(this);
+        }
+
+        public void end(final Exception e) {
+            tracer.addError(this, e);
+            tracer.stopTrace(this);
+        }
+    }
+}
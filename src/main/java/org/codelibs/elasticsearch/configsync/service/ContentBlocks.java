@@ -0,0 +1,327 @@
+/*
+ * Copyright 2012-2022 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.elasticsearch.configsync.service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.elasticsearch.common.hash.MessageDigests;
+
+/**
+ * Block signatures of a content for rsync-style transfer. A content is split into fixed-size blocks, and each block has
+ * a weak rolling checksum and a strong hash. A node which has an old version of the file finds blocks of the new version
+ * at any offset of the local file by rolling the checksum, so only blocks which are not found locally are fetched.
+ */
+public final class ContentBlocks {
+
+    static final String WEAK = "weak";
+
+    static final String HASH = "hash";
+
+    private static final int MIN_BLOCK_SIZE = 64 * 1024;
+
+    private static final int MAX_BLOCKS = 1024;
+
+    /**
+     * Block size of the largest content, which is read into a byte array.
+     */
+    public static final int MAX_BLOCK_SIZE = (int) ((Integer.MAX_VALUE + (long) MAX_BLOCKS - 1) / MAX_BLOCKS);
+
+    private ContentBlocks() {
+    }
+
+    static int getBlockSize(final long length) {
+        return (int) Math.max(MIN_BLOCK_SIZE, (length + MAX_BLOCKS - 1) / MAX_BLOCKS);
+    }
+
+    static int getNumOfBlocks(final long length, final int blockSize) {
+        return (int) ((length + blockSize - 1) / blockSize);
+    }
+
+    /**
+     * Computes signatures of blocks in the content.
+     */
+    public static List<Map<String, Object>> compute(final byte[] content, final int blockSize) {
+        final List<Map<String, Object>> blocks = new ArrayList<>();
+        for (int offset = 0; offset < content.length; offset += blockSize) {
+            final int length = Math.min(blockSize, content.length - offset);
+            final Map<String, Object> block = new HashMap<>();
+            block.put(WEAK, ContentDelta.RollingChecksum.checksum(content, offset, length));
+            final MessageDigest digest = MessageDigests.sha256();
+            digest.update(content, offset, length);
+            block.put(HASH, MessageDigests.toHexString(digest.digest()));
+            blocks.add(block);
+        }
+        return blocks;
+    }
+
+    /**
+     * Creates a plan to build a content of the size from the signatures. Blocks are searched in the local file if it is given.
+     */
+    static Plan plan(final String hash, final long size, final int blockSize, final List<?> signatures, final Path localPath)
+            throws IOException {
+        final int numOfBlocks = getNumOfBlocks(size, blockSize);
+        if (signatures.size() != numOfBlocks) {
+            throw new IOException("Invalid signatures: " + signatures.size() + " blocks for " + size + " bytes");
+        }
+        final int[] weaks = new int[numOfBlocks];
+        final String[] hashes = new String[numOfBlocks];
+        for (int i = 0; i < numOfBlocks; i++) {
+            final Map<?, ?> signature = (Map<?, ?>) signatures.get(i);
+            weaks[i] = ((Number) signature.get(WEAK)).intValue();
+            hashes[i] = (String) signature.get(HASH);
+        }
+        final Plan plan = new Plan(hash, size, blockSize, hashes);
+        if (localPath != null && Files.isRegularFile(localPath)) {
+            plan.localPath = localPath;
+            findLocalBlocks(plan, weaks);
+        }
+        return plan;
+    }
+
+    /**
+     * Finds blocks in the local file. The checksum is rolled byte by byte until a block is found,
+     * and the search continues after the found block, as rsync does.
+     */
+    private static void findLocalBlocks(final Plan plan, final int[] weaks) throws IOException {
+        try (FileChannel channel = FileChannel.open(plan.localPath, StandardOpenOption.READ)) {
+            final long fileSize = channel.size();
+            if (plan.offsets.length == 0 || fileSize > Integer.MAX_VALUE) {
+                return;
+            }
+            final MappedByteBuffer buffer = channel.map(MapMode.READ_ONLY, 0, fileSize);
+            final int blockSize = plan.blockSize;
+            final int lastIndex = plan.offsets.length - 1;
+            final int lastLength = (int) (plan.size - (long) lastIndex * blockSize);
+            // a short last block is checked only at the end of the file
+            if (lastLength < blockSize && fileSize >= lastLength
+                    && plan.hashes[lastIndex].equals(hash(buffer, (int) fileSize - lastLength, lastLength))) {
+                plan.offsets[lastIndex] = fileSize - lastLength;
+            }
+            final Map<Integer, List<Integer>> blocks = new HashMap<>();
+            for (int i = 0; i < plan.offsets.length; i++) {
+                if (i != lastIndex || lastLength == blockSize) {
+                    blocks.computeIfAbsent(weaks[i], k -> new ArrayList<>()).add(i);
+                }
+            }
+            final byte[] window = new byte[blockSize];
+            int pos = 0;
+            ContentDelta.RollingChecksum checksum = null;
+            while (pos + blockSize <= fileSize) {
+                if (checksum == null) {
+                    buffer.get(pos, window);
+                    checksum = new ContentDelta.RollingChecksum(window, 0, blockSize);
+                }
+                final List<Integer> candidates = blocks.get(checksum.getValue());
+                boolean found = false;
+                if (candidates != null) {
+                    String strongHash = null;
+                    for (final Integer index : candidates) {
+                        if (plan.offsets[index] >= 0) {
+                            continue;
+                        }
+                        if (strongHash == null) {
+                            strongHash = hash(buffer, pos, blockSize);
+                        }
+                        if (strongHash.equals(plan.hashes[index])) {
+                            plan.offsets[index] = pos;
+                            found = true;
+                        }
+                    }
+                }
+                if (found) {
+                    pos += blockSize;
+                    checksum = null;
+                } else {
+                    if (pos + blockSize >= fileSize) {
+                        break;
+                    }
+                    checksum.roll(buffer.get(pos), buffer.get(pos + blockSize));
+                    pos++;
+                }
+            }
+        }
+    }
+
+    private static String hash(final ByteBuffer buffer, final int offset, final int length) {
+        final MessageDigest digest = MessageDigests.sha256();
+        digest.update(buffer.slice(offset, length));
+        return MessageDigests.toHexString(digest.digest());
+    }
+
+    /**
+     * Blocks to build a content. Each block is copied from the local file, or fetched.
+     */
+    static class Plan {
+
+        private final String hash;
+
+        private final long size;
+
+        private final int blockSize;
+
+        private final String[] hashes;
+
+        private final long[] offsets;
+
+        private final byte[][] fetchedBlocks;
+
+        private Path localPath;
+
+        Plan(final String hash, final long size, final int blockSize, final String[] hashes) {
+            this.hash = hash;
+            this.size = size;
+            this.blockSize = blockSize;
+            this.hashes = hashes;
+            offsets = new long[hashes.length];
+            Arrays.fill(offsets, -1);
+            fetchedBlocks = new byte[hashes.length][];
+        }
+
+        String getHash() {
+            return hash;
+        }
+
+        long getSize() {
+            return size;
+        }
+
+        long getBlockOffset(final int index) {
+            return (long) index * blockSize;
+        }
+
+        int getBlockLength(final int index) {
+            return (int) Math.min(blockSize, size - getBlockOffset(index));
+        }
+
+        /**
+         * Returns indexes of blocks which are not found in the local file.
+         */
+        List<Integer> getMissingBlocks() {
+            final List<Integer> missingBlocks = new ArrayList<>();
+            for (int i = 0; i < offsets.length; i++) {
+                if (offsets[i] < 0) {
+                    missingBlocks.add(i);
+                }
+            }
+            return missingBlocks;
+        }
+
+        /**
+         * Returns indexes of blocks which are neither found in the local file nor fetched yet.
+         */
+        List<Integer> getBlocksToFetch() {
+            final List<Integer> blocksToFetch = new ArrayList<>();
+            for (int i = 0; i < offsets.length; i++) {
+                if (offsets[i] < 0 && fetchedBlocks[i] == null) {
+                    blocksToFetch.add(i);
+                }
+            }
+            return blocksToFetch;
+        }
+
+        int getNumOfLocalBlocks() {
+            return offsets.length - getMissingBlocks().size();
+        }
+
+        /**
+         * Sets a fetched block, and ignores it if its length or hash does not match the signature.
+         */
+        boolean setBlock(final int index, final byte[] content) {
+            if (content.length != getBlockLength(index)) {
+                return false;
+            }
+            final MessageDigest digest = MessageDigests.sha256();
+            digest.update(content);
+            if (!hashes[index].equals(MessageDigests.toHexString(digest.digest()))) {
+                return false;
+            }
+            fetchedBlocks[index] = content;
+            return true;
+        }
+
+        long getFetchedBytes() {
+            long bytes = 0;
+            for (final byte[] block : fetchedBlocks) {
+                bytes += block != null ? block.length : 0;
+            }
+            return bytes;
+        }
+
+        boolean isComplete() {
+            for (int i = 0; i < offsets.length; i++) {
+                if (offsets[i] < 0 && fetchedBlocks[i] == null) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Writes the content, and fails if its hash does not match.
+         */
+        long writeTo(final OutputStream out) throws IOException {
+            final DigestOutputStream digestOut = new DigestOutputStream(out, MessageDigests.sha256());
+            long written = 0;
+            try (FileChannel channel = localPath != null ? FileChannel.open(localPath, StandardOpenOption.READ) : null) {
+                final byte[] buf = new byte[blockSize];
+                for (int i = 0; i < offsets.length; i++) {
+                    final int length = getBlockLength(i);
+                    if (offsets[i] >= 0) {
+                        final ByteBuffer buffer = ByteBuffer.wrap(buf, 0, length);
+                        while (buffer.hasRemaining()) {
+                            if (channel.read(buffer, offsets[i] + buffer.position()) < 0) {
+                                throw new IOException("Unexpected end of " + localPath);
+                            }
+                        }
+                        digestOut.write(buf, 0, length);
+                    } else if (fetchedBlocks[i] != null && fetchedBlocks[i].length == length) {
+                        digestOut.write(fetchedBlocks[i]);
+                    } else {
+                        throw new IOException("Block " + i + " is not found.");
+                    }
+                    written += length;
+                }
+            }
+            final String actual = MessageDigests.toHexString(digestOut.getMessageDigest().digest());
+            if (!actual.equals(hash)) {
+                throw new IOException("Hash mismatch: expected=" + hash + ", actual=" + actual);
+            }
+            return written;
+        }
+
+        byte[] toBytes() throws IOException {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream((int) size);
+            writeTo(out);
+            return out.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright 2012-2022 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.elasticsearch.configsync.service;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.io.stream.BytesStreamOutput;
+import org.elasticsearch.common.io.stream.StreamInput;
+
+/**
+ * Binary delta between two contents. A delta consists of copy operations from a base content
+ * and insert operations of literal bytes, and blocks of the base are found by a rolling checksum.
+ */
+public final class ContentDelta {
+
+    private static final byte VERSION = 1;
+
+    private static final byte END = 0;
+
+    private static final byte COPY = 1;
+
+    private static final byte INSERT = 2;
+
+    private static final int MIN_BLOCK_SIZE = 64;
+
+    private static final int MAX_BLOCKS = 65536;
+
+    private ContentDelta() {
+    }
+
+    static int getBlockSize(final int length) {
+        return Math.max(MIN_BLOCK_SIZE, length / MAX_BLOCKS + 1);
+    }
+
+    /**
+     * Creates a delta to build the target content from the base content.
+     */
+    public static byte[] encode(final byte[] base, final byte[] target) throws IOException {
+        try (BytesStreamOutput out = new BytesStreamOutput()) {
+            out.writeByte(VERSION);
+            final int blockSize = getBlockSize(base.length);
+            int literalStart = 0;
+            if (base.length >= blockSize && target.length >= blockSize) {
+                final Map<Integer, Integer> blocks = new HashMap<>();
+                for (int offset = 0; offset + blockSize <= base.length; offset += blockSize) {
+                    blocks.putIfAbsent(RollingChecksum.checksum(base, offset, blockSize), offset);
+                }
+                int pos = 0;
+                RollingChecksum checksum = new RollingChecksum(target, pos, blockSize);
+                while (true) {
+                    final Integer offset = blocks.get(checksum.getValue());
+                    if (offset != null && equals(base, offset, target, pos, blockSize)) {
+                        int length = blockSize;
+                        while (offset + length < base.length && pos + length < target.length
+                                && base[offset + length] == target[pos + length]) {
+                            length++;
+                        }
+                        writeInsert(out, target, literalStart, pos - literalStart);
+                        out.writeByte(COPY);
+                        out.writeVLong(offset);
+                        out.writeVInt(length);
+                        pos += length;
+                        literalStart = pos;
+                        if (pos + blockSize > target.length) {
+                            break;
+                        }
+                        checksum = new RollingChecksum(target, pos, blockSize);
+                    } else {
+                        if (pos + blockSize >= target.length) {
+                            break;
+                        }
+                        checksum.roll(target[pos], target[pos + blockSize]);
+                        pos++;
+                    }
+                }
+            }
+            writeInsert(out, target, literalStart, target.length - literalStart);
+            out.writeByte(END);
+            return BytesReference.toBytes(out.bytes());
+        }
+    }
+
+    /**
+     * Builds the target content from the base content and the delta.
+     */
+    public static byte[] apply(final byte[] base, final byte[] delta) throws IOException {
+        try (StreamInput in = StreamInput.wrap(delta); BytesStreamOutput out = new BytesStreamOutput()) {
+            final byte version = in.readByte();
+            if (version != VERSION) {
+                throw new IOException("Unsupported delta version: " + version);
+            }
+            while (true) {
+                final byte op = in.readByte();
+                switch (op) {
+                case COPY: {
+                    final long offset = in.readVLong();
+                    final int length = in.readVInt();
+                    if (offset < 0 || offset + length > base.length) {
+                        throw new IOException("Invalid copy operation: offset=" + offset + ", length=" + length);
+                    }
+                    out.writeBytes(base, (int) offset, length);
+                    break;
+                }
+                case INSERT: {
+                    final int length = in.readVInt();
+                    final byte[] bytes = new byte[length];
+                    in.readBytes(bytes, 0, length);
+                    out.writeBytes(bytes);
+                    break;
+                }
+                case END:
+                    return BytesReference.toBytes(out.bytes());
+                default:
+                    throw new IOException("Unknown delta operation: " + op);
+                }
+            }
+        }
+    }
+
+    private static void writeInsert(final BytesStreamOutput out, final byte[] target, final int offset, final int length)
+            throws IOException {
+        if (length > 0) {
+            out.writeByte(INSERT);
+            out.writeVInt(length);
+            out.writeBytes(target, offset, length);
+        }
+    }
+
+    private static boolean equals(final byte[] a, final int aOffset, final byte[] b, final int bOffset, final int length) {
+        for (int i = 0; i < length; i++) {
+            if (a[aOffset + i] != b[bOffset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Weak checksum which can be rolled by one byte, as used in rsync.
+     */
+    public static final class RollingChecksum {
+
+        private final int length;
+
+        private int a;
+
+        private int b;
+
+        public RollingChecksum(final byte[] data, final int offset, final int length) {
+            this.length = length;
+            for (int i = 0; i < length; i++) {
+                final int value = data[offset + i] & 0xff;
+                a += value;
+                b += (length - i) * value;
+            }
+        }
+
+        public static int checksum(final byte[] data, final int offset, final int length) {
+            return new RollingChecksum(data, offset, length).getValue();
+        }
+
+        public void roll(final byte out, final byte in) {
+            a += (in & 0xff) - (out & 0xff);
+            b += a - length * (out & 0xff);
+        }
+
+        public int getValue() {
+            return (a & 0xffff) | (b << 16);
+        }
+    }
+}
@@ -21,16 +21,24 @@ import java.io.BufferedInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.Base64;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
 import org.codelibs.curl.CurlResponse;
 import org.codelibs.elasticsearch.runner.ElasticsearchClusterRunner;
 import org.codelibs.elasticsearch.runner.net.EcrCurl;
 import org.elasticsearch.action.admin.cluster.settings.ClusterUpdateSettingsResponse;
+import org.elasticsearch.cluster.ClusterState;
 import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.common.settings.Settings.Builder;
 import org.elasticsearch.index.IndexNotFoundException;
@@ -497,6 +505,357 @@ public class ConfigSyncPluginTest extends TestCase {
         }
     }
 
+    public void test_deleteFiles_withFlush() throws Exception {
+        setupClusterRunnder(null, "1m");
+
+        Node node = runner.node();
+
+        configFiles = new File[numOfNode];
+        for (int i = 0; i < numOfNode; i++) {
+            String homePath = runner.getNode(i).settings().get("path.home");
+            configFiles[i] = new File(new File(homePath, "config"), "dir1/test1.txt");
+        }
+
+        try (CurlResponse response = EcrCurl.post(node, "/_configsync/file").header("Content-Type", "application/json")
+                .param("path", "dir1/test1.txt").body("Test1").execute()) {
+            Map<String, Object> contentMap = response.getContent(EcrCurl.jsonParser());
+            assertEquals("true", contentMap.get("acknowledged").toString());
+        }
+
+        try (CurlResponse response = EcrCurl.post(node, "/_configsync/flush").header("Content-Type", "application/json").execute()) {
+            Map<String, Object> contentMap = response.getContent(EcrCurl.jsonParser());
+            assertEquals("true", contentMap.get("acknowledged").toString());
+        }
+
+        for (int i = 0; i < numOfNode; i++) {
+            assertTrue(configFiles[i].exists());
+            assertEquals("Test1", new String(getText(configFiles[i])));
+        }
+
+        Thread.sleep(10L);
+
+        try (CurlResponse response = EcrCurl.delete(node, "/_configsync/file").header("Content-Type", "application/json")
+                .param("path", "dir1/test1.txt").execute()) {
+            Map<String, Object> contentMap = response.getContent(EcrCurl.jsonParser());
+            assertEquals("true", contentMap.get("acknowledged").toString());
+            assertEquals("deleted", contentMap.get("result").toString());
+        }
+
+        try (CurlResponse response = EcrCurl.get(node, "/_configsync/file").header("Content-Type", "application/json").execute()) {
+            Map<String, Object> contentMap = response.getContent(EcrCurl.jsonParser());
+            assertEquals("true", contentMap.get("acknowledged").toString());
+            List<String> list = (List<String>) contentMap.get("path");
+            assertEquals(0, list.size());
+        }
+
+        try (CurlResponse response = EcrCurl.get(node, "/_configsync/file").header("Content-Type", "application/json")
+                .param("path", "dir1/test1.txt").execute()) {
+            assertEquals(404, response.getHttpStatusCode());
+        }
+
+        try (CurlResponse response = EcrCurl.delete(node, "/_configsync/file").header("Content-Type", "application/json")
+                .param("path", "dir1/test1.txt").execute()) {
+            Map<String, Object> contentMap = response.getContent(EcrCurl.jsonParser());
+            assertEquals("true", contentMap.get("acknowledged").toString());
+            assertEquals("not_found", contentMap.get("result").toString());
+        }
+
+        try (CurlResponse response = EcrCurl.post(node, "/_configsync/flush").header("Content-Type", "application/json").execute()) {
+            Map<String, Object> contentMap = response.getContent(EcrCurl.jsonParser());
+            assertEquals("true", contentMap.get("acknowledged").toString());
+        }
+
+        for (int i = 0; i < numOfNode; i++) {
+            assertFalse(configFiles[i].exists());
+        }
+    }
+
+    public void test_verify() throws Exception {
+        setupClusterRunnder(null, "1m");
+
+        Node node = runner.node();
+
+        configFiles = new File[numOfNode];
+        for (int i = 0; i < numOfNode; i++) {
+            String homePath = runner.getNode(i).settings().get("path.home");
+            configFiles[i] = new File(new File(homePath, "config"), "dir1/dir2/test1.txt");
+        }
+
+        try (CurlResponse response = EcrCurl.post(node, "/_configsync/file").header("Content-Type", "application/json")
+                .param("path", "dir1/dir2/test1.txt").body("Test1").execute()) {
+            Map<String, Object> contentMap = response.getContent(EcrCurl.jsonParser());
+            assertEquals("true", contentMap.get("acknowledged").toString());
+        }
+
+        try (CurlResponse response = EcrCurl.post(node, "/_configsync/file").header("Content-Type", "application/json")
+                .param("path", "test2.txt").body("Test2").execute()) {
+            Map<String, Object> contentMap = response.getContent(EcrCurl.jsonParser());
+            assertEquals("true", contentMap.get("acknowledged").toString());
+        }
+
+        try (CurlResponse response = EcrCurl.post(node, "/_configsync/flush").header("Content-Type", "application/json").execute()) {
+            Map<String, Object> contentMap = response.getContent(EcrCurl.jsonParser());
+            assertEquals("true", contentMap.get("acknowledged").toString());
+        }
+
+        try (CurlResponse response = EcrCurl.get(node, "/_configsync/_verify").header("Content-Type", "application/json").execute()) {
+            Map<String, Object> contentMap = response.getContent(EcrCurl.jsonParser());
+            assertEquals("true", contentMap.get("acknowledged").toString());
+            assertEquals("true", contentMap.get("in_sync").toString());
+        }
+
+        try (FileOutputStream out = new FileOutputStream(configFiles[0])) {
+            out.write("Modified".getBytes(StandardCharsets.UTF_8));
+        }
+        // a file which is not in the index is found in a synced directory
+        try (FileOutputStream out = new FileOutputStream(new File(configFiles[1].getParentFile().getParentFile(), "extra.txt"))) {
+            out.write("Extra".getBytes(StandardCharsets.UTF_8));
+        }
+
+        try (CurlResponse response = EcrCurl.get(node, "/_configsync/_verify").header("Content-Type", "application/json").execute()) {
+            Map<String, Object> contentMap = response.getContent(EcrCurl.jsonParser());
+            assertEquals("true", contentMap.get("acknowledged").toString());
+            assertEquals("false", contentMap.get("in_sync").toString());
+            Map<String, Object> nodes = (Map<String, Object>) contentMap.get("nodes");
+            assertEquals(numOfNode, nodes.size());
+            Map<String, String> drifts = new HashMap<>();
+            for (Object value : nodes.values()) {
+                for (Map<String, Object> drift : (List<Map<String, Object>>) ((Map<String, Object>) value).get("drift")) {
+                    drifts.put(drift.get("path").toString(), drift.get("type").toString());
+                }
+            }
+            assertEquals(2, drifts.size());
+            assertEquals("modified", drifts.get("dir1/dir2/test1.txt"));
+            assertEquals("unexpected", drifts.get("dir1/extra.txt"));
+        }
+    }
+
+    public void test_stats() throws Exception {
+        setupClusterRunnder(null, "1m");
+
+        Node node = runner.node();
+
+        try (CurlResponse response = EcrCurl.post(node, "/_configsync/file").header("Content-Type", "application/json")
+                .param("path", "test1.txt").body("Test1").execute()) {
+            Map<String, Object> contentMap = response.getContent(EcrCurl.jsonParser());
+            assertEquals("true", contentMap.get("acknowledged").toString());
+        }
+
+        try (CurlResponse response = EcrCurl.post(node, "/_configsync/flush").header("Content-Type", "application/json").execute()) {
+            Map<String, Object> contentMap = response.getContent(EcrCurl.jsonParser());
+            assertEquals("true", contentMap.get("acknowledged").toString());
+        }
+
+        try (CurlResponse response = EcrCurl.get(node, "/_configsync/_stats").header("Content-Type", "application/json").execute()) {
+            Map<String, Object> contentMap = response.getContent(EcrCurl.jsonParser());
+            assertEquals("true", contentMap.get("acknowledged").toString());
+            assertEquals(numOfNode, ((Map<String, Object>) contentMap.get("nodes")).size());
+            Map<String, Object> all = (Map<String, Object>) contentMap.get("_all");
+            Map<String, Object> files = (Map<String, Object>) all.get("files");
+            assertEquals(numOfNode, ((Number) files.get("written")).intValue());
+            assertEquals(numOfNode * 5, ((Number) files.get("written_in_bytes")).intValue());
+            Map<String, Object> latency = (Map<String, Object>) all.get("latency");
+            assertEquals(numOfNode, ((Number) ((Map<String, Object>) latency.get("write")).get("count")).intValue());
+            assertTrue(((Number) ((Map<String, Object>) all.get("cycles")).get("total")).intValue() >= numOfNode);
+            assertTrue(((Number) all.get("lag_in_millis")).longValue() >= 0);
+        }
+    }
+
+    public void test_status() throws Exception {
+        setupClusterRunnder(null, "1m");
+
+        Node node = runner.node();
+
+        try (CurlResponse response = EcrCurl.post(node, "/_configsync/file").header("Content-Type", "application/json")
+                .param("path", "test1.txt").body("Test1").execute()) {
+            Map<String, Object> contentMap = response.getContent(EcrCurl.jsonParser());
+            assertEquals("true", contentMap.get("acknowledged").toString());
+        }
+
+        runner.refresh();
+
+        try (CurlResponse response = EcrCurl.get(node, "/_configsync/_status").header("Content-Type", "application/json").execute()) {
+            Map<String, Object> contentMap = response.getContent(EcrCurl.jsonParser());
+            assertEquals("true", contentMap.get("acknowledged").toString());
+            assertEquals("false", contentMap.get("in_sync").toString());
+            Map<String, Object> nodes = (Map<String, Object>) contentMap.get("nodes");
+            assertEquals(numOfNode, nodes.size());
+            for (Object value : nodes.values()) {
+                List<String> pendingPaths = (List<String>) ((Map<String, Object>) value).get("pending_paths");
+                assertTrue(pendingPaths.contains("test1.txt"));
+            }
+        }
+
+        try (CurlResponse response = EcrCurl.post(node, "/_configsync/flush").header("Content-Type", "application/json").execute()) {
+            Map<String, Object> contentMap = response.getContent(EcrCurl.jsonParser());
+            assertEquals("true", contentMap.get("acknowledged").toString());
+        }
+
+        try (CurlResponse response = EcrCurl.get(node, "/_configsync/_status").header("Content-Type", "application/json").execute()) {
+            Map<String, Object> contentMap = response.getContent(EcrCurl.jsonParser());
+            assertEquals("true", contentMap.get("acknowledged").toString());
+            assertEquals("true", contentMap.get("in_sync").toString());
+            Map<String, Object> nodes = (Map<String, Object>) contentMap.get("nodes");
+            for (Object value : nodes.values()) {
+                Map<String, Object> status = (Map<String, Object>) value;
+                assertTrue(((Number) status.get("watermark")).longValue() > 0);
+                assertTrue(((List<String>) status.get("pending_paths")).isEmpty());
+                assertEquals("running", status.get("updater_state"));
+                assertEquals(0, ((Number) status.get("consecutive_failures")).intValue());
+            }
+        }
+
+        // statuses are collected every 10 seconds, so the indicator turns green after the next collection
+        Map<String, Object> indicator = null;
+        for (int i = 0; i < 30; i++) {
+            try (CurlResponse response =
+                    EcrCurl.get(node, "/_health_report/config_sync").header("Content-Type", "application/json").execute()) {
+                Map<String, Object> contentMap = response.getContent(EcrCurl.jsonParser());
+                indicator = (Map<String, Object>) ((Map<String, Object>) contentMap.get("indicators")).get("config_sync");
+            }
+            if ("green".equals(indicator.get("status"))) {
+                break;
+            }
+            Thread.sleep(1000L);
+        }
+        assertEquals("green", indicator.get("status"));
+        assertEquals("Config files are synced on all nodes.", indicator.get("symptom"));
+        assertNull(indicator.get("diagnosis"));
+        Map<String, Object> details = (Map<String, Object>) indicator.get("details");
+        assertEquals(numOfNode, details.size());
+        for (Object value : details.values()) {
+            Map<String, Object> nodeDetails = (Map<String, Object>) value;
+            assertEquals("running", nodeDetails.get("updater_state"));
+            assertTrue(((Number) nodeDetails.get("lag_in_millis")).longValue() >= 0);
+        }
+    }
+
+    public void test_waitForPropagation() throws Exception {
+        setupClusterRunnder(null, "1m");
+
+        Node node = runner.node();
+
+        configFiles = new File[numOfNode];
+        for (int i = 0; i < numOfNode; i++) {
+            String homePath = runner.getNode(i).settings().get("path.home");
+            configFiles[i] = new File(new File(homePath, "config"), "test1.txt");
+        }
+
+        try (CurlResponse response = EcrCurl.post(node, "/_configsync/file").header("Content-Type", "application/json")
+                .param("path", "test1.txt").param("wait_for_propagation", "30s").body("Test1").execute()) {
+            Map<String, Object> contentMap = response.getContent(EcrCurl.jsonParser());
+            assertEquals("true", contentMap.get("acknowledged").toString());
+            Map<String, Object> propagation = (Map<String, Object>) contentMap.get("propagation");
+            assertEquals("true", propagation.get("propagated").toString());
+            assertEquals("false", propagation.get("timed_out").toString());
+            assertTrue(((Map<String, Object>) propagation.get("pending_nodes")).isEmpty());
+        }
+
+        for (int i = 0; i < numOfNode; i++) {
+            assertTrue(configFiles[i].exists());
+        }
+
+        try (CurlResponse response = EcrCurl.delete(node, "/_configsync/file").header("Content-Type", "application/json")
+                .param("path", "test1.txt").param("wait_for_propagation", "30s").execute()) {
+            Map<String, Object> contentMap = response.getContent(EcrCurl.jsonParser());
+            assertEquals("true", contentMap.get("acknowledged").toString());
+            Map<String, Object> propagation = (Map<String, Object>) contentMap.get("propagation");
+            assertEquals("true", propagation.get("propagated").toString());
+        }
+
+        for (int i = 0; i < numOfNode; i++) {
+            assertFalse(configFiles[i].exists());
+        }
+    }
+
+    public void test_flush_withoutWaitForCompletion() throws Exception {
+        setupClusterRunnder(null, "1m");
+
+        Node node = runner.node();
+
+        configFiles = new File[numOfNode];
+        for (int i = 0; i < numOfNode; i++) {
+            String homePath = runner.getNode(i).settings().get("path.home");
+            configFiles[i] = new File(new File(homePath, "config"), "test1.txt");
+        }
+
+        try (CurlResponse response = EcrCurl.post(node, "/_configsync/file").header("Content-Type", "application/json")
+                .param("path", "test1.txt").body("Test1").execute()) {
+            Map<String, Object> contentMap = response.getContent(EcrCurl.jsonParser());
+            assertEquals("true", contentMap.get("acknowledged").toString());
+        }
+
+        runner.refresh();
+
+        final String taskId;
+        try (CurlResponse response = EcrCurl.post(node, "/_configsync/flush").header("Content-Type", "application/json")
+                .param("wait_for_completion", "false").execute()) {
+            Map<String, Object> contentMap = response.getContent(EcrCurl.jsonParser());
+            assertEquals("true", contentMap.get("acknowledged").toString());
+            taskId = (String) contentMap.get("task");
+            assertNotNull(taskId);
+        }
+
+        try (CurlResponse response = EcrCurl.get(node, "/_tasks/" + taskId).param("wait_for_completion", "true").param("timeout", "30s")
+                .execute()) {
+            Map<String, Object> contentMap = response.getContent(EcrCurl.jsonParser());
+            assertEquals("true", contentMap.get("completed").toString());
+        }
+
+        for (int i = 0; i < numOfNode; i++) {
+            assertTrue(configFiles[i].exists());
+        }
+    }
+
+    public void test_rollback() throws Exception {
+        setupClusterRunnder(null, "1m");
+
+        Node node = runner.node();
+
+        for (String text : new String[] { "Test1", "Test2", "Test3" }) {
+            try (CurlResponse response = EcrCurl.post(node, "/_configsync/file").header("Content-Type", "application/json")
+                    .param("path", "test1.txt").body(text).execute()) {
+                Map<String, Object> contentMap = response.getContent(EcrCurl.jsonParser());
+                assertEquals("true", contentMap.get("acknowledged").toString());
+            }
+        }
+
+        try (CurlResponse response = EcrCurl.post(node, "/_configsync/_rollback").header("Content-Type", "application/json")
+                .param("to", "1").param("path", "test1.txt").execute()) {
+            Map<String, Object> contentMap = response.getContent(EcrCurl.jsonParser());
+            assertEquals("true", contentMap.get("acknowledged").toString());
+            List<Map<String, Object>> list = (List<Map<String, Object>>) contentMap.get("paths");
+            assertEquals(1, list.size());
+            assertEquals("rolled_back", list.get(0).get("result"));
+            assertEquals(3, ((Number) list.get(0).get("from_revision")).intValue());
+            assertEquals(1, ((Number) list.get(0).get("to_revision")).intValue());
+        }
+
+        try (CurlResponse response = EcrCurl.get(node, "/_configsync/file").header("Content-Type", "application/json")
+                .param("path", "test1.txt").execute()) {
+            assertEquals("Test1", response.getContentAsString());
+        }
+
+        try (CurlResponse response = EcrCurl.post(node, "/_configsync/_rollback").header("Content-Type", "application/json")
+                .param("to", "3").param("path", "test1.txt").execute()) {
+            Map<String, Object> contentMap = response.getContent(EcrCurl.jsonParser());
+            List<Map<String, Object>> list = (List<Map<String, Object>>) contentMap.get("paths");
+            assertEquals("rolled_back", list.get(0).get("result"));
+        }
+
+        try (CurlResponse response = EcrCurl.get(node, "/_configsync/file").header("Content-Type", "application/json")
+                .param("path", "test1.txt").execute()) {
+            assertEquals("Test3", response.getContentAsString());
+        }
+
+        try (CurlResponse response = EcrCurl.post(node, "/_configsync/file").header("Content-Type", "application/json")
+                .param("path", "test1.txt").body("Test3").execute()) {
+            Map<String, Object> contentMap = response.getContent(EcrCurl.jsonParser());
+            assertEquals("true", contentMap.get("acknowledged").toString());
+            assertEquals("noop", contentMap.get("result").toString());
+        }
+    }
+
     private static byte[] getText(File file) throws IOException {
         byte[] buffer = new byte[1000];
         try (BufferedInputStream bis = new BufferedInputStream(new FileInputStream(file));
@@ -509,4 +868,760 @@ public class ConfigSyncPluginTest extends TestCase {
         }
     }
 
+    public void test_getFile_withETag() throws Exception {
+        setupClusterRunnder(null, "1m");
+
+        Node node = runner.node();
+
+        try (CurlResponse response = EcrCurl.post(node, "/_configsync/file").header("Content-Type", "application/json")
+                .param("path", "test1.txt").body("Test1").execute()) {
+            Map<String, Object> contentMap = response.getContent(EcrCurl.jsonParser());
+            assertEquals("true", contentMap.get("acknowledged").toString());
+        }
+
+        final String etag;
+        try (CurlResponse response = EcrCurl.get(node, "/_configsync/file").param("path", "test1.txt").execute()) {
+            assertEquals(200, response.getHttpStatusCode());
+            assertEquals("Test1", response.getContentAsString());
+            etag = response.getHeaderValue("ETag");
+            assertNotNull(etag);
+        }
+
+        for (int i = 0; i < numOfNode; i++) {
+            try (CurlResponse response = EcrCurl.get(runner.getNode(i), "/_configsync/file").header("If-None-Match", etag)
+                    .param("path", "test1.txt").execute()) {
+                assertEquals(304, response.getHttpStatusCode());
+                assertEquals(etag, response.getHeaderValue("ETag"));
+            }
+        }
+
+        try (CurlResponse response = EcrCurl.post(runner.getNode(1), "/_configsync/file").header("Content-Type", "application/json")
+                .param("path", "test1.txt").body("Test2").execute()) {
+            Map<String, Object> contentMap = response.getContent(EcrCurl.jsonParser());
+            assertEquals("true", contentMap.get("acknowledged").toString());
+        }
+
+        for (int i = 0; i < numOfNode; i++) {
+            try (CurlResponse response = EcrCurl.get(runner.getNode(i), "/_configsync/file").header("If-None-Match", etag)
+                    .param("path", "test1.txt").execute()) {
+                assertEquals(200, response.getHttpStatusCode());
+                assertEquals("Test2", response.getContentAsString());
+                assertFalse(etag.equals(response.getHeaderValue("ETag")));
+            }
+        }
+    }
+
+    public void test_getFile_fromLocal() throws Exception {
+        setupClusterRunnder(null, "1m");
+
+        Node node = runner.node();
+
+        try (CurlResponse response = EcrCurl.post(node, "/_configsync/file").header("Content-Type", "application/json")
+                .param("path", "dir1/test1.txt").body("Test1").execute()) {
+            Map<String, Object> contentMap = response.getContent(EcrCurl.jsonParser());
+            assertEquals("true", contentMap.get("acknowledged").toString());
+        }
+
+        try (CurlResponse response = EcrCurl.post(node, "/_configsync/flush").header("Content-Type", "application/json").execute()) {
+            Map<String, Object> contentMap = response.getContent(EcrCurl.jsonParser());
+            assertEquals("true", contentMap.get("acknowledged").toString());
+        }
+
+        final String etag;
+        try (CurlResponse response = EcrCurl.get(node, "/_configsync/file").param("path", "dir1/test1.txt").execute()) {
+            etag = response.getHeaderValue("ETag");
+        }
+
+        for (int i = 0; i < numOfNode; i++) {
+            try (CurlResponse response = EcrCurl.get(runner.getNode(i), "/_configsync/file").param("path", "dir1/test1.txt")
+                    .param("source", "local").execute()) {
+                assertEquals(200, response.getHttpStatusCode());
+                assertEquals("Test1", response.getContentAsString());
+                assertEquals(etag, response.getHeaderValue("ETag"));
+            }
+            try (CurlResponse response = EcrCurl.get(runner.getNode(i), "/_configsync/file").header("If-None-Match", etag)
+                    .param("path", "dir1/test1.txt").param("source", "local").execute()) {
+                assertEquals(304, response.getHttpStatusCode());
+            }
+        }
+
+        try (CurlResponse response =
+                EcrCurl.get(node, "/_configsync/file").param("path", "elasticsearch.yml").param("source", "local").execute()) {
+            assertEquals(404, response.getHttpStatusCode());
+        }
+
+        // synced paths are saved, so they are served locally after a restart
+        for (int i = 0; i < numOfNode; i++) {
+            File configDir = new File(runner.getNode(i).settings().get("path.home"), "config");
+            List<String> managedPaths =
+                    Files.readAllLines(new File(configDir, ".configsync/managed_paths").toPath(), StandardCharsets.UTF_8);
+            assertTrue(managedPaths.contains("dir1/test1.txt"));
+        }
+
+        byte[] zip = createZip(Map.of("a.txt", "A1"));
+        String encoded = Base64.getEncoder().encodeToString(zip);
+        try (CurlResponse response = EcrCurl.post(node, "/_configsync/file").param("bundle", "true")
+                .header("Content-Type", "application/json").body("{\"path\":\"bundle\",\"content\":\"" + encoded + "\"}").execute()) {
+            Map<String, Object> contentMap = response.getContent(EcrCurl.jsonParser());
+            assertEquals("true", contentMap.get("acknowledged").toString());
+        }
+
+        try (CurlResponse response = EcrCurl.post(node, "/_configsync/flush").header("Content-Type", "application/json").execute()) {
+            Map<String, Object> contentMap = response.getContent(EcrCurl.jsonParser());
+            assertEquals("true", contentMap.get("acknowledged").toString());
+        }
+
+        // an expanded bundle is read from the index
+        try (CurlResponse response =
+                EcrCurl.get(node, "/_configsync/file").param("path", "bundle").param("source", "local").execute()) {
+            assertEquals(200, response.getHttpStatusCode());
+            try (InputStream in = response.getContentAsStream()) {
+                assertEquals(zip.length, in.readAllBytes().length);
+            }
+        }
+    }
+
+    public void test_getFile_circuitBreaker() throws Exception {
+        setupClusterRunnder(null, "1m");
+
+        Node node = runner.node();
+
+        final String content = "a".repeat(64 * 1024);
+        try (CurlResponse response = EcrCurl.post(node, "/_configsync/file").header("Content-Type", "application/json")
+                .param("path", "test1.txt").body(content).execute()) {
+            Map<String, Object> contentMap = response.getContent(EcrCurl.jsonParser());
+            assertEquals("true", contentMap.get("acknowledged").toString());
+        }
+
+        {
+            Settings settings = Settings.builder().put("indices.breaker.request.limit", "1kb").build();
+            ClusterUpdateSettingsResponse response =
+                    node.client().admin().cluster().prepareUpdateSettings().setPersistentSettings(settings).execute().actionGet();
+            assertTrue(response.isAcknowledged());
+        }
+
+        try (CurlResponse response = EcrCurl.get(node, "/_configsync/file").param("path", "test1.txt").execute()) {
+            assertEquals(429, response.getHttpStatusCode());
+            assertTrue(response.getContentAsString().contains("circuit_breaking_exception"));
+        }
+
+        {
+            Settings settings = Settings.builder().putNull("indices.breaker.request.limit").build();
+            ClusterUpdateSettingsResponse response =
+                    node.client().admin().cluster().prepareUpdateSettings().setPersistentSettings(settings).execute().actionGet();
+            assertTrue(response.isAcknowledged());
+        }
+
+        try (CurlResponse response = EcrCurl.get(node, "/_configsync/file").param("path", "test1.txt").execute()) {
+            assertEquals(200, response.getHttpStatusCode());
+            assertEquals(content, response.getContentAsString());
+        }
+
+        // the decoded content is released after the response is sent
+        long estimatedSize = -1;
+        for (int i = 0; i < 10; i++) {
+            try (CurlResponse response = EcrCurl.get(node, "/_nodes/_local/stats/breaker").execute()) {
+                Map<String, Object> contentMap = response.getContent(EcrCurl.jsonParser());
+                Map<String, Object> nodes = (Map<String, Object>) contentMap.get("nodes");
+                Map<String, Object> nodeStats = (Map<String, Object>) nodes.values().iterator().next();
+                Map<String, Object> breaker = (Map<String, Object>) ((Map<String, Object>) nodeStats.get("breakers")).get("request");
+                estimatedSize = ((Number) breaker.get("estimated_size_in_bytes")).longValue();
+            }
+            if (estimatedSize == 0) {
+                break;
+            }
+            Thread.sleep(500L);
+        }
+        assertEquals(0, estimatedSize);
+    }
+
+    public void test_throttle() throws Exception {
+        setupClusterRunnder(null, "1m");
+
+        Node node = runner.node();
+
+        {
+            Settings settings = Settings.builder().put("configsync.max_bytes_per_sec", "4kb").build();
+            ClusterUpdateSettingsResponse response =
+                    node.client().admin().cluster().prepareUpdateSettings().setPersistentSettings(settings).execute().actionGet();
+            assertTrue(response.isAcknowledged());
+        }
+
+        final String content = "a".repeat(8 * 1024);
+        final long startTime = System.currentTimeMillis();
+        try (CurlResponse response = EcrCurl.post(node, "/_configsync/file").header("Content-Type", "application/json")
+                .param("path", "test1.txt").body(content).execute()) {
+            Map<String, Object> contentMap = response.getContent(EcrCurl.jsonParser());
+            assertEquals("true", contentMap.get("acknowledged").toString());
+        }
+        assertTrue(System.currentTimeMillis() - startTime >= 1000L);
+
+        try (CurlResponse response = EcrCurl.post(node, "/_configsync/flush").header("Content-Type", "application/json").execute()) {
+            Map<String, Object> contentMap = response.getContent(EcrCurl.jsonParser());
+            assertEquals("true", contentMap.get("acknowledged").toString());
+        }
+
+        for (int i = 0; i < numOfNode; i++) {
+            try (CurlResponse response = EcrCurl.get(runner.getNode(i), "/_configsync/file").param("path", "test1.txt")
+                    .param("source", "local").execute()) {
+                assertEquals(content, response.getContentAsString());
+            }
+        }
+    }
+
+    public void test_pathFilter() throws Exception {
+        setupClusterRunnder(null, "1m");
+
+        Node node = runner.node();
+        String nodeName = runner.getNode(0).settings().get("node.name");
+
+        {
+            Settings settings = Settings.builder().put("configsync.filter.test.nodes", nodeName)
+                    .putList("configsync.filter.test.include", "dir1/*").build();
+            ClusterUpdateSettingsResponse response =
+                    node.client().admin().cluster().prepareUpdateSettings().setPersistentSettings(settings).execute().actionGet();
+            assertTrue(response.isAcknowledged());
+        }
+
+        for (String path : new String[] { "dir1/test1.txt", "dir2/test2.txt" }) {
+            try (CurlResponse response = EcrCurl.post(node, "/_configsync/file").header("Content-Type", "application/json")
+                    .param("path", path).body("Test").execute()) {
+                Map<String, Object> contentMap = response.getContent(EcrCurl.jsonParser());
+                assertEquals("true", contentMap.get("acknowledged").toString());
+            }
+        }
+
+        try (CurlResponse response = EcrCurl.post(node, "/_configsync/flush").header("Content-Type", "application/json")
+                .param("nodes", "_all").execute()) {
+            Map<String, Object> contentMap = response.getContent(EcrCurl.jsonParser());
+            assertEquals("true", contentMap.get("acknowledged").toString());
+        }
+
+        for (int i = 0; i < numOfNode; i++) {
+            File configDir = new File(runner.getNode(i).settings().get("path.home"), "config");
+            assertTrue(new File(configDir, "dir1/test1.txt").exists());
+            assertEquals(i != 0, new File(configDir, "dir2/test2.txt").exists());
+        }
+
+        try (CurlResponse response = EcrCurl.get(node, "/_configsync/_verify").header("Content-Type", "application/json").execute()) {
+            Map<String, Object> contentMap = response.getContent(EcrCurl.jsonParser());
+            assertEquals("true", contentMap.get("in_sync").toString());
+        }
+
+        {
+            Settings settings =
+                    Settings.builder().putNull("configsync.filter.test.nodes").putNull("configsync.filter.test.include").build();
+            ClusterUpdateSettingsResponse response =
+                    node.client().admin().cluster().prepareUpdateSettings().setPersistentSettings(settings).execute().actionGet();
+            assertTrue(response.isAcknowledged());
+        }
+
+        try (CurlResponse response = EcrCurl.post(node, "/_configsync/flush").header("Content-Type", "application/json").execute()) {
+            Map<String, Object> contentMap = response.getContent(EcrCurl.jsonParser());
+            assertEquals("true", contentMap.get("acknowledged").toString());
+        }
+
+        File configDir = new File(runner.getNode(0).settings().get("path.home"), "config");
+        assertTrue(new File(configDir, "dir2/test2.txt").exists());
+    }
+
+    public void test_sparse() throws Exception {
+        setupClusterRunnder(null, "1m");
+
+        Node node = runner.node();
+
+        {
+            Settings settings = Settings.builder().put("configsync.sparse.enabled", true).build();
+            ClusterUpdateSettingsResponse response =
+                    node.client().admin().cluster().prepareUpdateSettings().setPersistentSettings(settings).execute().actionGet();
+            assertTrue(response.isAcknowledged());
+        }
+
+        // the file is placed on all nodes first because analyzers are validated on index creation
+        for (int i = 0; i < numOfNode; i++) {
+            File dir = new File(new File(runner.getNode(i).settings().get("path.home"), "config"), "dir1");
+            dir.mkdirs();
+            try (FileOutputStream out = new FileOutputStream(new File(dir, "stopwords.txt"))) {
+                out.write("old".getBytes(StandardCharsets.UTF_8));
+            }
+        }
+
+        for (String path : new String[] { "dir1/stopwords.txt", "dir2/test2.txt" }) {
+            try (CurlResponse response = EcrCurl.post(node, "/_configsync/file").header("Content-Type", "application/json")
+                    .param("path", path).body("new").execute()) {
+                Map<String, Object> contentMap = response.getContent(EcrCurl.jsonParser());
+                assertEquals("true", contentMap.get("acknowledged").toString());
+            }
+        }
+
+        node.client().admin().indices().prepareCreate("sparse")
+                .setSettings(Settings.builder().put("index.number_of_shards", 1).put("index.number_of_replicas", 0)
+                        .put("index.analysis.filter.test_stop.type", "stop")
+                        .put("index.analysis.filter.test_stop.stopwords_path", "dir1/stopwords.txt"))
+                .execute().actionGet();
+        runner.ensureGreen("sparse");
+
+        try (CurlResponse response = EcrCurl.post(node, "/_configsync/flush").header("Content-Type", "application/json")
+                .param("nodes", "_all").execute()) {
+            Map<String, Object> contentMap = response.getContent(EcrCurl.jsonParser());
+            assertEquals("true", contentMap.get("acknowledged").toString());
+        }
+
+        ClusterState state = node.client().admin().cluster().prepareState().execute().actionGet().getState();
+        String shardNodeName = state.nodes().get(state.routingTable().index("sparse").shard(0).primaryShard().currentNodeId()).getName();
+        for (int i = 0; i < numOfNode; i++) {
+            File configDir = new File(runner.getNode(i).settings().get("path.home"), "config");
+            boolean hasShard = shardNodeName.equals(runner.getNode(i).settings().get("node.name"));
+            try (FileInputStream in = new FileInputStream(new File(configDir, "dir1/stopwords.txt"))) {
+                assertEquals(hasShard ? "new" : "old", new String(in.readAllBytes(), StandardCharsets.UTF_8));
+            }
+            assertFalse(new File(configDir, "dir2/test2.txt").exists());
+        }
+    }
+
+    public void test_reloadAnalyzers() throws Exception {
+        setupClusterRunnder(null, "1m");
+
+        Node node = runner.node();
+
+        {
+            Settings settings = Settings.builder().put("configsync.reload_analyzers.enabled", true).build();
+            ClusterUpdateSettingsResponse response =
+                    node.client().admin().cluster().prepareUpdateSettings().setPersistentSettings(settings).execute().actionGet();
+            assertTrue(response.isAcknowledged());
+        }
+
+        try (CurlResponse response = EcrCurl.post(node, "/_configsync/file").header("Content-Type", "application/json")
+                .param("path", "dir1/synonyms.txt").body("a, b").execute()) {
+            Map<String, Object> contentMap = response.getContent(EcrCurl.jsonParser());
+            assertEquals("true", contentMap.get("acknowledged").toString());
+        }
+
+        try (CurlResponse response = EcrCurl.post(node, "/_configsync/flush").header("Content-Type", "application/json").execute()) {
+            Map<String, Object> contentMap = response.getContent(EcrCurl.jsonParser());
+            assertEquals("true", contentMap.get("acknowledged").toString());
+        }
+
+        node.client().admin().indices().prepareCreate("reload")
+                .setSettings(Settings.builder().put("index.number_of_shards", 1).put("index.number_of_replicas", 0)
+                        .put("index.analysis.filter.test_synonym.type", "synonym_graph")
+                        .put("index.analysis.filter.test_synonym.synonyms_path", "dir1/synonyms.txt")
+                        .put("index.analysis.filter.test_synonym.updateable", true)
+                        .put("index.analysis.analyzer.test_search.tokenizer", "whitespace")
+                        .putList("index.analysis.analyzer.test_search.filter", "test_synonym"))
+                .setMapping("{\"properties\":{\"text\":{\"type\":\"text\",\"analyzer\":\"whitespace\","
+                        + "\"search_analyzer\":\"test_search\"}}}")
+                .execute().actionGet();
+        runner.ensureGreen("reload");
+
+        try (CurlResponse response = EcrCurl.post(node, "/_configsync/file").header("Content-Type", "application/json")
+                .param("path", "dir1/synonyms.txt").body("a, c").execute()) {
+            Map<String, Object> contentMap = response.getContent(EcrCurl.jsonParser());
+            assertEquals("true", contentMap.get("acknowledged").toString());
+        }
+
+        try (CurlResponse response = EcrCurl.post(node, "/_configsync/flush").header("Content-Type", "application/json").execute()) {
+            Map<String, Object> contentMap = response.getContent(EcrCurl.jsonParser());
+            assertEquals("true", contentMap.get("acknowledged").toString());
+        }
+
+        Thread.sleep(1000L);
+
+        try (CurlResponse response = EcrCurl.post(node, "/reload/_analyze").header("Content-Type", "application/json")
+                .body("{\"analyzer\":\"test_search\",\"text\":\"a\"}").execute()) {
+            Map<String, Object> contentMap = response.getContent(EcrCurl.jsonParser());
+            List<Map<String, Object>> tokens = (List<Map<String, Object>>) contentMap.get("tokens");
+            assertTrue(tokens.stream().anyMatch(token -> "c".equals(token.get("token"))));
+            assertFalse(tokens.stream().anyMatch(token -> "b".equals(token.get("token"))));
+        }
+    }
+
+    public void test_release() throws Exception {
+        setupClusterRunnder(null, "1m");
+
+        Node node = runner.node();
+
+        String encodedA = Base64.getEncoder().encodeToString("A1".getBytes(StandardCharsets.UTF_8));
+        String encodedB = Base64.getEncoder().encodeToString("B1".getBytes(StandardCharsets.UTF_8));
+        try (CurlResponse response = EcrCurl.post(node, "/_configsync/release").header("Content-Type", "application/json")
+                .body("{\"dir\":\"dict\",\"files\":[{\"path\":\"dict/a.txt\",\"content\":\"" + encodedA
+                        + "\"},{\"path\":\"dict/sub/b.txt\",\"content\":\"" + encodedB + "\"}]}")
+                .execute()) {
+            Map<String, Object> contentMap = response.getContent(EcrCurl.jsonParser());
+            assertEquals("true", contentMap.get("acknowledged").toString());
+            assertNotNull(contentMap.get("release"));
+        }
+
+        try (CurlResponse response = EcrCurl.post(node, "/_configsync/flush").header("Content-Type", "application/json").execute()) {
+            Map<String, Object> contentMap = response.getContent(EcrCurl.jsonParser());
+            assertEquals("true", contentMap.get("acknowledged").toString());
+        }
+
+        for (int i = 0; i < numOfNode; i++) {
+            File configDir = new File(runner.getNode(i).settings().get("path.home"), "config");
+            assertTrue(Files.isSymbolicLink(new File(configDir, "dict").toPath()));
+            assertEquals("A1", new String(Files.readAllBytes(new File(configDir, "dict/a.txt").toPath()), StandardCharsets.UTF_8));
+            assertEquals("B1", new String(Files.readAllBytes(new File(configDir, "dict/sub/b.txt").toPath()), StandardCharsets.UTF_8));
+        }
+
+        String encodedA2 = Base64.getEncoder().encodeToString("A2".getBytes(StandardCharsets.UTF_8));
+        try (CurlResponse response = EcrCurl.post(node, "/_configsync/release").header("Content-Type", "application/json")
+                .body("{\"dir\":\"dict\",\"files\":[{\"path\":\"dict/a.txt\",\"content\":\"" + encodedA2
+                        + "\"},{\"path\":\"dict/sub/b.txt\",\"content\":\"" + encodedB + "\"}]}")
+                .execute()) {
+            Map<String, Object> contentMap = response.getContent(EcrCurl.jsonParser());
+            assertEquals("true", contentMap.get("acknowledged").toString());
+            Map<String, Object> paths = (Map<String, Object>) contentMap.get("paths");
+            assertEquals("updated", paths.get("dict/a.txt"));
+            assertEquals("noop", paths.get("dict/sub/b.txt"));
+        }
+
+        try (CurlResponse response = EcrCurl.post(node, "/_configsync/flush").header("Content-Type", "application/json").execute()) {
+            Map<String, Object> contentMap = response.getContent(EcrCurl.jsonParser());
+            assertEquals("true", contentMap.get("acknowledged").toString());
+        }
+
+        for (int i = 0; i < numOfNode; i++) {
+            File configDir = new File(runner.getNode(i).settings().get("path.home"), "config");
+            assertEquals("A2", new String(Files.readAllBytes(new File(configDir, "dict/a.txt").toPath()), StandardCharsets.UTF_8));
+            assertEquals("B1", new String(Files.readAllBytes(new File(configDir, "dict/sub/b.txt").toPath()), StandardCharsets.UTF_8));
+            assertEquals(1, new File(configDir, ".configsync/releases/dict").list().length);
+        }
+
+        try (CurlResponse response = EcrCurl.post(node, "/_configsync/release").header("Content-Type", "application/json")
+                .body("{\"dir\":\"dict\",\"files\":[{\"path\":\"other/a.txt\",\"content\":\"" + encodedA + "\"}]}")
+                .execute()) {
+            assertEquals(400, response.getHttpStatusCode());
+        }
+    }
+
+    public void test_bundle() throws Exception {
+        setupClusterRunnder(null, "1m");
+
+        Node node = runner.node();
+
+        String encoded = Base64.getEncoder().encodeToString(createZip(Map.of("a.txt", "A1", "sub/b.txt", "B1", "c.txt", "C1")));
+        try (CurlResponse response = EcrCurl.post(node, "/_configsync/file").param("bundle", "true")
+                .header("Content-Type", "application/json").body("{\"path\":\"bundle\",\"content\":\"" + encoded + "\"}").execute()) {
+            Map<String, Object> contentMap = response.getContent(EcrCurl.jsonParser());
+            assertEquals("true", contentMap.get("acknowledged").toString());
+        }
+
+        try (CurlResponse response = EcrCurl.post(node, "/_configsync/flush").header("Content-Type", "application/json").execute()) {
+            Map<String, Object> contentMap = response.getContent(EcrCurl.jsonParser());
+            assertEquals("true", contentMap.get("acknowledged").toString());
+        }
+
+        long lastModified = 0;
+        for (int i = 0; i < numOfNode; i++) {
+            File configDir = new File(runner.getNode(i).settings().get("path.home"), "config");
+            assertEquals("A1", new String(Files.readAllBytes(new File(configDir, "bundle/a.txt").toPath()), StandardCharsets.UTF_8));
+            assertEquals("B1", new String(Files.readAllBytes(new File(configDir, "bundle/sub/b.txt").toPath()), StandardCharsets.UTF_8));
+            assertEquals("C1", new String(Files.readAllBytes(new File(configDir, "bundle/c.txt").toPath()), StandardCharsets.UTF_8));
+            lastModified = new File(configDir, "bundle/sub/b.txt").lastModified();
+        }
+
+        encoded = Base64.getEncoder().encodeToString(createZip(Map.of("a.txt", "A2", "sub/b.txt", "B1")));
+        try (CurlResponse response = EcrCurl.post(node, "/_configsync/file").param("bundle", "true")
+                .header("Content-Type", "application/json").body("{\"path\":\"bundle\",\"content\":\"" + encoded + "\"}").execute()) {
+            Map<String, Object> contentMap = response.getContent(EcrCurl.jsonParser());
+            assertEquals("true", contentMap.get("acknowledged").toString());
+        }
+
+        try (CurlResponse response = EcrCurl.post(node, "/_configsync/flush").header("Content-Type", "application/json").execute()) {
+            Map<String, Object> contentMap = response.getContent(EcrCurl.jsonParser());
+            assertEquals("true", contentMap.get("acknowledged").toString());
+        }
+
+        for (int i = 0; i < numOfNode; i++) {
+            File configDir = new File(runner.getNode(i).settings().get("path.home"), "config");
+            assertEquals("A2", new String(Files.readAllBytes(new File(configDir, "bundle/a.txt").toPath()), StandardCharsets.UTF_8));
+            assertEquals("B1", new String(Files.readAllBytes(new File(configDir, "bundle/sub/b.txt").toPath()), StandardCharsets.UTF_8));
+            assertFalse(new File(configDir, "bundle/c.txt").exists());
+        }
+        File configDir = new File(runner.getNode(numOfNode - 1).settings().get("path.home"), "config");
+        assertEquals(lastModified, new File(configDir, "bundle/sub/b.txt").lastModified());
+
+        try (CurlResponse response = EcrCurl.post(node, "/_configsync/_rollback").header("Content-Type", "application/json")
+                .param("to", "1").param("path", "bundle").execute()) {
+            Map<String, Object> contentMap = response.getContent(EcrCurl.jsonParser());
+            List<Map<String, Object>> list = (List<Map<String, Object>>) contentMap.get("paths");
+            assertEquals("rolled_back", list.get(0).get("result"));
+        }
+
+        try (CurlResponse response = EcrCurl.post(node, "/_configsync/flush").header("Content-Type", "application/json").execute()) {
+            Map<String, Object> contentMap = response.getContent(EcrCurl.jsonParser());
+            assertEquals("true", contentMap.get("acknowledged").toString());
+        }
+
+        // the bundle of revision 1 is expanded again
+        for (int i = 0; i < numOfNode; i++) {
+            configDir = new File(runner.getNode(i).settings().get("path.home"), "config");
+            assertEquals("A1", new String(Files.readAllBytes(new File(configDir, "bundle/a.txt").toPath()), StandardCharsets.UTF_8));
+            assertEquals("B1", new String(Files.readAllBytes(new File(configDir, "bundle/sub/b.txt").toPath()), StandardCharsets.UTF_8));
+            assertEquals("C1", new String(Files.readAllBytes(new File(configDir, "bundle/c.txt").toPath()), StandardCharsets.UTF_8));
+        }
+
+        encoded = Base64.getEncoder().encodeToString("test".getBytes(StandardCharsets.UTF_8));
+        try (CurlResponse response = EcrCurl.post(node, "/_configsync/file").param("bundle", "true")
+                .header("Content-Type", "application/json").body("{\"path\":\"bundle\",\"content\":\"" + encoded + "\"}").execute()) {
+            assertEquals(400, response.getHttpStatusCode());
+        }
+    }
+
+    public void test_blob() throws Exception {
+        setupClusterRunnder(null, "1m");
+
+        Node node = runner.node();
+
+        for (String path : new String[] { "tenant1/stopwords.txt", "tenant2/stopwords.txt" }) {
+            try (CurlResponse response = EcrCurl.post(node, "/_configsync/file").header("Content-Type", "application/json")
+                    .param("path", path).body("a\nthe").execute()) {
+                Map<String, Object> contentMap = response.getContent(EcrCurl.jsonParser());
+                assertEquals("true", contentMap.get("acknowledged").toString());
+            }
+        }
+
+        try (CurlResponse response = EcrCurl.post(node, "/configsync_blob/_refresh").execute()) {
+            assertEquals(200, response.getHttpStatusCode());
+        }
+        try (CurlResponse response = EcrCurl.get(node, "/configsync_blob/_count").execute()) {
+            Map<String, Object> contentMap = response.getContent(EcrCurl.jsonParser());
+            assertEquals(1, ((Number) contentMap.get("count")).intValue());
+        }
+
+        try (CurlResponse response = EcrCurl.post(node, "/_configsync/_copy").param("path", "tenant1/stopwords.txt")
+                .param("dest", "tenant3/stopwords.txt").execute()) {
+            Map<String, Object> contentMap = response.getContent(EcrCurl.jsonParser());
+            assertEquals("true", contentMap.get("acknowledged").toString());
+            assertEquals("created", contentMap.get("result"));
+        }
+
+        try (CurlResponse response = EcrCurl.post(node, "/_configsync/_move").param("path", "tenant2/stopwords.txt")
+                .param("dest", "tenant4/stopwords.txt").execute()) {
+            Map<String, Object> contentMap = response.getContent(EcrCurl.jsonParser());
+            assertEquals("true", contentMap.get("acknowledged").toString());
+        }
+
+        try (CurlResponse response = EcrCurl.get(node, "/_configsync/file").param("path", "tenant3/stopwords.txt").execute()) {
+            assertEquals("a\nthe", response.getContentAsString());
+        }
+
+        try (CurlResponse response = EcrCurl.post(node, "/_configsync/flush").header("Content-Type", "application/json").execute()) {
+            Map<String, Object> contentMap = response.getContent(EcrCurl.jsonParser());
+            assertEquals("true", contentMap.get("acknowledged").toString());
+        }
+
+        for (int i = 0; i < numOfNode; i++) {
+            File configDir = new File(runner.getNode(i).settings().get("path.home"), "config");
+            for (String path : new String[] { "tenant1/stopwords.txt", "tenant3/stopwords.txt", "tenant4/stopwords.txt" }) {
+                assertEquals("a\nthe", new String(Files.readAllBytes(new File(configDir, path).toPath()), StandardCharsets.UTF_8));
+            }
+            assertFalse(new File(configDir, "tenant2/stopwords.txt").exists());
+        }
+
+        try (CurlResponse response = EcrCurl.post(node, "/_configsync/_copy").param("path", "none.txt").param("dest", "other.txt")
+                .execute()) {
+            assertEquals(404, response.getHttpStatusCode());
+        }
+    }
+
+    public void test_blockTransfer() throws Exception {
+        setupClusterRunnder(null, "1m");
+
+        Node node = runner.node();
+
+        Settings settings = Settings.builder().put("configsync.block_transfer.threshold", "1kb").build();
+        ClusterUpdateSettingsResponse settingsResponse =
+                node.client().admin().cluster().prepareUpdateSettings().setPersistentSettings(settings).execute().actionGet();
+        assertTrue(settingsResponse.isAcknowledged());
+
+        StringBuilder buf = new StringBuilder();
+        for (int i = 0; i < 20000; i++) {
+            buf.append("word").append(i).append('\n');
+        }
+        String content1 = buf.toString();
+        try (CurlResponse response = EcrCurl.post(node, "/_configsync/file").header("Content-Type", "application/json")
+                .param("path", "dict/large.txt").body(content1).execute()) {
+            Map<String, Object> contentMap = response.getContent(EcrCurl.jsonParser());
+            assertEquals("true", contentMap.get("acknowledged").toString());
+        }
+
+        try (CurlResponse response = EcrCurl.post(node, "/_configsync/flush").header("Content-Type", "application/json").execute()) {
+            Map<String, Object> contentMap = response.getContent(EcrCurl.jsonParser());
+            assertEquals("true", contentMap.get("acknowledged").toString());
+        }
+
+        for (int i = 0; i < numOfNode; i++) {
+            File configDir = new File(runner.getNode(i).settings().get("path.home"), "config");
+            assertEquals(content1, new String(Files.readAllBytes(new File(configDir, "dict/large.txt").toPath()), StandardCharsets.UTF_8));
+        }
+
+        long reused = getFileStats("reused_blocks");
+        long fetched = getFileStats("fetched_blocks");
+
+        // the file has 3 blocks, and the last one is found at the end of the local file
+        String content2 = "inserted\n" + content1.replace("word10000\n", "changed\n");
+        try (CurlResponse response = EcrCurl.post(node, "/_configsync/file").header("Content-Type", "application/json")
+                .param("path", "dict/large.txt").body(content2).execute()) {
+            Map<String, Object> contentMap = response.getContent(EcrCurl.jsonParser());
+            assertEquals("true", contentMap.get("acknowledged").toString());
+        }
+
+        try (CurlResponse response = EcrCurl.get(node, "/_configsync/file").param("path", "dict/large.txt").execute()) {
+            assertEquals(content2, response.getContentAsString());
+        }
+
+        try (CurlResponse response = EcrCurl.post(node, "/_configsync/flush").header("Content-Type", "application/json").execute()) {
+            Map<String, Object> contentMap = response.getContent(EcrCurl.jsonParser());
+            assertEquals("true", contentMap.get("acknowledged").toString());
+        }
+
+        for (int i = 0; i < numOfNode; i++) {
+            File configDir = new File(runner.getNode(i).settings().get("path.home"), "config");
+            assertEquals(content2, new String(Files.readAllBytes(new File(configDir, "dict/large.txt").toPath()), StandardCharsets.UTF_8));
+        }
+
+        assertEquals(reused + numOfNode, getFileStats("reused_blocks"));
+        assertEquals(fetched + 2 * numOfNode, getFileStats("fetched_blocks"));
+    }
+
+    private long getFileStats(final String name) throws Exception {
+        try (CurlResponse response = EcrCurl.get(runner.node(), "/_configsync/_stats").header("Content-Type", "application/json")
+                .execute()) {
+            Map<String, Object> contentMap = response.getContent(EcrCurl.jsonParser());
+            Map<String, Object> files = (Map<String, Object>) ((Map<String, Object>) contentMap.get("_all")).get("files");
+            return ((Number) files.get(name)).longValue();
+        }
+    }
+
+    public void test_peerTransfer() throws Exception {
+        setupClusterRunnder(null, "1m");
+
+        Node node = runner.node();
+
+        Settings settings = Settings.builder().put("configsync.block_transfer.threshold", "1kb")
+                .put("configsync.peer_transfer.max_concurrent_chunks", 4).build();
+        ClusterUpdateSettingsResponse settingsResponse =
+                node.client().admin().cluster().prepareUpdateSettings().setPersistentSettings(settings).execute().actionGet();
+        assertTrue(settingsResponse.isAcknowledged());
+
+        StringBuilder buf = new StringBuilder();
+        for (int i = 0; i < 50000; i++) {
+            buf.append("word").append(i).append('\n');
+        }
+        String content = buf.toString();
+        try (CurlResponse response = EcrCurl.post(node, "/_configsync/file").header("Content-Type", "application/json")
+                .param("path", "dict/peer.txt").body(content).execute()) {
+            Map<String, Object> contentMap = response.getContent(EcrCurl.jsonParser());
+            assertEquals("true", contentMap.get("acknowledged").toString());
+        }
+
+        // nodes are flushed one by one, so later nodes fetch blocks from earlier ones
+        try (CurlResponse response = EcrCurl.post(node, "/_configsync/flush").header("Content-Type", "application/json").execute()) {
+            Map<String, Object> contentMap = response.getContent(EcrCurl.jsonParser());
+            assertEquals("true", contentMap.get("acknowledged").toString());
+        }
+
+        for (int i = 0; i < numOfNode; i++) {
+            File configDir = new File(runner.getNode(i).settings().get("path.home"), "config");
+            assertEquals(content, new String(Files.readAllBytes(new File(configDir, "dict/peer.txt").toPath()), StandardCharsets.UTF_8));
+        }
+
+        try (CurlResponse response = EcrCurl.get(node, "/_configsync/_stats").header("Content-Type", "application/json").execute()) {
+            Map<String, Object> contentMap = response.getContent(EcrCurl.jsonParser());
+            Map<String, Object> files = (Map<String, Object>) ((Map<String, Object>) contentMap.get("_all")).get("files");
+            long fetched = ((Number) files.get("fetched_from_peers_in_bytes")).longValue();
+            assertTrue(fetched > 0);
+            assertEquals(fetched, ((Number) files.get("served_to_peers_in_bytes")).longValue());
+        }
+
+        settings = Settings.builder().put("configsync.peer_transfer.max_concurrent_chunks", 0).build();
+        settingsResponse = node.client().admin().cluster().prepareUpdateSettings().setPersistentSettings(settings).execute().actionGet();
+        assertTrue(settingsResponse.isAcknowledged());
+
+        String content2 = content.replace("word100\n", "changed\n");
+        try (CurlResponse response = EcrCurl.post(node, "/_configsync/file").header("Content-Type", "application/json")
+                .param("path", "dict/peer.txt").body(content2).execute()) {
+            Map<String, Object> contentMap = response.getContent(EcrCurl.jsonParser());
+            assertEquals("true", contentMap.get("acknowledged").toString());
+        }
+
+        try (CurlResponse response = EcrCurl.post(node, "/_configsync/flush").header("Content-Type", "application/json").execute()) {
+            Map<String, Object> contentMap = response.getContent(EcrCurl.jsonParser());
+            assertEquals("true", contentMap.get("acknowledged").toString());
+        }
+
+        for (int i = 0; i < numOfNode; i++) {
+            File configDir = new File(runner.getNode(i).settings().get("path.home"), "config");
+            assertEquals(content2, new String(Files.readAllBytes(new File(configDir, "dict/peer.txt").toPath()), StandardCharsets.UTF_8));
+        }
+    }
+
+    public void test_upgradeMapping() throws Exception {
+        setupClusterRunnder(null, "1m");
+
+        Node node = runner.node();
+
+        configFiles = new File[numOfNode];
+        for (int i = 0; i < numOfNode; i++) {
+            String homePath = runner.getNode(i).settings().get("path.home");
+            configFiles[i] = new File(new File(homePath, "config"), "test1.txt");
+        }
+
+        // recreate the index with the mapping of older versions
+        node.client().admin().indices().prepareDelete("configsync").execute().actionGet();
+        node.client().admin().indices().prepareCreate("configsync")
+                .setSettings(Settings.builder().put("index.number_of_shards", 1).put("index.number_of_replicas", 0)
+                        .put("index.auto_expand_replicas", "0-all"))
+                .setMapping("{\"properties\":{\"path\":{\"type\":\"keyword\"},\"content\":{\"type\":\"binary\"},"
+                        + "\"@timestamp\":{\"type\":\"date\"}}}")
+                .execute().actionGet();
+        runner.ensureGreen("configsync");
+
+        try (CurlResponse response = EcrCurl.post(node, "/_configsync/file").header("Content-Type", "application/json")
+                .param("path", "test1.txt").param("wait_for_propagation", "30s").body("Test1").execute()) {
+            Map<String, Object> contentMap = response.getContent(EcrCurl.jsonParser());
+            assertEquals("true", contentMap.get("acknowledged").toString());
+            Map<String, Object> propagation = (Map<String, Object>) contentMap.get("propagation");
+            assertEquals("true", propagation.get("propagated").toString());
+        }
+
+        for (int i = 0; i < numOfNode; i++) {
+            assertTrue(configFiles[i].exists());
+            assertEquals("Test1", new String(getText(configFiles[i])));
+        }
+
+        try (CurlResponse response = EcrCurl.get(node, "/configsync/_mapping").execute()) {
+            Map<String, Object> contentMap = response.getContent(EcrCurl.jsonParser());
+            Map<String, Object> mappings = (Map<String, Object>) ((Map<String, Object>) contentMap.get("configsync")).get("mappings");
+            Map<String, Object> properties = (Map<String, Object>) mappings.get("properties");
+            assertEquals("keyword", ((Map<String, Object>) properties.get("hash")).get("type"));
+            assertEquals("long", ((Map<String, Object>) properties.get("revision")).get("type"));
+            assertEquals("keyword", ((Map<String, Object>) properties.get("acked_nodes")).get("type"));
+            assertEquals("keyword", ((Map<String, Object>) properties.get("release")).get("type"));
+        }
+
+        try (CurlResponse response = EcrCurl.delete(node, "/_configsync/file").header("Content-Type", "application/json")
+                .param("path", "test1.txt").param("wait_for_propagation", "30s").execute()) {
+            Map<String, Object> contentMap = response.getContent(EcrCurl.jsonParser());
+            assertEquals("true", contentMap.get("acknowledged").toString());
+        }
+
+        for (int i = 0; i < numOfNode; i++) {
+            assertFalse(configFiles[i].exists());
+        }
+    }
+
+    private static byte[] createZip(Map<String, String> entries) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (ZipOutputStream out = new ZipOutputStream(baos)) {
+            for (Map.Entry<String, String> entry : new TreeMap<>(entries).entrySet()) {
+                out.putNextEntry(new ZipEntry(entry.getKey()));
+                out.write(entry.getValue().getBytes(StandardCharsets.UTF_8));
+                out.closeEntry();
+            }
+        }
+        return baos.toByteArray();
+    }
 }
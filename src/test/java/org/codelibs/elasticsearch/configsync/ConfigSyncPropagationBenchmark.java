@@ -0,0 +1,381 @@
+/*
+ * Copyright 2012-2022 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.elasticsearch.configsync;
+
+import static org.codelibs.elasticsearch.runner.ElasticsearchClusterRunner.newConfigs;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.codelibs.curl.CurlResponse;
+import org.codelibs.elasticsearch.runner.ElasticsearchClusterRunner;
+import org.codelibs.elasticsearch.runner.net.EcrCurl;
+import org.elasticsearch.Version;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.settings.Settings.Builder;
+import org.elasticsearch.index.IndexNotFoundException;
+import org.elasticsearch.node.Node;
+import org.elasticsearch.xcontent.XContentBuilder;
+import org.elasticsearch.xcontent.XContentFactory;
+
+import junit.framework.TestCase;
+
+/**
+ * End-to-end benchmark of file propagation on an in-JVM cluster. This is not run in a normal build,
+ * and it is run as below:
+ *
+ * <pre>
+ * mvn test -Dtest=ConfigSyncPropagationBenchmark -DargLine=-Xmx8g -Dconfigsync.benchmark.nodes=1,3,5
+ * </pre>
+ *
+ * Results are written to target/configsync-benchmark-*.json, or configsync.benchmark.output.
+ */
+public class ConfigSyncPropagationBenchmark extends TestCase {
+
+    private static final Logger logger = LogManager.getLogger(ConfigSyncPropagationBenchmark.class);
+
+    private static final String PREFIX = "configsync.benchmark.";
+
+    private final int[] nodeCounts = Arrays.stream(System.getProperty(PREFIX + "nodes", "1,3,5").split(",")).map(String::trim)
+            .mapToInt(Integer::parseInt).toArray();
+
+    private final int numOfSmallFiles = Integer.getInteger(PREFIX + "small_files", 10000);
+
+    private final int smallFileSize = Integer.getInteger(PREFIX + "small_file_size", 1024);
+
+    private final int numOfLargeFiles = Integer.getInteger(PREFIX + "large_files", 2);
+
+    private final int largeFileSize = Integer.getInteger(PREFIX + "large_file_size", 200 * 1024 * 1024);
+
+    private final String flushInterval = System.getProperty(PREFIX + "flush_interval", "1s");
+
+    private final long timeout = Long.getLong(PREFIX + "timeout", 30 * 60 * 1000L);
+
+    private ElasticsearchClusterRunner runner;
+
+    private void setupClusterRunner(final int numOfNode) {
+        final String clusterName = "es-configsync-bench-" + System.currentTimeMillis();
+        runner = new ElasticsearchClusterRunner();
+        runner.onBuild(new ElasticsearchClusterRunner.Builder() {
+            @Override
+            public void build(final int number, final Builder settingsBuilder) {
+                settingsBuilder.putList("discovery.seed_hosts", "127.0.0.1:9301");
+                settingsBuilder.putList("cluster.initial_master_nodes", "127.0.0.1:9301");
+                settingsBuilder.put("http.max_content_length", "1gb");
+                settingsBuilder.put("configsync.flush_interval", flushInterval);
+            }
+        }).build(newConfigs().clusterName(clusterName).numOfNode(numOfNode)
+                .pluginTypes("org.codelibs.elasticsearch.configsync.ConfigSyncPlugin"));
+
+        runner.ensureYellow();
+
+        for (int i = 0; i < 120; i++) {
+            try {
+                if (runner.indexExists("configsync")) {
+                    break;
+                }
+            } catch (final IndexNotFoundException e) {
+                // ignore
+            }
+            try {
+                Thread.sleep(1000L);
+            } catch (Exception e) {
+                // nothing
+            }
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (runner != null) {
+            runner.close();
+            runner.clean();
+            runner = null;
+        }
+    }
+
+    public void test_propagation() throws Exception {
+        final List<Object> runs = new ArrayList<>();
+        for (final int numOfNode : nodeCounts) {
+            setupClusterRunner(numOfNode);
+            try {
+                runs.add(runBenchmark(numOfNode));
+            } finally {
+                tearDown();
+            }
+        }
+
+        final Map<String, Object> parameters = new LinkedHashMap<>();
+        parameters.put("small_files", numOfSmallFiles);
+        parameters.put("small_file_size", smallFileSize);
+        parameters.put("large_files", numOfLargeFiles);
+        parameters.put("large_file_size", largeFileSize);
+        parameters.put("flush_interval", flushInterval);
+        final Map<String, Object> results = new LinkedHashMap<>();
+        results.put("timestamp", System.currentTimeMillis());
+        results.put("elasticsearch_version", Version.CURRENT.toString());
+        results.put("java_version", System.getProperty("java.version"));
+        results.put("parameters", parameters);
+        results.put("runs", runs);
+        final Path output =
+                Paths.get(System.getProperty(PREFIX + "output", "target/configsync-benchmark-" + System.currentTimeMillis() + ".json"));
+        if (output.getParent() != null) {
+            Files.createDirectories(output.getParent());
+        }
+        try (XContentBuilder builder = XContentFactory.jsonBuilder().prettyPrint(); OutputStream out = Files.newOutputStream(output)) {
+            builder.map(results);
+            BytesReference.bytes(builder).writeTo(out);
+        }
+        logger.info("Wrote benchmark results to {}", output.toAbsolutePath());
+    }
+
+    private Map<String, Object> runBenchmark(final int numOfNode) throws Exception {
+        final Node node = runner.node();
+        final Path[] configDirs = new Path[numOfNode];
+        for (int i = 0; i < numOfNode; i++) {
+            configDirs[i] = Paths.get(runner.getNode(i).settings().get("path.home"), "config");
+        }
+        resetPeakHeapUsage();
+
+        // node index -> path -> [size, stored time], and paths are added when their stores are acknowledged
+        final List<Map<String, long[]>> pendings = new ArrayList<>();
+        for (int i = 0; i < numOfNode; i++) {
+            pendings.add(new ConcurrentHashMap<>());
+        }
+        final List<Long> latencies = Collections.synchronizedList(new ArrayList<>());
+        final PropagationPoller poller = new PropagationPoller(configDirs, pendings, latencies);
+        final Thread pollerThread = new Thread(poller, "configsync-benchmark-poller");
+        pollerThread.start();
+
+        final List<Long> storeLatencies = new ArrayList<>();
+        final long uploadStartTime = System.currentTimeMillis();
+        long totalSize = 0;
+        try {
+            for (int i = 0; i < numOfLargeFiles; i++) {
+                final String path = "bench/dict/large_" + i + ".txt";
+                totalSize += upload(node, path, createContent(i, largeFileSize), pendings, storeLatencies);
+            }
+            for (int i = 0; i < numOfSmallFiles; i++) {
+                final String path = "bench/dir" + (i % 100) + "/small_" + i + ".txt";
+                totalSize += upload(node, path, createContent(i, smallFileSize), pendings, storeLatencies);
+            }
+        } finally {
+            poller.uploaded = true;
+        }
+        final long uploadTook = System.currentTimeMillis() - uploadStartTime;
+
+        pollerThread.join(timeout);
+        pollerThread.interrupt();
+        pollerThread.join();
+        if (poller.failure.get() != null) {
+            throw poller.failure.get();
+        }
+        final long peakHeap = getPeakHeapUsage();
+        latencies.sort(Long::compare);
+        storeLatencies.sort(Long::compare);
+
+        final Map<String, Object> store = new LinkedHashMap<>();
+        store.put("p50_in_millis", getPercentile(storeLatencies, 50));
+        store.put("p99_in_millis", getPercentile(storeLatencies, 99));
+        store.put("max_in_millis", storeLatencies.isEmpty() ? -1 : storeLatencies.get(storeLatencies.size() - 1));
+
+        final Map<String, Object> propagation = new LinkedHashMap<>();
+        propagation.put("count", latencies.size());
+        propagation.put("timed_out", pendings.stream().mapToInt(Map::size).sum());
+        propagation.put("p50_in_millis", getPercentile(latencies, 50));
+        propagation.put("p99_in_millis", getPercentile(latencies, 99));
+        propagation.put("max_in_millis", latencies.isEmpty() ? -1 : latencies.get(latencies.size() - 1));
+        propagation.put("took_in_millis", System.currentTimeMillis() - uploadStartTime);
+
+        final Map<String, Object> result = new LinkedHashMap<>();
+        result.put("nodes", numOfNode);
+        result.put("files", storeLatencies.size());
+        result.put("size_in_bytes", totalSize);
+        result.put("upload_took_in_millis", uploadTook);
+        result.put("store", store);
+        result.put("propagation", propagation);
+        result.put("index_size_in_bytes", getIndexSize(node));
+        result.put("peak_heap_in_bytes", peakHeap);
+        result.put("node_stats", getNodeStats(node));
+        return result;
+    }
+
+    /**
+     * Stores a file, and adds it to pending files of all nodes with the time its store was acknowledged.
+     */
+    private static long upload(final Node node, final String path, final String content, final List<Map<String, long[]>> pendings,
+            final List<Long> storeLatencies) throws IOException {
+        final long startTime = System.currentTimeMillis();
+        try (CurlResponse response = EcrCurl.post(node, "/_configsync/file").header("Content-Type", "application/json")
+                .param("path", path).body(content).execute()) {
+            final Map<String, Object> contentMap = response.getContent(EcrCurl.jsonParser());
+            assertEquals("true", contentMap.get("acknowledged").toString());
+        }
+        final long storedTime = System.currentTimeMillis();
+        storeLatencies.add(storedTime - startTime);
+        for (final Map<String, long[]> pending : pendings) {
+            pending.put(path, new long[] { content.length(), storedTime });
+        }
+        return content.length();
+    }
+
+    /**
+     * Polls config directories of all nodes while files are uploaded, and records the time from the store of each file
+     * to its arrival on each node.
+     */
+    private class PropagationPoller implements Runnable {
+
+        private final Path[] configDirs;
+
+        private final List<Map<String, long[]>> pendings;
+
+        private final List<Long> latencies;
+
+        private final AtomicReference<Exception> failure = new AtomicReference<>();
+
+        private volatile boolean uploaded;
+
+        PropagationPoller(final Path[] configDirs, final List<Map<String, long[]>> pendings, final List<Long> latencies) {
+            this.configDirs = configDirs;
+            this.pendings = pendings;
+            this.latencies = latencies;
+        }
+
+        @Override
+        public void run() {
+            final long startTime = System.currentTimeMillis();
+            try {
+                while (System.currentTimeMillis() - startTime < timeout) {
+                    // checked before polling, so files added while polling are not missed
+                    final boolean done = uploaded;
+                    boolean empty = true;
+                    for (int i = 0; i < configDirs.length; i++) {
+                        final Iterator<Map.Entry<String, long[]>> it = pendings.get(i).entrySet().iterator();
+                        while (it.hasNext()) {
+                            final Map.Entry<String, long[]> entry = it.next();
+                            final File file = configDirs[i].resolve(entry.getKey()).toFile();
+                            if (file.exists() && file.length() == entry.getValue()[0]) {
+                                latencies.add(Math.max(0, System.currentTimeMillis() - entry.getValue()[1]));
+                                it.remove();
+                            }
+                        }
+                        empty &= pendings.get(i).isEmpty();
+                    }
+                    if (done && empty) {
+                        return;
+                    }
+                    Thread.sleep(100L);
+                }
+                logger.warn("Timed out waiting for propagation of {} files.", pendings.stream().mapToInt(Map::size).sum());
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (final Exception e) {
+                failure.set(e);
+            }
+        }
+    }
+
+    /**
+     * Creates ASCII content like a user dictionary.
+     */
+    private static String createContent(final int seed, final int size) {
+        final StringBuilder buf = new StringBuilder(size + 64);
+        int line = 0;
+        while (buf.length() < size) {
+            buf.append("word").append(seed).append('_').append(line).append(",reading").append(line).append(",noun\n");
+            line++;
+        }
+        buf.setLength(size);
+        return buf.toString();
+    }
+
+    private static long getPercentile(final List<Long> sortedValues, final double percentile) {
+        if (sortedValues.isEmpty()) {
+            return -1;
+        }
+        final int rank = (int) Math.ceil(sortedValues.size() * percentile / 100.0);
+        return sortedValues.get(Math.max(0, rank - 1));
+    }
+
+    private static void resetPeakHeapUsage() {
+        System.gc();
+        for (final MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+            }
+        }
+    }
+
+    /**
+     * Returns the peak heap usage of this JVM, which contains all nodes of the cluster.
+     */
+    private static long getPeakHeapUsage() {
+        long peak = 0;
+        for (final MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+
+    private static long getIndexSize(final Node node) throws IOException {
+        try (CurlResponse response = EcrCurl.get(node, "/configsync/_stats/store").header("Content-Type", "application/json").execute()) {
+            final Map<String, Object> contentMap = response.getContent(EcrCurl.jsonParser());
+            final Map<String, Object> all = (Map<String, Object>) contentMap.get("_all");
+            final Map<String, Object> store = (Map<String, Object>) ((Map<String, Object>) all.get("total")).get("store");
+            return ((Number) store.get("size_in_bytes")).longValue();
+        }
+    }
+
+    /**
+     * Returns written files, bytes and cycles of each node from the stats API.
+     */
+    private static Map<String, Object> getNodeStats(final Node node) throws IOException {
+        final Map<String, Object> nodeStats = new LinkedHashMap<>();
+        try (CurlResponse response = EcrCurl.get(node, "/_configsync/_stats").header("Content-Type", "application/json").execute()) {
+            final Map<String, Object> contentMap = response.getContent(EcrCurl.jsonParser());
+            final Map<String, Object> nodes = (Map<String, Object>) contentMap.get("nodes");
+            for (final Object value : nodes.values()) {
+                final Map<String, Object> stats = (Map<String, Object>) value;
+                final Map<String, Object> result = new LinkedHashMap<>();
+                result.put("cycles", stats.get("cycles"));
+                result.put("files", stats.get("files"));
+                result.put("cycle_latency", ((Map<String, Object>) stats.get("latency")).get("cycle"));
+                nodeStats.put((String) stats.get("name"), result);
+            }
+        }
+        return nodeStats;
+    }
+}
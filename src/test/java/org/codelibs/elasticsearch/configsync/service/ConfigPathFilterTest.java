@@ -0,0 +1,85 @@
+/*
+ * Copyright 2012-2022 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.elasticsearch.configsync.service;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.WildcardQuery;
+import org.apache.lucene.util.automaton.CharacterRunAutomaton;
+import org.elasticsearch.cluster.ClusterName;
+import org.elasticsearch.cluster.ClusterState;
+import org.elasticsearch.cluster.metadata.Metadata;
+import org.elasticsearch.cluster.node.DiscoveryNode;
+import org.elasticsearch.cluster.node.DiscoveryNodes;
+import org.elasticsearch.common.regex.Regex;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.transport.TransportAddress;
+import org.elasticsearch.index.query.BoolQueryBuilder;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.index.query.WildcardQueryBuilder;
+
+import junit.framework.TestCase;
+
+public class ConfigPathFilterTest extends TestCase {
+
+    private static final String[] PATHS = { "dict/a.txt", "dict/ab.txt", "dict/?.txt", "dict/\\a.txt", "dict/x.txt", "dict/x?.txt",
+            "stopwords.txt" };
+
+    public void test_toWildcard() {
+        assertEquals("dict/*.txt", ConfigPathFilter.toWildcard("dict/*.txt"));
+        assertEquals("dict/\\?.txt", ConfigPathFilter.toWildcard("dict/?.txt"));
+        assertEquals("dict/\\\\*", ConfigPathFilter.toWildcard("dict/\\*"));
+
+        for (final String pattern : new String[] { "dict/*.txt", "dict/?.txt", "dict/\\*", "*?*", "dict/x?*", "*" }) {
+            final CharacterRunAutomaton automaton =
+                    new CharacterRunAutomaton(WildcardQuery.toAutomaton(new Term("path", ConfigPathFilter.toWildcard(pattern))));
+            for (final String path : PATHS) {
+                assertEquals(pattern + " for " + path, Regex.simpleMatch(pattern, path), automaton.run(path));
+            }
+        }
+    }
+
+    public void test_matchesAndApply() {
+        final Settings settings = Settings.builder()
+                .put("configsync.filter.test.nodes", "_all")
+                .putList("configsync.filter.test.include", "dict/*", "dict/?.txt")
+                .putList("configsync.filter.test.exclude", "dict/x?.txt")
+                .build();
+        final DiscoveryNode node =
+                DiscoveryNode.createLocal(Settings.EMPTY, new TransportAddress(TransportAddress.META_ADDRESS, 9300), "node1");
+        final ClusterState state = ClusterState.builder(ClusterName.DEFAULT)
+                .nodes(DiscoveryNodes.builder().add(node).localNodeId(node.getId()))
+                .metadata(Metadata.builder().persistentSettings(settings))
+                .build();
+        final ConfigPathFilter filter = ConfigPathFilter.of(state, node, "config");
+
+        assertTrue(filter.matches("dict/a.txt"));
+        assertTrue(filter.matches("dict/x.txt"));
+        assertFalse(filter.matches("dict/x?.txt"));
+        assertFalse(filter.matches("stopwords.txt"));
+
+        final BoolQueryBuilder query = filter.apply(QueryBuilders.boolQuery(), "path");
+        final List<String> includes = new ArrayList<>();
+        for (final QueryBuilder clause : ((BoolQueryBuilder) query.filter().get(0)).should()) {
+            includes.add(((WildcardQueryBuilder) clause).value());
+        }
+        assertEquals(List.of("dict/*", "dict/\\?.txt"), includes);
+        assertEquals("dict/x\\?.txt", ((WildcardQueryBuilder) query.mustNot().get(0)).value());
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2012-2022 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.elasticsearch.configsync.service;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.appender.AbstractAppender;
+import org.elasticsearch.common.logging.Loggers;
+import org.elasticsearch.common.settings.Settings;
+
+import junit.framework.TestCase;
+
+public class ConfigSyncSlowLogTest extends TestCase {
+
+    private final Logger logger = LogManager.getLogger(ConfigSyncSlowLog.LOGGER_NAME);
+
+    private CapturingAppender appender;
+
+    private Level level;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        appender = new CapturingAppender();
+        appender.start();
+        level = logger.getLevel();
+        Loggers.setLevel(logger, Level.TRACE);
+        Loggers.addAppender(logger, appender);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        Loggers.removeAppender(logger, appender);
+        Loggers.setLevel(logger, level);
+        appender.stop();
+        super.tearDown();
+    }
+
+    public void test_disabledByDefault() {
+        final ConfigSyncSlowLog slowLog = new ConfigSyncSlowLog(Settings.EMPTY, "node_1");
+        slowLog.onFileUpdated("dir1/test1.txt", Long.MAX_VALUE / 2, seconds(100), seconds(100));
+        slowLog.onCycleCompleted(seconds(100), 10, 100, seconds(10));
+        assertEquals(0, appender.events.size());
+    }
+
+    public void test_fileThresholds() {
+        final ConfigSyncSlowLog slowLog = new ConfigSyncSlowLog(Settings.builder()
+                .put(ConfigSyncSlowLog.WRITE_WARN_SETTING.getKey(), "1s")
+                .put(ConfigSyncSlowLog.WRITE_INFO_SETTING.getKey(), "100ms")
+                .put(ConfigSyncSlowLog.SIZE_INFO_SETTING.getKey(), "1kb")
+                .build(), "node_1");
+
+        slowLog.onFileUpdated("dir1/test1.txt", 10, millis(5), millis(5));
+        assertEquals(0, appender.events.size());
+
+        slowLog.onFileUpdated("dir1/test2.txt", 10, millis(100), millis(100));
+        assertEvent(Level.INFO, "[node_1] file: path[dir1/test2.txt], bytes[10], took[200ms], took_millis[200]");
+
+        slowLog.onFileUpdated("dir1/test3.txt", 10, millis(500), millis(1500));
+        assertEvent(Level.WARN, "[node_1] file: path[dir1/test3.txt], bytes[10], took[2s], took_millis[2000]");
+
+        slowLog.onFileUpdated("dir1/test4.txt", 2048, millis(1), millis(1));
+        assertEvent(Level.INFO, "[node_1] file: path[dir1/test4.txt], bytes[2048]");
+    }
+
+    public void test_cycleThresholds() {
+        final ConfigSyncSlowLog slowLog = new ConfigSyncSlowLog(Settings.EMPTY, "node_1");
+        slowLog.load(Settings.builder()
+                .put(ConfigSyncSlowLog.CYCLE_WARN_SETTING.getKey(), "10s")
+                .put(ConfigSyncSlowLog.CYCLE_INFO_SETTING.getKey(), "1s")
+                .build());
+
+        slowLog.onCycleCompleted(millis(500), 10, 100, millis(100));
+        assertEquals(0, appender.events.size());
+
+        slowLog.onCycleCompleted(seconds(2), 10, 100, seconds(1));
+        assertEvent(Level.INFO, "[node_1] cycle: took[2s], took_millis[2000], docs[10], bytes[100], search[1s], apply[1s]");
+
+        slowLog.onCycleCompleted(seconds(20), 10, 100, seconds(5));
+        assertEvent(Level.WARN, "[node_1] cycle: took[20s], took_millis[20000], docs[10], bytes[100], search[5s], apply[15s]");
+
+        // cluster settings are reloaded at each cycle, and node settings are used if they are removed
+        slowLog.load(Settings.EMPTY);
+        slowLog.onCycleCompleted(seconds(20), 10, 100, seconds(5));
+        assertEquals(0, appender.events.size());
+    }
+
+    private void assertEvent(final Level expectedLevel, final String expectedPrefix) {
+        assertEquals(1, appender.events.size());
+        final LogEvent event = appender.events.remove(0);
+        assertEquals(expectedLevel, event.getLevel());
+        final String message = event.getMessage().getFormattedMessage();
+        assertTrue(message, message.startsWith(expectedPrefix));
+    }
+
+    private static long millis(final long value) {
+        return TimeUnit.MILLISECONDS.toNanos(value);
+    }
+
+    private static long seconds(final long value) {
+        return TimeUnit.SECONDS.toNanos(value);
+    }
+
+    private static class CapturingAppender extends AbstractAppender {
+
+        final List<LogEvent> events = new CopyOnWriteArrayList<>();
+
+        CapturingAppender() {
+            super("configsync_slowlog_test", null, null, false, null);
+        }
+
+        @Override
+        public void append(final LogEvent event) {
+            events.add(event.toImmutable());
+        }
+    }
+}
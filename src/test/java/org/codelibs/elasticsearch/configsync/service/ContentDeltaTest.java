@@ -0,0 +1,84 @@
+/*
+ * Copyright 2012-2022 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.elasticsearch.configsync.service;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class ContentDeltaTest extends TestCase {
+
+    public void test_encodeAndApply() throws Exception {
+        assertDelta(new byte[0], new byte[0]);
+        assertDelta(new byte[0], "abc".getBytes(StandardCharsets.UTF_8));
+        assertDelta("abc".getBytes(StandardCharsets.UTF_8), new byte[0]);
+        assertDelta("abc".getBytes(StandardCharsets.UTF_8), "abc".getBytes(StandardCharsets.UTF_8));
+
+        final Random random = new Random(1);
+        for (int i = 0; i < 50; i++) {
+            final byte[] base = new byte[random.nextInt(200000)];
+            random.nextBytes(base);
+            assertDelta(base, edit(base, random));
+        }
+    }
+
+    public void test_smallDeltaForSmallEdit() throws Exception {
+        final StringBuilder buf = new StringBuilder();
+        for (int i = 0; i < 100000; i++) {
+            buf.append("word").append(i).append('\n');
+        }
+        final byte[] base = buf.toString().getBytes(StandardCharsets.UTF_8);
+        final byte[] target = buf.insert(buf.length() / 2, "inserted\n").toString().getBytes(StandardCharsets.UTF_8);
+        final byte[] delta = ContentDelta.encode(base, target);
+        assertTrue(delta.length < 1000);
+        assertTrue(Arrays.equals(target, ContentDelta.apply(base, delta)));
+    }
+
+    public void test_rollingChecksum() {
+        final byte[] data = "abcdefghijklmnopqrstuvwxyz".getBytes(StandardCharsets.UTF_8);
+        final ContentDelta.RollingChecksum checksum = new ContentDelta.RollingChecksum(data, 0, 8);
+        for (int i = 1; i + 8 <= data.length; i++) {
+            checksum.roll(data[i - 1], data[i + 7]);
+            assertEquals(ContentDelta.RollingChecksum.checksum(data, i, 8), checksum.getValue());
+        }
+    }
+
+    private static byte[] edit(final byte[] base, final Random random) {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int pos = 0;
+        while (pos < base.length) {
+            final int length = Math.min(base.length - pos, random.nextInt(base.length / 5 + 1) + 1);
+            if (random.nextInt(4) == 0) {
+                final byte[] bytes = new byte[random.nextInt(50)];
+                random.nextBytes(bytes);
+                out.write(bytes, 0, bytes.length);
+            }
+            if (random.nextInt(5) != 0) {
+                out.write(base, pos, length);
+            }
+            pos += length;
+        }
+        return out.toByteArray();
+    }
+
+    private static void assertDelta(final byte[] base, final byte[] target) throws Exception {
+        final byte[] delta = ContentDelta.encode(base, target);
+        assertTrue(Arrays.equals(target, ContentDelta.apply(base, delta)));
+    }
+}